@@ -0,0 +1,201 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.cashdeskline.events;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import org.cocome.tradingsystem.cashdeskline.datatypes.NumPadKeyStroke;
+import org.cocome.tradingsystem.cashdeskline.datatypes.PaymentMode;
+import org.cocome.tradingsystem.inventory.application.store.SaleLineTO;
+import org.cocome.tradingsystem.inventory.application.store.SaleTO;
+import org.cocome.tradingsystem.util.event.EventCodecRegistry;
+import org.cocome.tradingsystem.util.java.Lists;
+
+/**
+ * Compares the size of encoded events and the encoding and decoding
+ * throughput of Java serialization (used for object messages) and the binary
+ * event codecs (used for bytes messages). The JMS message headers are not
+ * included in the sizes. Usage:
+ * 
+ * <pre>
+ * EventCodecBenchmark [events]
+ * </pre>
+ */
+public final class EventCodecBenchmark {
+
+	private interface Codec {
+		byte[] encode(Serializable event) throws IOException;
+
+		Serializable decode(byte[] bytes) throws IOException;
+	}
+
+	private static final class SerializationCodec implements Codec {
+		@Override
+		public byte[] encode(final Serializable event) throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final ObjectOutputStream output = new ObjectOutputStream(bytes);
+			output.writeObject(event);
+			output.close();
+			return bytes.toByteArray();
+		}
+
+		@Override
+		public Serializable decode(final byte[] bytes) throws IOException {
+			final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return (Serializable) input.readObject();
+
+			} catch (final ClassNotFoundException cnfe) {
+				throw new IOException(cnfe.getMessage());
+			}
+		}
+	}
+
+	private static final class RegistryCodec implements Codec {
+		private final EventCodecRegistry __registry;
+
+		RegistryCodec(final EventCodecRegistry registry) {
+			__registry = registry;
+		}
+
+		@Override
+		public byte[] encode(final Serializable event) throws IOException {
+			return __registry.encode(event);
+		}
+
+		@Override
+		public Serializable decode(final byte[] bytes) throws IOException {
+			return __registry.decode(bytes);
+		}
+	}
+
+	//
+
+	public static void main(final String[] args) throws IOException {
+		final int eventCount = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+		final EventCodecRegistry registry = new EventCodecRegistry();
+		new CashDeskEventCodecs().registerCodecs(registry);
+
+		final Codec serialization = new SerializationCodec();
+		final Codec binary = new RegistryCodec(registry);
+
+		final Serializable[] events = __createEvents();
+
+		//
+		// Report the encoded size of each event.
+		//
+		long serializedTotal = 0;
+		long binaryTotal = 0;
+		for (final Serializable event : events) {
+			final int serializedSize = serialization.encode(event).length;
+			final int binarySize = binary.encode(event).length;
+			serializedTotal += serializedSize;
+			binaryTotal += binarySize;
+
+			System.out.printf(
+					"%-30s %6d bytes serialized, %6d bytes binary\n",
+					event.getClass().getSimpleName(), serializedSize, binarySize
+					);
+		}
+
+		System.out.printf(
+				"%-30s %6.1f bytes serialized, %6.1f bytes binary\n", "average",
+				(double) serializedTotal / events.length, (double) binaryTotal / events.length
+				);
+
+		//
+		// Warm up both codecs before measuring.
+		//
+		__measure("serialization (warm-up)", serialization, events, eventCount / 10);
+		__measure("binary (warm-up)", binary, events, eventCount / 10);
+
+		__measure("serialization", serialization, events, eventCount);
+		__measure("binary", binary, events, eventCount);
+	}
+
+	private static void __measure(
+			final String name, final Codec codec,
+			final Serializable[] events, final int eventCount
+			) throws IOException {
+		final byte[][] encoded = new byte[events.length][];
+
+		long encodeTime = 0;
+		long decodeTime = 0;
+		for (int done = 0; done < eventCount; done += events.length) {
+			final long encodeStart = System.nanoTime();
+			for (int i = 0; i < events.length; i++) {
+				encoded[i] = codec.encode(events[i]);
+			}
+
+			final long decodeStart = System.nanoTime();
+			for (int i = 0; i < events.length; i++) {
+				codec.decode(encoded[i]);
+			}
+
+			decodeTime += System.nanoTime() - decodeStart;
+			encodeTime += decodeStart - encodeStart;
+		}
+
+		final int measured = ((eventCount + events.length - 1) / events.length) * events.length;
+		System.out.printf(
+				"%s: %.0f encoded events/s, %.0f decoded events/s\n",
+				name, measured / (encodeTime / 1e9), measured / (decodeTime / 1e9)
+				);
+	}
+
+	//
+
+	private static Serializable[] __createEvents() {
+		final List<SaleLineTO> lines = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			final SaleLineTO line = new SaleLineTO();
+			line.setStockItemId(1000 + i);
+			line.setBarcode(4000000000000L + i);
+			line.setQuantity(1 + i % 3);
+			line.setUnitPrice(1.99 + i);
+			lines.add(line);
+		}
+
+		final SaleTO sale = new SaleTO();
+		sale.setDate(new Date());
+		sale.setSaleLines(lines);
+
+		return new Serializable[] {
+				new SaleStartedEvent(),
+				new ProductBarcodeScannedEvent(4000000000001L),
+				new ProductBarcodesScannedEvent(new long[] {
+						4000000000001L, 4000000000002L, 4000000000003L, 4000000000004L
+				}),
+				new RunningTotalChangedEvent("Chocolate Bar", 1.99, 12.45),
+				new CashBoxNumPadKeypressEvent(NumPadKeyStroke.ONE),
+				new PaymentModeSelectedEvent(PaymentMode.CASH),
+				new CashAmountEnteredEvent(20.0),
+				new ChangeAmountCalculatedEvent(7.55),
+				new SaleRegisteredEvent("CashDesk1", 10, PaymentMode.CASH),
+				new AccountSaleEvent(sale),
+		};
+	}
+
+}
@@ -0,0 +1,152 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util.event;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import javax.jms.JMSException;
+
+import org.cocome.tradingsystem.util.event.ObjectMessageListener.IEventDispatcher;
+
+/**
+ * Compares the throughput and allocation rate of the reflection-based and the
+ * generated event dispatchers. The allocation is only reported on virtual
+ * machines which support measuring the amount of memory allocated by a
+ * thread. Usage:
+ * 
+ * <pre>
+ * DispatcherBenchmark [events]
+ * </pre>
+ */
+public final class DispatcherBenchmark {
+
+	static final class FirstEvent implements Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+
+	static final class SecondEvent implements Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+
+	@EventConsumer
+	interface IBenchmarkConsumer {
+		void onEvent(FirstEvent event);
+
+		void onEvent(SecondEvent event);
+	}
+
+	static final class BenchmarkConsumer implements IBenchmarkConsumer {
+		long firstCount;
+
+		long secondCount;
+
+		@Override
+		public void onEvent(final FirstEvent event) {
+			firstCount++;
+		}
+
+		@Override
+		public void onEvent(final SecondEvent event) {
+			secondCount++;
+		}
+	}
+
+	//
+
+	public static void main(final String[] args) throws JMSException {
+		final int eventCount = (args.length > 0) ? Integer.parseInt(args[0]) : 10000000;
+
+		final Serializable[] events = new Serializable[] {
+				new FirstEvent(), new SecondEvent()
+		};
+
+		final BenchmarkConsumer reflectionConsumer = new BenchmarkConsumer();
+		final IEventDispatcher reflection = ReflectionDispatcher.newInstance(reflectionConsumer);
+
+		//
+		// Only measure the reflection-based dispatcher if the dispatcher
+		// cannot be generated, as the application falls back to it as well.
+		//
+		final BenchmarkConsumer generatedConsumer = new BenchmarkConsumer();
+		IEventDispatcher generated;
+		try {
+			generated = GeneratedDispatcher.newInstance(generatedConsumer);
+
+		} catch (final IllegalStateException ise) {
+			System.out.printf(
+					"generated: not available, using reflection: %s\n", ise.getMessage()
+					);
+			generated = null;
+		}
+
+		//
+		// Warm up the dispatchers before measuring.
+		//
+		__measure("reflection (warm-up)", reflection, events, eventCount);
+		if (generated != null) {
+			__measure("generated (warm-up)", generated, events, eventCount);
+		}
+
+		__measure("reflection", reflection, events, eventCount);
+		if (generated != null) {
+			__measure("generated", generated, events, eventCount);
+		}
+	}
+
+	private static void __measure(
+			final String name, final IEventDispatcher dispatcher,
+			final Serializable[] events, final int eventCount
+			) throws JMSException {
+		final long startBytes = __getAllocatedBytes();
+		final long startTime = System.nanoTime();
+
+		for (int i = 0; i < eventCount; i++) {
+			dispatcher.dispatch(events[i & 1]);
+		}
+
+		final long elapsed = System.nanoTime() - startTime;
+		final long allocated = __getAllocatedBytes() - startBytes;
+
+		System.out.printf(
+				"%s: %.0f events/s, %s bytes/event\n",
+				name, eventCount / (elapsed / 1e9),
+				(startBytes >= 0) ? String.format("%.1f", (double) allocated / eventCount) : "n/a"
+				);
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread, or -1 if
+	 * the virtual machine does not support the measurement. The method is
+	 * looked up reflectively, because it is not part of the standard API.
+	 */
+	private static long __getAllocatedBytes() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		try {
+			final Method method = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long.class);
+
+			return (Long) method.invoke(threads, Thread.currentThread().getId());
+
+		} catch (final Exception e) {
+			return -1;
+		}
+	}
+
+}
@@ -30,6 +30,7 @@ import org.cocome.tradingsystem.cashdeskline.events.ExpressModeDisabledEvent;
 import org.cocome.tradingsystem.cashdeskline.events.ExpressModeEnabledEvent;
 import org.cocome.tradingsystem.cashdeskline.events.PaymentModeSelectedEvent;
 import org.cocome.tradingsystem.cashdeskline.events.ProductBarcodeScannedEvent;
+import org.cocome.tradingsystem.cashdeskline.events.ProductBarcodesScannedEvent;
 import org.cocome.tradingsystem.cashdeskline.events.SaleFinishedEvent;
 import org.cocome.tradingsystem.cashdeskline.events.SaleStartedEvent;
 import org.cocome.tradingsystem.util.event.AbstractSerializableEventDispatcher;
@@ -153,6 +154,16 @@ final class CashDeskEventHandler
 		this.cashDesk.addItemToSale(barcode);
 	}
 
+	@Override
+	public void onEvent(final ProductBarcodesScannedEvent event) throws JMSException {
+		final long[] barcodes = event.getBarcodes();
+		LOG.debug("\tbarcodes: " + barcodes.length);
+
+		//
+
+		this.cashDesk.addItemsToSale(barcodes);
+	}
+
 	@Override
 	public void onEvent(final CashAmountEnteredEvent event) throws JMSException {
 		final double cashAmount = event.getCashAmount();
@@ -20,7 +20,7 @@ import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.Collections;
 import java.util.Date;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jms.Connection;
@@ -49,7 +49,9 @@ import org.cocome.tradingsystem.external.IBank;
 import org.cocome.tradingsystem.external.TransactionID;
 import org.cocome.tradingsystem.inventory.application.store.IStoreInventory;
 import org.cocome.tradingsystem.inventory.application.store.NoSuchProductException;
+import org.cocome.tradingsystem.inventory.application.store.ProductWithStockItemLookupTO;
 import org.cocome.tradingsystem.inventory.application.store.ProductWithStockItemTO;
+import org.cocome.tradingsystem.inventory.application.store.SaleLineTO;
 import org.cocome.tradingsystem.inventory.application.store.SaleTO;
 import org.cocome.tradingsystem.util.ApplicationHelper;
 import org.cocome.tradingsystem.util.ComponentNotAvailableException;
@@ -59,6 +61,7 @@ import org.cocome.tradingsystem.util.Names;
 import org.cocome.tradingsystem.util.RemoteComponent;
 import org.cocome.tradingsystem.util.event.ObjectMessageListener;
 import org.cocome.tradingsystem.util.java.Lists;
+import org.cocome.tradingsystem.util.java.Maps;
 import org.cocome.tradingsystem.util.java.Sets;
 import org.cocome.tradingsystem.util.mvc.AbstractModel;
 
@@ -164,7 +167,11 @@ public final class CashDeskModel
 	// Sale state
 	//
 
-	private List<ProductWithStockItemTO> saleProducts;
+	/** Sale lines indexed by stock item identifier, in the order of scanning. */
+	private Map<Long, SaleLineTO> saleLines;
+
+	/** Number of units scanned in the sale. */
+	private int saleItemCount;
 
 	private double runningTotal;
 
@@ -241,7 +248,8 @@ public final class CashDeskModel
 	 */
 	private void resetSale() {
 		this.runningTotal = 0.0;
-		this.saleProducts = Lists.newArrayList();
+		this.saleLines = Maps.newLinkedHashMap();
+		this.saleItemCount = 0;
 		this.cardInfo = INVALID_CARD_INFO;
 	}
 
@@ -287,17 +295,62 @@ public final class CashDeskModel
 			}
 
 		} else {
+			this.logExpressItemLimitExceeded();
+		}
+	}
+
+	/**
+	 * Adds items with the specified barcodes into the running sale and updates
+	 * the running total. All the barcodes are resolved with a single call to
+	 * the store inventory. Barcodes without a product are reported as invalid,
+	 * and items exceeding the allowed number of items in an express sale are
+	 * ignored.
+	 * 
+	 * @param barcodes
+	 */
+	void addItemsToSale(final long[] barcodes) throws JMSException {
+		this.ensureStateIsLegal(ADD_ITEM_TO_SALE_STATES);
+
+		if (!this.canAcceptNextItem()) {
+			this.logExpressItemLimitExceeded();
+			return;
+		}
+
+		try {
+			final ProductWithStockItemLookupTO lookup =
+					this.inventory.getProductsWithStockItems(barcodes);
+
+			for (final ProductWithStockItemTO productStockItem : lookup.getProductWithStockItemTOs()) {
+				if (!this.canAcceptNextItem()) {
+					this.logExpressItemLimitExceeded();
+					break;
+				}
+
+				this.addItemToSale(productStockItem);
+			}
+
+			for (final long barcode : lookup.getUnknownBarcodes()) {
+				LOG.info("No product/stock item for barcode " + barcode);
+				this.sendInvalidProductBarcodeEvent(barcode);
+			}
+
+		} catch (final RemoteException re) {
 			// TODO Consider notifying other components. --LB
-			LOG.info(String.format(
-					"Cannot process more than %d items in express mode!",
-					this.expressModePolicy.getExpressItemLimit()
-					));
+			LOG.error("Failed to communicate with store inventory: " + re.getMessage());
 		}
 	}
 
+	private void logExpressItemLimitExceeded() {
+		// TODO Consider notifying other components. --LB
+		LOG.info(String.format(
+				"Cannot process more than %d items in express mode!",
+				this.expressModePolicy.getExpressItemLimit()
+				));
+	}
+
 	private boolean canAcceptNextItem() {
 		final boolean expressModeDisabled = !this.expressModeEnabled;
-		final boolean itemCountUnderLimit = this.saleProducts.size() < this.expressModePolicy.getExpressItemLimit();
+		final boolean itemCountUnderLimit = this.saleItemCount < this.expressModePolicy.getExpressItemLimit();
 
 		return expressModeDisabled || itemCountUnderLimit;
 	}
@@ -310,8 +363,20 @@ public final class CashDeskModel
 			throws JMSException {
 		//
 		// Add the product item to the sale and update the running total.
+		// Units of the same product are aggregated into a single sale line.
 		//
-		this.saleProducts.add(product);
+		final long stockItemId = product.getStockItemTO().getId();
+		SaleLineTO saleLine = this.saleLines.get(stockItemId);
+		if (saleLine == null) {
+			saleLine = new SaleLineTO();
+			saleLine.setStockItemId(stockItemId);
+			saleLine.setBarcode(product.getBarcode());
+			saleLine.setUnitPrice(product.getStockItemTO().getSalesPrice());
+			this.saleLines.put(stockItemId, saleLine);
+		}
+
+		saleLine.setQuantity(saleLine.getQuantity() + 1);
+		this.saleItemCount++;
 
 		final double price = product.getStockItemTO().getSalesPrice();
 		this.runningTotal = this.computeNewRunningTotal(price);
@@ -342,7 +407,7 @@ public final class CashDeskModel
 		// If there actually are any items in the sale, the sale can be finished
 		// and the cashier will proceed to payment mode selection.
 		//
-		if (this.saleProducts.size() > 0) {
+		if (this.saleItemCount > 0) {
 			this.sendSaleFinishedEvent();
 			this.state = CashDeskState.EXPECTING_PAYMENT;
 		}
@@ -583,13 +648,13 @@ public final class CashDeskModel
 		//
 		// Notify the coordinator about the sale, providing basic statistics.
 		//
-		this.sendSaleRegisteredEvent(saleTO.getProductTOs().size(), mode);
+		this.sendSaleRegisteredEvent(this.saleItemCount, mode);
 	}
 
 	private SaleTO createSaleTO() {
 		final SaleTO saleTO = new SaleTO();
 		saleTO.setDate(new Date());
-		saleTO.setProductTOs(this.saleProducts);
+		saleTO.setSaleLines(Lists.newArrayList(this.saleLines.values()));
 		return saleTO;
 	}
 
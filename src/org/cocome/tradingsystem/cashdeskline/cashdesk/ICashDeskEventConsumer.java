@@ -26,6 +26,7 @@ import org.cocome.tradingsystem.cashdeskline.events.ExpressModeDisabledEvent;
 import org.cocome.tradingsystem.cashdeskline.events.ExpressModeEnabledEvent;
 import org.cocome.tradingsystem.cashdeskline.events.PaymentModeSelectedEvent;
 import org.cocome.tradingsystem.cashdeskline.events.ProductBarcodeScannedEvent;
+import org.cocome.tradingsystem.cashdeskline.events.ProductBarcodesScannedEvent;
 import org.cocome.tradingsystem.cashdeskline.events.SaleFinishedEvent;
 import org.cocome.tradingsystem.cashdeskline.events.SaleStartedEvent;
 import org.cocome.tradingsystem.util.event.EventConsumer;
@@ -52,6 +53,8 @@ interface ICashDeskEventConsumer {
 
 	void onEvent(ProductBarcodeScannedEvent event) throws JMSException;
 
+	void onEvent(ProductBarcodesScannedEvent event) throws JMSException;
+
 	void onEvent(CashAmountEnteredEvent event) throws JMSException;
 
 	void onEvent(CashBoxClosedEvent event) throws JMSException;
@@ -21,6 +21,7 @@ import javax.jms.Session;
 
 import org.apache.log4j.Logger;
 import org.cocome.tradingsystem.cashdeskline.events.ProductBarcodeScannedEvent;
+import org.cocome.tradingsystem.cashdeskline.events.ProductBarcodesScannedEvent;
 import org.cocome.tradingsystem.util.JmsHelper;
 import org.cocome.tradingsystem.util.JmsHelper.SessionBoundProducer;
 import org.cocome.tradingsystem.util.Names;
@@ -62,6 +63,11 @@ public final class BarcodeScannerModel
 		this.cashDeskProducer.sendAsync(new ProductBarcodeScannedEvent(barcode));
 	}
 
+	// @Override
+	public void sendProductBarcodes(final long[] barcodes) {
+		this.cashDeskProducer.sendAsync(new ProductBarcodesScannedEvent(barcodes));
+	}
+
 	//
 
 	public static BarcodeScannerModel newInstance(
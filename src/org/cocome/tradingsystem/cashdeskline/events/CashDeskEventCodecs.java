@@ -0,0 +1,422 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.cashdeskline.events;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import org.cocome.tradingsystem.cashdeskline.datatypes.NumPadKeyStroke;
+import org.cocome.tradingsystem.cashdeskline.datatypes.PaymentMode;
+import org.cocome.tradingsystem.inventory.application.store.SaleLineTO;
+import org.cocome.tradingsystem.inventory.application.store.SaleTO;
+import org.cocome.tradingsystem.util.event.EventCodecRegistry;
+import org.cocome.tradingsystem.util.event.IEventCodec;
+import org.cocome.tradingsystem.util.event.IEventCodecProvider;
+import org.cocome.tradingsystem.util.java.Lists;
+
+/**
+ * Registers binary codecs for the events exchanged on the cash desk and the
+ * store channels. The type identifiers are part of the wire format and must
+ * not be reused or changed once assigned. New events must get new type
+ * identifiers, and events whose fields change must get a new identifier as
+ * well.
+ */
+public final class CashDeskEventCodecs implements IEventCodecProvider {
+
+	private static final long __NO_DATE__ = Long.MIN_VALUE;
+
+	/** Encoded size of a sale line: three longs and a double. */
+	private static final int __SALE_LINE_SIZE__ = 32;
+
+	//
+
+	@Override
+	public void registerCodecs(final EventCodecRegistry registry) {
+		//
+		// Events without fields.
+		//
+		__registerSingleton(registry, 1, new SaleStartedEvent());
+		__registerSingleton(registry, 2, new SaleFinishedEvent());
+		__registerSingleton(registry, 3, new SaleSuccessEvent());
+		__registerSingleton(registry, 4, new CashBoxOpenedEvent());
+		__registerSingleton(registry, 5, new CashBoxClosedEvent());
+		__registerSingleton(registry, 6, new CreditCardScanFailedEvent());
+		__registerSingleton(registry, 7, new ExpressModeDisabledEvent());
+
+		//
+		// Scanner and cash box events.
+		//
+		registry.register(10, ProductBarcodeScannedEvent.class,
+				new IEventCodec<ProductBarcodeScannedEvent>() {
+					@Override
+					public void encode(
+							final ProductBarcodeScannedEvent event, final DataOutput output
+							) throws IOException {
+						output.writeLong(event.getBarcode());
+					}
+
+					@Override
+					public ProductBarcodeScannedEvent decode(
+							final DataInputStream input) throws IOException {
+						return new ProductBarcodeScannedEvent(input.readLong());
+					}
+				});
+
+		registry.register(11, ProductBarcodesScannedEvent.class,
+				new IEventCodec<ProductBarcodesScannedEvent>() {
+					@Override
+					public void encode(
+							final ProductBarcodesScannedEvent event, final DataOutput output
+							) throws IOException {
+						final long[] barcodes = event.getBarcodes();
+						output.writeInt(barcodes.length);
+						for (final long barcode : barcodes) {
+							output.writeLong(barcode);
+						}
+					}
+
+					@Override
+					public ProductBarcodesScannedEvent decode(
+							final DataInputStream input) throws IOException {
+						final long[] barcodes = new long[EventCodecRegistry.readLength(input, 8)];
+						for (int i = 0; i < barcodes.length; i++) {
+							barcodes[i] = input.readLong();
+						}
+
+						return new ProductBarcodesScannedEvent(barcodes);
+					}
+				});
+
+		registry.register(12, InvalidProductBarcodeEvent.class,
+				new IEventCodec<InvalidProductBarcodeEvent>() {
+					@Override
+					public void encode(
+							final InvalidProductBarcodeEvent event, final DataOutput output
+							) throws IOException {
+						output.writeLong(event.getBarcode());
+					}
+
+					@Override
+					public InvalidProductBarcodeEvent decode(
+							final DataInputStream input) throws IOException {
+						return new InvalidProductBarcodeEvent(input.readLong());
+					}
+				});
+
+		registry.register(13, CashBoxNumPadKeypressEvent.class,
+				new IEventCodec<CashBoxNumPadKeypressEvent>() {
+					@Override
+					public void encode(
+							final CashBoxNumPadKeypressEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeEnum(output, event.getKeyStroke());
+					}
+
+					@Override
+					public CashBoxNumPadKeypressEvent decode(
+							final DataInputStream input) throws IOException {
+						return new CashBoxNumPadKeypressEvent(
+								EventCodecRegistry.readEnum(input, NumPadKeyStroke.class)
+								);
+					}
+				});
+
+		registry.register(14, CashAmountEnteredEvent.class,
+				new IEventCodec<CashAmountEnteredEvent>() {
+					@Override
+					public void encode(
+							final CashAmountEnteredEvent event, final DataOutput output
+							) throws IOException {
+						output.writeDouble(event.getCashAmount());
+					}
+
+					@Override
+					public CashAmountEnteredEvent decode(
+							final DataInputStream input) throws IOException {
+						return new CashAmountEnteredEvent(input.readDouble());
+					}
+				});
+
+		registry.register(15, ChangeAmountCalculatedEvent.class,
+				new IEventCodec<ChangeAmountCalculatedEvent>() {
+					@Override
+					public void encode(
+							final ChangeAmountCalculatedEvent event, final DataOutput output
+							) throws IOException {
+						output.writeDouble(event.getChangeAmount());
+					}
+
+					@Override
+					public ChangeAmountCalculatedEvent decode(
+							final DataInputStream input) throws IOException {
+						return new ChangeAmountCalculatedEvent(input.readDouble());
+					}
+				});
+
+		registry.register(16, RunningTotalChangedEvent.class,
+				new IEventCodec<RunningTotalChangedEvent>() {
+					@Override
+					public void encode(
+							final RunningTotalChangedEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeString(output, event.getProductName());
+						output.writeDouble(event.getProductPrice());
+						output.writeDouble(event.getRunningTotal());
+					}
+
+					@Override
+					public RunningTotalChangedEvent decode(
+							final DataInputStream input) throws IOException {
+						final String productName = EventCodecRegistry.readString(input);
+						final double productPrice = input.readDouble();
+						final double runningTotal = input.readDouble();
+						return new RunningTotalChangedEvent(productName, productPrice, runningTotal);
+					}
+				});
+
+		//
+		// Payment events.
+		//
+		registry.register(20, PaymentModeSelectedEvent.class,
+				new IEventCodec<PaymentModeSelectedEvent>() {
+					@Override
+					public void encode(
+							final PaymentModeSelectedEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeEnum(output, event.getMode());
+					}
+
+					@Override
+					public PaymentModeSelectedEvent decode(
+							final DataInputStream input) throws IOException {
+						return new PaymentModeSelectedEvent(
+								EventCodecRegistry.readEnum(input, PaymentMode.class)
+								);
+					}
+				});
+
+		registry.register(21, PaymentModeRejectedEvent.class,
+				new IEventCodec<PaymentModeRejectedEvent>() {
+					@Override
+					public void encode(
+							final PaymentModeRejectedEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeEnum(output, event.getMode());
+						EventCodecRegistry.writeString(output, event.getReason());
+					}
+
+					@Override
+					public PaymentModeRejectedEvent decode(
+							final DataInputStream input) throws IOException {
+						final PaymentMode mode = EventCodecRegistry.readEnum(input, PaymentMode.class);
+						final String reason = EventCodecRegistry.readString(input);
+						return new PaymentModeRejectedEvent(mode, reason);
+					}
+				});
+
+		registry.register(22, CreditCardScannedEvent.class,
+				new IEventCodec<CreditCardScannedEvent>() {
+					@Override
+					public void encode(
+							final CreditCardScannedEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeString(output, event.getCreditCardInformation());
+					}
+
+					@Override
+					public CreditCardScannedEvent decode(
+							final DataInputStream input) throws IOException {
+						return new CreditCardScannedEvent(EventCodecRegistry.readString(input));
+					}
+				});
+
+		registry.register(23, CreditCardPinEnteredEvent.class,
+				new IEventCodec<CreditCardPinEnteredEvent>() {
+					@Override
+					public void encode(
+							final CreditCardPinEnteredEvent event, final DataOutput output
+							) throws IOException {
+						output.writeInt(event.getPIN());
+					}
+
+					@Override
+					public CreditCardPinEnteredEvent decode(
+							final DataInputStream input) throws IOException {
+						return new CreditCardPinEnteredEvent(input.readInt());
+					}
+				});
+
+		registry.register(24, InvalidCreditCardEvent.class,
+				new IEventCodec<InvalidCreditCardEvent>() {
+					@Override
+					public void encode(
+							final InvalidCreditCardEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeString(output, event.getCardInfo());
+					}
+
+					@Override
+					public InvalidCreditCardEvent decode(
+							final DataInputStream input) throws IOException {
+						return new InvalidCreditCardEvent(EventCodecRegistry.readString(input));
+					}
+				});
+
+		//
+		// Sale and express mode events.
+		//
+		registry.register(30, SaleRegisteredEvent.class,
+				new IEventCodec<SaleRegisteredEvent>() {
+					@Override
+					public void encode(
+							final SaleRegisteredEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeString(output, event.getCashDesk());
+						output.writeInt(event.getItemCount());
+						EventCodecRegistry.writeEnum(output, event.getPaymentMode());
+					}
+
+					@Override
+					public SaleRegisteredEvent decode(
+							final DataInputStream input) throws IOException {
+						final String cashDesk = EventCodecRegistry.readString(input);
+						final int itemCount = input.readInt();
+						final PaymentMode paymentMode = EventCodecRegistry.readEnum(input, PaymentMode.class);
+						return new SaleRegisteredEvent(cashDesk, itemCount, paymentMode);
+					}
+				});
+
+		registry.register(31, ExpressModeEnabledEvent.class,
+				new IEventCodec<ExpressModeEnabledEvent>() {
+					@Override
+					public void encode(
+							final ExpressModeEnabledEvent event, final DataOutput output
+							) throws IOException {
+						EventCodecRegistry.writeString(output, event.getCashDesk());
+					}
+
+					@Override
+					public ExpressModeEnabledEvent decode(
+							final DataInputStream input) throws IOException {
+						return new ExpressModeEnabledEvent(EventCodecRegistry.readString(input));
+					}
+				});
+
+		registry.register(32, AccountSaleEvent.class,
+				new IEventCodec<AccountSaleEvent>() {
+					@Override
+					public void encode(
+							final AccountSaleEvent event, final DataOutput output
+							) throws IOException {
+						__encodeSale(event.getSale(), output);
+					}
+
+					@Override
+					public AccountSaleEvent decode(
+							final DataInputStream input) throws IOException {
+						return new AccountSaleEvent(__decodeSale(input));
+					}
+				});
+	}
+
+	//
+
+	/**
+	 * Registers a codec for an event without fields. The codec writes no
+	 * payload and always decodes to the given event instance, which is
+	 * safe because such events carry no state.
+	 */
+	private static <E extends Serializable> void __registerSingleton(
+			final EventCodecRegistry registry, final int typeId, final E event) {
+		@SuppressWarnings("unchecked")
+		final Class<E> type = (Class<E>) event.getClass();
+
+		registry.register(typeId, type, new IEventCodec<E>() {
+			@Override
+			public void encode(final E value, final DataOutput output) {
+				// no fields
+			}
+
+			@Override
+			public E decode(final DataInputStream input) {
+				return event;
+			}
+		});
+	}
+
+	//
+
+	private static void __encodeSale(
+			final SaleTO sale, final DataOutput output) throws IOException {
+		output.writeBoolean(sale != null);
+		if (sale == null) {
+			return;
+		}
+
+		final Date date = sale.getDate();
+		output.writeLong((date != null) ? date.getTime() : __NO_DATE__);
+
+		final List<SaleLineTO> lines = sale.getSaleLines();
+		output.writeInt((lines != null) ? lines.size() : -1);
+		if (lines == null) {
+			return;
+		}
+
+		for (final SaleLineTO line : lines) {
+			output.writeLong(line.getStockItemId());
+			output.writeLong(line.getBarcode());
+			output.writeLong(line.getQuantity());
+			output.writeDouble(line.getUnitPrice());
+		}
+	}
+
+	private static SaleTO __decodeSale(final DataInputStream input) throws IOException {
+		if (!input.readBoolean()) {
+			return null;
+		}
+
+		final SaleTO result = new SaleTO();
+
+		final long time = input.readLong();
+		result.setDate((time != __NO_DATE__) ? new Date(time) : null);
+
+		final int lineCount = input.readInt();
+		if (lineCount == -1) {
+			return result;
+		}
+
+		EventCodecRegistry.checkLength(input, lineCount, __SALE_LINE_SIZE__);
+
+		final List<SaleLineTO> lines = Lists.newArrayList(lineCount);
+		for (int i = 0; i < lineCount; i++) {
+			final SaleLineTO line = new SaleLineTO();
+			line.setStockItemId(input.readLong());
+			line.setBarcode(input.readLong());
+			line.setQuantity(input.readLong());
+			line.setUnitPrice(input.readDouble());
+			lines.add(line);
+		}
+
+		result.setSaleLines(lines);
+		return result;
+	}
+
+}
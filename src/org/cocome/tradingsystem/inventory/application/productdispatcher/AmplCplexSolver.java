@@ -17,8 +17,6 @@
 package org.cocome.tradingsystem.inventory.application.productdispatcher;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -31,17 +29,17 @@ import org.cocome.tradingsystem.inventory.application.store.FillTransferObjects;
 import org.cocome.tradingsystem.inventory.application.store.ProductAmountTO;
 import org.cocome.tradingsystem.inventory.application.store.ProductTO;
 import org.cocome.tradingsystem.inventory.application.store.StoreTO;
-import org.cocome.tradingsystem.inventory.data.DataFactory;
 import org.cocome.tradingsystem.inventory.data.enterprise.Product;
-import org.cocome.tradingsystem.inventory.data.persistence.IPersistenceContext;
 import org.cocome.tradingsystem.inventory.data.store.StockItem;
 import org.cocome.tradingsystem.inventory.data.store.Store;
-import org.cocome.tradingsystem.inventory.data.store.IStoreQuery;
 
 import org.apache.log4j.Logger;
 
 /**
  * AMPL/CPLEX based solver for the problem of optimal transportation costs.
+ * The solution is converted to transfer objects using only the stores and
+ * products passed to the solver, so that the solver does not need a
+ * persistence context and can run in a thread other than the caller.
  * <p>
  * Required for UC 8 (Optimization part)
  * 
@@ -71,24 +69,16 @@ final class AmplCplexSolver implements IOptimizationSolver {
 	private static final File __CPLEX_EXE__ =
 			new File(__AMPL_HOME__, __executableName("cplex"));
 
-	//
-
-	private final IStoreQuery __storeQuery =
-			DataFactory.getInstance().getStoreQuery();
-
-	private final IPersistenceContext __pctx;
-
-	//
-
 	/**
-	 * Constructor.
-	 * 
-	 * @param pctx
-	 *            persistence context to use for searching existing entities
+	 * Pool of AMPL sessions with the model loaded. Created when the
+	 * solver is first used.
 	 */
-	public AmplCplexSolver(final IPersistenceContext pctx) {
-		__pctx = pctx;
-	}
+	private static final AmplSessionPool __sessionPool__ = AmplSessionPool.newInstance(
+			__AMPL_EXE__, __CPLEX_EXE__,
+			new File(__AMPL_DATA__, "cocome.mod")
+			);
+
+	//
 
 	/*
 	 * @see OptimisationSolverIf#solveOptimization(Collection, Map, Map)
@@ -112,16 +102,20 @@ final class AmplCplexSolver implements IOptimizationSolver {
 		}
 
 		//
-		// Create problem description and solver input, execute the command
-		// line solver and parse its output back into solution map.
+		// Create problem description and solver input, solve the problem
+		// using a pooled AMPL session and parse its output back into
+		// solution map.
 		//
 		try {
-			final String amplCommands = __prepareSolverInput(
-					storeStockItems, storeDistances, availableProductAmounts
+			final String data = __createDataString(
+					availableProductAmounts, storeStockItems, storeDistances
 					);
 
-			final String output = __invokeSolver(amplCommands);
-			return __solutionFromSolverOutput(output);
+			final CplexSolution.Parser parser = new CplexSolution.Parser();
+			__sessionPool__.solve(data, parser);
+			return __solutionFromSolverDomain(
+					parser.solution(), availableProductAmounts, storeStockItems.keySet()
+					);
 
 		} catch (final Exception e) {
 			//
@@ -168,86 +162,41 @@ final class AmplCplexSolver implements IOptimizationSolver {
 	}
 
 	/**
-	 * Prepares the data file for the solver and returns a command string for
-	 * the solver which configures it and starts the optimization.
+	 * Converts the solution from solver domain to transfer object domain. The
+	 * stores and products in the solution are looked up among the stores and
+	 * products of the problem, so no database access is needed.
 	 */
-	private static String __prepareSolverInput(
-			final Map<Store, Collection<StockItem>> storeStockItems,
-			final Map<Store, Integer> storeDistances,
-			final Collection<ProductAmountTO> availableProductAmounts
+	private static Map<StoreTO, Collection<ProductAmountTO>> __solutionFromSolverDomain(
+			final CplexSolution solution,
+			final Collection<ProductAmountTO> productAmounts,
+			final Collection<Store> stores
 			) {
-		final String data = __createDataString(
-				availableProductAmounts, storeStockItems, storeDistances
-				);
-
-		// predefined model file
-		final File modelFile = new File(__AMPL_DATA__, "cocome.mod");
-
-		// create the data input file
-		final File dataFile = new File(__AMPL_DATA__, "cocome.dat");
-		__createTmpFile(dataFile, data);
-
-		// create command string for AMPL
-		return String.format(
-				"option solver \"%s\";\n" +
-						"model \"%s\";\n" +
-						"data \"%s\";\n" +
-						"solve;\n" +
-						"display {i in PRODUCT, j in STORE}: shipping_amount[i,j];\n" +
-						"quit;\n",
-				__CPLEX_EXE__, modelFile, dataFile
-				);
-	}
-
-	/**
-	 * Invokes the AMPL/CPLEX solver with given input and returns the output
-	 * produced by the solver.
-	 * 
-	 * @throws InterruptedException
-	 */
-	private static String __invokeSolver(
-			final String input
-			) throws IOException, InterruptedException {
-		final AmplPipe ampl = AmplPipe.open(__AMPL_EXE__);
-
-		try {
-			ampl.send(input);
-			return ampl.receive();
+		final Map<Long, Store> storesById = new HashMap<Long, Store>();
+		for (final Store store : stores) {
+			storesById.put(store.getId(), store);
+		}
 
-		} finally {
-			ampl.close();
+		final Map<Long, ProductTO> productsById = new HashMap<Long, ProductTO>();
+		for (final ProductAmountTO productAmount : productAmounts) {
+			productsById.put(productAmount.getProduct().getId(), productAmount.getProduct());
 		}
-	}
 
-	/**
-	 * Parses the solution from solver output and converts it from
-	 * the solver domain to the transfer object domain.
-	 */
-	private Map<StoreTO, Collection<ProductAmountTO>> __solutionFromSolverOutput(
-			final String solverOutput
-			) {
-		final CplexSolution solution = CplexSolution.parse(solverOutput);
-		return __solutionFromSolverDomain(solution);
-	}
+		//
 
-	/**
-	 * Converts the solution from solver domain to transfer object domain. This
-	 * requires database access because the solution objects are first converted
-	 * to entity objects, which are subsequently converted to transfer objects.
-	 */
-	private Map<StoreTO, Collection<ProductAmountTO>> __solutionFromSolverDomain(
-			final CplexSolution solution
-			) {
 		final Map<StoreTO, Collection<ProductAmountTO>> result = new HashMap<StoreTO, Collection<ProductAmountTO>>();
 
 		for (final CplexSolution.Store store : solution.stores()) {
-			final StoreTO storeTO = __getStoreTO(store);
+			final StoreTO storeTO = FillTransferObjects.fillStoreTO(
+					__lookup(storesById, store.id(), "store")
+					);
+
 			__log__.debug(String.format(
 					"Products sent by %s at %s",
 					storeTO.getName(), storeTO.getLocation()
 					));
 
-			final Collection<ProductAmountTO> productsTOs = __getProductTOs(store.products());
+			final Collection<ProductAmountTO> productsTOs =
+					__getProductTOs(store.products(), productsById);
 
 			result.put(storeTO, productsTOs);
 		}
@@ -255,21 +204,14 @@ final class AmplCplexSolver implements IOptimizationSolver {
 		return result;
 	}
 
-	private StoreTO __getStoreTO(final CplexSolution.Store store) {
-		final Store storeEntity = __storeQuery.queryStoreById(
-				store.id(), __pctx
-				);
-
-		return FillTransferObjects.fillStoreTO(storeEntity);
-	}
-
-	private Collection<ProductAmountTO> __getProductTOs(
-			final Collection<CplexSolution.Product> products
+	private static Collection<ProductAmountTO> __getProductTOs(
+			final Collection<CplexSolution.Product> products,
+			final Map<Long, ProductTO> productsById
 			) {
 		final Collection<ProductAmountTO> result = new ArrayList<ProductAmountTO>();
 
 		for (final CplexSolution.Product product : products) {
-			final ProductTO productTO = __getProductTO(product);
+			final ProductTO productTO = __lookup(productsById, product.id(), "product");
 			__log__.debug(String.format(
 					"\t%s, barcode %d, amount %d",
 					productTO.getName(), productTO.getBarcode(), product.amount()
@@ -284,7 +226,20 @@ final class AmplCplexSolver implements IOptimizationSolver {
 		return result;
 	}
 
-	private ProductAmountTO __newProductAmountTO(
+	private static <T> T __lookup(
+			final Map<Long, T> objectsById, final long id, final String kind
+			) {
+		final T result = objectsById.get(id);
+		if (result == null) {
+			throw new IllegalStateException(String.format(
+					"Solver returned unknown %s %d", kind, id
+					));
+		}
+
+		return result;
+	}
+
+	private static ProductAmountTO __newProductAmountTO(
 			final ProductTO productTO, final long amount
 			) {
 		final ProductAmountTO result = new ProductAmountTO();
@@ -293,28 +248,6 @@ final class AmplCplexSolver implements IOptimizationSolver {
 		return result;
 	}
 
-	private ProductTO __getProductTO(
-			final CplexSolution.Product product
-			) {
-		final Product productEntity = __storeQuery.queryProductById(
-				product.id(), __pctx
-				);
-
-		return FillTransferObjects.fillProductTO(productEntity);
-	}
-
-	private static void __createTmpFile(final File file, final String content) {
-		try {
-			file.deleteOnExit(); // comment out for testing
-			final FileWriter out = new FileWriter(file);
-			out.write(content);
-			out.close();
-
-		} catch (final IOException e) {
-			throw new RuntimeException("Error writing file or data for ampl.", e);
-		}
-	}
-
 	/**
 	 * Creates the AMPL input data string. Typical output:
 	 * 
@@ -30,12 +30,32 @@ import java.io.PrintStream;
  */
 final class AmplPipe {
 
+	/**
+	 * Receives the text output by the AMPL solver backend, one character
+	 * at a time, without carriage returns.
+	 */
+	interface OutputHandler {
+		void append(char ch);
+	}
+
+	//
+
+	/** Beginning of a block containing a prompt. */
+	private static final char[] __PROMPT__ = "prompt".toCharArray();
+
+	//
+
 	/** Last prompt issued by the AMPL solver backend. */
 	private String __prompt = "";
 
 	/** Buffer holding the text output by the AMPL solver backend. */
 	private StringBuilder __buffer = new StringBuilder();
 
+	/** Beginning of the last block, used to recognize prompts. */
+	private final char[] __header = new char[__PROMPT__.length];
+
+	private int __headerLength;
+
 	/** Input of the AMPL solver backend. */
 	private final PrintStream __amplInput;
 
@@ -60,6 +80,21 @@ final class AmplPipe {
 	//
 
 	public static AmplPipe open(final File amplExecutable) throws IOException {
+		final AmplPipe ampl = start(amplExecutable);
+
+		//
+		// Swallow initial prompt from AMPL
+		//
+		ampl.receive();
+		return ampl;
+	}
+
+	/**
+	 * Starts the AMPL solver backend without waiting for its initial
+	 * prompt, which must be received by the caller. This allows the caller
+	 * to close the pipe if the backend does not respond.
+	 */
+	public static AmplPipe start(final File amplExecutable) throws IOException {
 
 		final String[] command = new String[] {
 			// path to the executable
@@ -74,13 +109,7 @@ final class AmplPipe {
 		//
 		final Runtime rt = Runtime.getRuntime();
 		final Process process = rt.exec(command);
-		final AmplPipe ampl = new AmplPipe(process);
-
-		//
-		// Swallow initial prompt from AMPL
-		//
-		ampl.receive();
-		return ampl;
+		return new AmplPipe(process);
 	}
 
 	public String getPrompt() {
@@ -99,9 +128,31 @@ final class AmplPipe {
 		}
 	}
 
+	/**
+	 * Receives the output of the AMPL solver backend up to the next prompt,
+	 * and returns it as a string without the first line.
+	 */
 	public String receive() throws IOException {
 		__buffer.setLength(0);
 
+		receive(new OutputHandler() {
+			@Override
+			public void append(final char ch) {
+				__buffer.append(ch);
+			}
+		});
+
+		return __buffer.toString();
+	}
+
+	/**
+	 * Receives the output of the AMPL solver backend up to the next prompt,
+	 * and passes it without the first line to the given handler as it is
+	 * being read. The output is not buffered.
+	 */
+	public void receive(final OutputHandler handler) throws IOException {
+		boolean skippingFirstLine = true;
+
 		//
 		// Read the output from AMPL in blocks. Each block is preceded by a string
 		// representing its length, separated by a space from the contents of the
@@ -113,27 +164,104 @@ final class AmplPipe {
 				break RECEIVE;
 			}
 
-			final int blockStart = __bufferBlock(blockLength);
+			//
+			// Read the beginning of the block to find out whether it is
+			// a prompt. If there is a prompt, keep the prompt string aside
+			// and stop reading.
+			//
+			final int headerLength = __readBlockHeader(blockLength);
+			if (__isPromptHeader(headerLength)) {
+				__prompt = __readPrompt(blockLength - headerLength);
+				break RECEIVE;
+			}
 
 			//
-			// If there is a prompt, keep the prompt string aside and
-			// discard the last block from the buffer and stop reading.
+			// Pass the block contents to the handler, skipping the
+			// characters up to and including the first end of line.
 			//
-			final int promptIndex = __buffer.indexOf("prompt", blockStart);
-			if (promptIndex == blockStart) {
-				final int promptStart = __buffer.indexOf("\n", blockStart);
-				__prompt = __buffer.substring(promptStart + 1);
+			for (int i = 0; i < __headerLength; i++) {
+				final char ch = __header[i];
+				if (!skippingFirstLine) {
+					handler.append(ch);
+				} else if (ch == '\n') {
+					skippingFirstLine = false;
+				}
+			}
 
-				__buffer.setLength(blockStart);
-				break RECEIVE;
+			for (int bytesRead = headerLength; bytesRead < blockLength; bytesRead++) {
+				final int ch = __readBlockChar(bytesRead, blockLength);
+				if (ch == '\r') {
+					continue;
+				}
+
+				if (!skippingFirstLine) {
+					handler.append((char) ch);
+				} else if (ch == '\n') {
+					skippingFirstLine = false;
+				}
 			}
 		}
+	}
 
-		//
-		// Return the contents of the buffer up to the first end of line.
-		//
-		final int startEol = __buffer.indexOf("\n");
-		return __buffer.substring(startEol + 1);
+	/**
+	 * Reads at most the number of block characters needed to recognize a
+	 * prompt block into the header buffer, and returns the number of bytes
+	 * read. Carriage returns are not stored in the header buffer.
+	 */
+	private int __readBlockHeader(final int blockLength) throws IOException {
+		final int headerLength = Math.min(__PROMPT__.length, blockLength);
+
+		__headerLength = 0;
+		for (int bytesRead = 0; bytesRead < headerLength; bytesRead++) {
+			final int ch = __readBlockChar(bytesRead, blockLength);
+			if (ch != '\r') {
+				__header[__headerLength++] = (char) ch;
+			}
+		}
+
+		return headerLength;
+	}
+
+	private boolean __isPromptHeader(final int headerLength) {
+		if (__headerLength != __PROMPT__.length) {
+			return false;
+		}
+
+		for (int i = 0; i < __PROMPT__.length; i++) {
+			if (__header[i] != __PROMPT__[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the rest of a prompt block and returns the prompt string
+	 * following the first end of line.
+	 */
+	private String __readPrompt(final int remainingLength) throws IOException {
+		final StringBuilder block = new StringBuilder();
+		for (int bytesRead = 0; bytesRead < remainingLength; bytesRead++) {
+			final int ch = __readBlockChar(bytesRead, remainingLength);
+			if (ch != '\r') {
+				block.append((char) ch);
+			}
+		}
+
+		return block.substring(block.indexOf("\n") + 1);
+	}
+
+	private int __readBlockChar(final int bytesRead, final int blockLength) throws IOException {
+		final int ch = __amplOutput.read();
+		if (ch == -1) {
+			throw new IOException(String.format(
+					"Unexpected end of stream while reading block: read %d, expected %d",
+					bytesRead, blockLength
+					));
+		}
+
+		return ch;
 	}
 
 	private int __readLength() throws IOException {
@@ -146,8 +274,8 @@ final class AmplPipe {
 				// digit, update length
 				length = 10 * length + Character.getNumericValue(ch);
 
-			} else if (ch == -1 && length > 0) {
-				// no more characters while reading length
+			} else if (ch == -1) {
+				// no more characters, the AMPL process has terminated
 				throw new IOException(
 						"Unexpected end of stream while reading block length");
 
@@ -158,27 +286,6 @@ final class AmplPipe {
 		}
 	}
 
-	private int __bufferBlock(final int blockLength) throws IOException {
-		final int blockStart = __buffer.length();
-
-		for (int bytesRead = 0; bytesRead < blockLength; bytesRead++) {
-			final int ch = __amplOutput.read();
-
-			if (ch == -1) {
-				throw new IOException(String.format(
-						"Unexpected end of stream while reading block: read %d, expected %d\n%s ",
-						bytesRead, blockLength, __buffer.substring(blockStart)
-						));
-
-			} else if (ch != '\r') {
-				// put characters (except carriage returns) into buffer
-				__buffer.appendCodePoint(ch);
-			}
-		}
-
-		return blockStart;
-	}
-
 	public int close() throws InterruptedException {
 		//
 		// Close the streams used to communicate with the AMPL
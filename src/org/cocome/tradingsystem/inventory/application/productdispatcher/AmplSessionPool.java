@@ -0,0 +1,486 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.util.ApplicationHelper;
+
+/**
+ * Pool of long-lived AMPL solver sessions. Each session keeps the model
+ * loaded, so that solving a problem only requires resetting the data, sending
+ * new data through the pipe and running the solver. No files are shared
+ * between sessions, so that the sessions can solve problems concurrently.
+ * <p>
+ * Sessions are started lazily, up to the number given by the
+ * {@link #SESSIONS_PROPERTY} system property. Sessions that fail or do not
+ * start or finish within the time given by the {@link #TIMEOUT_PROPERTY}
+ * system property are terminated and replaced by new sessions on demand.
+ */
+final class AmplSessionPool implements AmplSessionPoolMBean {
+
+	private static final Logger __log__ = Logger.getLogger(AmplSessionPool.class);
+
+	/**
+	 * Name of the system property specifying the maximal number of
+	 * concurrently running AMPL sessions.
+	 */
+	static final String SESSIONS_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.AmplSessions";
+
+	/**
+	 * Name of the system property specifying the time (in milliseconds)
+	 * after which a solver session is considered to be stuck.
+	 */
+	static final String TIMEOUT_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.AmplTimeout";
+
+	private static final int __DEFAULT_SESSIONS__ = 2;
+
+	private static final long __DEFAULT_TIMEOUT__ = 30000;
+
+	//
+
+	/**
+	 * A single AMPL process with the model loaded.
+	 */
+	private final class Session {
+		private final AmplPipe __pipe;
+
+		private volatile boolean __broken;
+
+		//
+
+		/**
+		 * Starts a new AMPL process and loads the model. If the process
+		 * does not start in time, it is terminated and an exception is
+		 * thrown.
+		 */
+		Session() throws IOException {
+			__pipe = AmplPipe.start(__amplExecutable);
+
+			final ScheduledFuture<?> watchdog = __scheduleTermination();
+			try {
+				//
+				// Swallow the initial prompt, then load the model. Zero
+				// rows make up most of the displayed solution, so do not
+				// let AMPL output them at all.
+				//
+				__pipe.receive();
+				__pipe.send(String.format(
+						"option solver \"%s\";\n" +
+								"option omit_zero_rows 1;\n" +
+								"model \"%s\";\n",
+						__cplexExecutable, __modelFile
+						));
+				__pipe.receive();
+
+			} catch (final IOException ioe) {
+				__broken = true;
+				throw ioe;
+
+			} finally {
+				watchdog.cancel(false);
+				if (__broken) {
+					close();
+					throw new IOException("AMPL session failed to start before timeout");
+				}
+			}
+		}
+
+		//
+
+		/**
+		 * Solves the problem with the given data and passes the solver
+		 * output to the given handler. If the solver does not finish in
+		 * time, the session is terminated and an exception is thrown.
+		 */
+		void solve(final String data, final AmplPipe.OutputHandler handler) throws IOException {
+			final ScheduledFuture<?> watchdog = __scheduleTermination();
+
+			try {
+				//
+				// Switch AMPL to data mode to read the data directly from
+				// the pipe, and back to model mode to solve the problem.
+				//
+				__pipe.send(
+						"reset data;\n" +
+								"data;\n" + data + "\n" +
+								"model;\n" +
+								"solve;\n" +
+								"display {i in PRODUCT, j in STORE}: shipping_amount[i,j];\n"
+						);
+
+				__pipe.receive(handler);
+
+			} catch (final IOException ioe) {
+				__broken = true;
+				throw ioe;
+
+			} finally {
+				watchdog.cancel(false);
+				if (__broken) {
+					throw new IOException("AMPL session terminated after timeout or failure");
+				}
+			}
+		}
+
+		boolean isBroken() {
+			return __broken;
+		}
+
+		void close() {
+			try {
+				__pipe.close();
+
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Schedules termination of the session in case the current
+		 * operation does not finish in time.
+		 */
+		private ScheduledFuture<?> __scheduleTermination() {
+			return __watchdog.schedule(new Runnable() {
+				@Override
+				public void run() {
+					__broken = true;
+					close();
+				}
+			}, __timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	//
+
+	private final File __amplExecutable;
+
+	private final File __cplexExecutable;
+
+	private final File __modelFile;
+
+	private final int __maxSessions;
+
+	private final long __timeoutMillis;
+
+	private final Semaphore __permits;
+
+	private final Queue<Session> __idleSessions = new ConcurrentLinkedQueue<Session>();
+
+	private final ScheduledExecutorService __watchdog;
+
+	private final long __createdTime = System.currentTimeMillis();
+
+	//
+
+	private final AtomicLong __createdSessionCount = new AtomicLong();
+
+	private final AtomicInteger __openSessions = new AtomicInteger();
+
+	private final AtomicInteger __activeSessions = new AtomicInteger();
+
+	private volatile int __peakActiveSessions;
+
+	private final AtomicLong __recycledSessionCount = new AtomicLong();
+
+	private final AtomicLong __solveCount = new AtomicLong();
+
+	private final AtomicLong __failureCount = new AtomicLong();
+
+	private final AtomicLong __totalWaitMillis = new AtomicLong();
+
+	private final AtomicLong __totalSolveMillis = new AtomicLong();
+
+	private volatile long __lastSolveMillis;
+
+	private volatile long __maxSolveMillis;
+
+	//
+
+	private AmplSessionPool(
+			final File amplExecutable, final File cplexExecutable,
+			final File modelFile
+			) {
+		__amplExecutable = amplExecutable;
+		__cplexExecutable = cplexExecutable;
+		__modelFile = modelFile;
+
+		__maxSessions = (int) Math.max(1, ApplicationHelper.getLongProperty(
+				SESSIONS_PROPERTY, __DEFAULT_SESSIONS__
+				));
+		__timeoutMillis = Math.max(1, ApplicationHelper.getLongProperty(
+				TIMEOUT_PROPERTY, __DEFAULT_TIMEOUT__
+				));
+
+		__permits = new Semaphore(__maxSessions, true);
+		__watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread result = new Thread(runnable, "AMPL session watchdog");
+				result.setDaemon(true);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new pool of AMPL sessions, registers it with the platform
+	 * MBean server and makes sure that the sessions are terminated when the
+	 * virtual machine shuts down.
+	 * 
+	 * @param amplExecutable
+	 *            the AMPL executable
+	 * @param cplexExecutable
+	 *            the CPLEX executable used as the AMPL solver
+	 * @param modelFile
+	 *            the model file to load into each session
+	 */
+	static AmplSessionPool newInstance(
+			final File amplExecutable, final File cplexExecutable,
+			final File modelFile
+			) {
+		final AmplSessionPool result = new AmplSessionPool(
+				amplExecutable, cplexExecutable, modelFile
+				);
+
+		Runtime.getRuntime().addShutdownHook(new Thread("AMPL session pool shutdown") {
+			@Override
+			public void run() {
+				result.close();
+			}
+		});
+
+		ApplicationHelper.registerMBean(
+				result, AmplSessionPoolMBean.class,
+				"org.cocome.tradingsystem:type=AmplSessionPool"
+				);
+
+		__debug("AMPL session pool with up to %d sessions, timeout %d ms",
+				result.__maxSessions, result.__timeoutMillis);
+
+		return result;
+	}
+
+	//
+
+	/**
+	 * Solves the problem described by the given AMPL data using one of the
+	 * pooled sessions, and passes the output of the solver to the given
+	 * handler as it is being read. Blocks until a session becomes available.
+	 * 
+	 * @param data
+	 *            AMPL data for the model loaded in the sessions
+	 * @param handler
+	 *            receiver of the solver output
+	 */
+	void solve(
+			final String data, final AmplPipe.OutputHandler handler
+			) throws IOException, InterruptedException {
+		final long waitStart = System.currentTimeMillis();
+		__permits.acquire();
+
+		try {
+			final long solveStart = System.currentTimeMillis();
+			__totalWaitMillis.addAndGet(solveStart - waitStart);
+
+			final Session session;
+			try {
+				session = __acquireSession();
+
+			} catch (final IOException ioe) {
+				__failureCount.incrementAndGet();
+				throw ioe;
+			}
+
+			__sessionStarted();
+
+			try {
+				session.solve(data, handler);
+				__solveCount.incrementAndGet();
+
+			} catch (final IOException ioe) {
+				__failureCount.incrementAndGet();
+				throw ioe;
+
+			} finally {
+				__sessionFinished(System.currentTimeMillis() - solveStart);
+				__releaseSession(session);
+			}
+
+		} finally {
+			__permits.release();
+		}
+	}
+
+	private Session __acquireSession() throws IOException, InterruptedException {
+		final Session idle = __idleSessions.poll();
+		if (idle != null) {
+			return idle;
+		}
+
+		final Session result = new Session();
+		__createdSessionCount.incrementAndGet();
+		__openSessions.incrementAndGet();
+		return result;
+	}
+
+	private void __releaseSession(final Session session) {
+		if (!session.isBroken()) {
+			__idleSessions.offer(session);
+
+		} else {
+			__warn("Recycling broken AMPL session");
+			__recycledSessionCount.incrementAndGet();
+			__openSessions.decrementAndGet();
+			session.close();
+		}
+	}
+
+	private void __sessionStarted() {
+		final int active = __activeSessions.incrementAndGet();
+		if (active > __peakActiveSessions) {
+			__peakActiveSessions = active;
+		}
+	}
+
+	private void __sessionFinished(final long solveMillis) {
+		__activeSessions.decrementAndGet();
+		__totalSolveMillis.addAndGet(solveMillis);
+		__lastSolveMillis = solveMillis;
+		__maxSolveMillis = Math.max(__maxSolveMillis, solveMillis);
+	}
+
+	/**
+	 * Terminates all idle sessions.
+	 */
+	void close() {
+		Session session;
+		while ((session = __idleSessions.poll()) != null) {
+			__openSessions.decrementAndGet();
+			session.close();
+		}
+	}
+
+	//
+	// AmplSessionPoolMBean
+	//
+
+	@Override
+	public int getMaxSessions() {
+		return __maxSessions;
+	}
+
+	@Override
+	public int getOpenSessions() {
+		return __openSessions.get();
+	}
+
+	@Override
+	public int getActiveSessions() {
+		return __activeSessions.get();
+	}
+
+	@Override
+	public int getPeakActiveSessions() {
+		return __peakActiveSessions;
+	}
+
+	@Override
+	public double getUtilizationPercent() {
+		final long elapsedMillis = Math.max(1, System.currentTimeMillis() - __createdTime);
+		return 100.0 * __totalSolveMillis.get() / (elapsedMillis * __maxSessions);
+	}
+
+	@Override
+	public long getCreatedSessionCount() {
+		return __createdSessionCount.get();
+	}
+
+	@Override
+	public long getRecycledSessionCount() {
+		return __recycledSessionCount.get();
+	}
+
+	@Override
+	public long getSolveCount() {
+		return __solveCount.get();
+	}
+
+	@Override
+	public long getFailureCount() {
+		return __failureCount.get();
+	}
+
+	@Override
+	public long getTimeoutMillis() {
+		return __timeoutMillis;
+	}
+
+	@Override
+	public double getAverageWaitMillis() {
+		final long requests = __solveCount.get() + __failureCount.get();
+		return (requests > 0) ? (double) __totalWaitMillis.get() / requests : 0;
+	}
+
+	@Override
+	public double getAverageSolveMillis() {
+		final long requests = __solveCount.get() + __failureCount.get();
+		return (requests > 0) ? (double) __totalSolveMillis.get() / requests : 0;
+	}
+
+	@Override
+	public long getLastSolveMillis() {
+		return __lastSolveMillis;
+	}
+
+	@Override
+	public long getMaxSolveMillis() {
+		return __maxSolveMillis;
+	}
+
+	//
+
+	private static void __debug(final String format, final Object... args) {
+		__log(Level.DEBUG, format, args);
+	}
+
+	private static void __warn(final String format, final Object... args) {
+		__log(Level.WARN, format, args);
+	}
+
+	private static void __log(final Level level, final String format, final Object... args) {
+		if (__log__.isEnabledFor(level)) {
+			__log__.log(level, String.format(format, args));
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+/**
+ * Management interface of the {@link AmplSessionPool}. Exposes the
+ * utilization of the pool and the latency of the solver via JMX.
+ */
+public interface AmplSessionPoolMBean {
+
+	/**
+	 * @return maximal number of concurrently running AMPL sessions
+	 */
+	int getMaxSessions();
+
+	/**
+	 * @return number of AMPL sessions currently running (idle or busy)
+	 */
+	int getOpenSessions();
+
+	/**
+	 * @return number of AMPL sessions currently solving a problem
+	 */
+	int getActiveSessions();
+
+	/**
+	 * @return maximal number of AMPL sessions solving a problem at the same time
+	 */
+	int getPeakActiveSessions();
+
+	/**
+	 * @return percentage of time the sessions in the pool spent solving
+	 *         problems since the pool was created
+	 */
+	double getUtilizationPercent();
+
+	/**
+	 * @return number of AMPL sessions started since the pool was created
+	 */
+	long getCreatedSessionCount();
+
+	/**
+	 * @return number of AMPL sessions discarded due to failure or timeout
+	 */
+	long getRecycledSessionCount();
+
+	/**
+	 * @return number of problems solved since the pool was created
+	 */
+	long getSolveCount();
+
+	/**
+	 * @return number of failed attempts to solve a problem
+	 */
+	long getFailureCount();
+
+	/**
+	 * @return time (in milliseconds) after which a solver session is
+	 *         considered to be stuck and is terminated
+	 */
+	long getTimeoutMillis();
+
+	/**
+	 * @return average time (in milliseconds) spent waiting for a session
+	 */
+	double getAverageWaitMillis();
+
+	/**
+	 * @return average time (in milliseconds) needed to solve a problem
+	 */
+	double getAverageSolveMillis();
+
+	/**
+	 * @return time (in milliseconds) needed to solve the last problem
+	 */
+	long getLastSolveMillis();
+
+	/**
+	 * @return maximal time (in milliseconds) needed to solve a problem
+	 */
+	long getMaxSolveMillis();
+
+}
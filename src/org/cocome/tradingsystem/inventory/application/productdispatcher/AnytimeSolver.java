@@ -0,0 +1,485 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.inventory.application.store.ProductAmountTO;
+import org.cocome.tradingsystem.inventory.application.store.StoreTO;
+import org.cocome.tradingsystem.inventory.data.store.StockItem;
+import org.cocome.tradingsystem.inventory.data.store.Store;
+import org.cocome.tradingsystem.util.ApplicationHelper;
+
+/**
+ * Bounds the time spent solving dispatch problems. A heuristic plan is
+ * computed immediately, and an exact solver is then given time until the
+ * deadline specified by the {@link #DEADLINE_PROPERTY} system property to
+ * find a better plan. If the exact solver misses the deadline, it is
+ * interrupted and given a short grace period to return the best plan it
+ * found so far. The better of that plan and the heuristic plan is returned,
+ * and an upper bound on its optimality gap, derived from a simple lower
+ * bound on the total distance, is recorded.
+ * <p>
+ * The exact solver runs in a separate thread while holding a solver permit,
+ * which is only released when the exact solver really finishes, so that
+ * solvers which ignore interruption cannot pile up beyond the permitted
+ * number of concurrent solves. If no permit becomes available before the
+ * deadline, the heuristic plan is returned right away.
+ */
+final class AnytimeSolver implements AnytimeSolverMBean {
+
+	private static final Logger __log__ = Logger.getLogger(AnytimeSolver.class);
+
+	/**
+	 * Name of the system property specifying the time (in milliseconds)
+	 * the exact solver is given to solve a problem. The anytime mode is
+	 * disabled if the deadline is zero.
+	 */
+	static final String DEADLINE_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.SolveDeadline";
+
+	/**
+	 * Time (in milliseconds) given to an interrupted exact solver to return
+	 * the best plan it found so far.
+	 */
+	private static final long __INCUMBENT_GRACE_MILLIS__ = 50;
+
+	//
+
+	/**
+	 * Exact solve running in a separate thread. Holds a solver permit until
+	 * the solver finishes, and allows interrupting the solver thread only
+	 * while the solver is running.
+	 */
+	private static final class ExactSolve implements Callable<Map<StoreTO, Collection<ProductAmountTO>>> {
+		private final IOptimizationSolver __solver;
+
+		private final Semaphore __permits;
+
+		private final Collection<ProductAmountTO> __requiredProductAmounts;
+
+		private final Map<Store, Collection<StockItem>> __storeStockItems;
+
+		private final Map<Store, Integer> __storeDistances;
+
+		private Thread __runner;
+
+		private boolean __done;
+
+		ExactSolve(
+				final IOptimizationSolver solver, final Semaphore permits,
+				final Collection<ProductAmountTO> requiredProductAmounts,
+				final Map<Store, Collection<StockItem>> storeStockItems,
+				final Map<Store, Integer> storeDistances
+				) {
+			__solver = solver;
+			__permits = permits;
+			__requiredProductAmounts = requiredProductAmounts;
+			__storeStockItems = storeStockItems;
+			__storeDistances = storeDistances;
+		}
+
+		@Override
+		public Map<StoreTO, Collection<ProductAmountTO>> call() {
+			synchronized (this) {
+				if (__done) {
+					__permits.release();
+					return Collections.emptyMap();
+				}
+
+				__runner = Thread.currentThread();
+			}
+
+			try {
+				return __solver.solveOptimization(
+						__requiredProductAmounts, __storeStockItems, __storeDistances
+						);
+
+			} finally {
+				synchronized (this) {
+					__runner = null;
+					__done = true;
+
+					// do not leak the interrupt to the next task
+					Thread.interrupted();
+				}
+
+				__permits.release();
+			}
+		}
+
+		/**
+		 * Interrupts the solver if it is running, or prevents it from
+		 * running if it has not started yet.
+		 */
+		synchronized void interrupt() {
+			if (__runner != null) {
+				__runner.interrupt();
+			}
+
+			__done = true;
+		}
+	}
+
+	//
+
+	private final long __deadlineMillis;
+
+	private final IOptimizationSolver __heuristicSolver = new JavaOptimizationSolver(0);
+
+	private final ExecutorService __executor;
+
+	//
+
+	private final AtomicLong __solveCount = new AtomicLong();
+
+	private final AtomicLong __deadlineMissCount = new AtomicLong();
+
+	private final AtomicLong __incumbentCount = new AtomicLong();
+
+	private final AtomicLong __failureCount = new AtomicLong();
+
+	private final AtomicLong __heuristicGapCount = new AtomicLong();
+
+	private volatile double __heuristicGapSum;
+
+	private volatile double __lastGapPercent;
+
+	private volatile double __maxGapPercent;
+
+	//
+
+	private AnytimeSolver(final long deadlineMillis) {
+		__deadlineMillis = deadlineMillis;
+		__executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger __threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread result = new Thread(
+						runnable, "Dispatch solver " + __threadCount.incrementAndGet()
+						);
+				result.setDaemon(true);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new anytime solver if enabled by the {@link #DEADLINE_PROPERTY}
+	 * system property, and registers it with the platform MBean server.
+	 * 
+	 * @return
+	 *         new anytime solver, or {@code null} if the anytime mode is disabled
+	 */
+	static AnytimeSolver newInstance() {
+		final long deadlineMillis = ApplicationHelper.getLongProperty(DEADLINE_PROPERTY, 0);
+		if (deadlineMillis <= 0) {
+			return null;
+		}
+
+		final AnytimeSolver result = new AnytimeSolver(deadlineMillis);
+		ApplicationHelper.registerMBean(
+				result, AnytimeSolverMBean.class,
+				"org.cocome.tradingsystem:type=AnytimeSolver"
+				);
+
+		__log__.info("Solving dispatch problems with a deadline of " + deadlineMillis + " ms");
+		return result;
+	}
+
+	//
+
+	/**
+	 * Returns a solver which uses the given exact solver to improve the
+	 * heuristic plan until the deadline. The exact solver runs while holding
+	 * a permit from the given semaphore, the heuristic solver does not need
+	 * a permit.
+	 */
+	IOptimizationSolver withExactSolver(
+			final IOptimizationSolver exactSolver, final Semaphore solverPermits
+			) {
+		return new IOptimizationSolver() {
+			@Override
+			public Map<StoreTO, Collection<ProductAmountTO>> solveOptimization(
+					final Collection<ProductAmountTO> requiredProductAmounts,
+					final Map<Store, Collection<StockItem>> storeStockItems,
+					final Map<Store, Integer> storeDistances
+					) {
+				return __solve(
+						exactSolver, solverPermits,
+						requiredProductAmounts, storeStockItems, storeDistances
+						);
+			}
+		};
+	}
+
+	private Map<StoreTO, Collection<ProductAmountTO>> __solve(
+			final IOptimizationSolver exactSolver, final Semaphore solverPermits,
+			final Collection<ProductAmountTO> requiredProductAmounts,
+			final Map<Store, Collection<StockItem>> storeStockItems,
+			final Map<Store, Integer> storeDistances
+			) {
+		final long deadline = System.currentTimeMillis() + __deadlineMillis;
+		__solveCount.incrementAndGet();
+
+		//
+		// Compute the heuristic plan first, then let the exact solver
+		// run in the background until the deadline.
+		//
+		final Map<StoreTO, Collection<ProductAmountTO>> heuristicPlan =
+				__heuristicSolver.solveOptimization(
+						requiredProductAmounts, storeStockItems, storeDistances
+						);
+
+		final ExactSolve exactSolve = new ExactSolve(
+				exactSolver, solverPermits,
+				requiredProductAmounts, storeStockItems, storeDistances
+				);
+
+		Map<StoreTO, Collection<ProductAmountTO>> exactPlan = null;
+		boolean finished = false;
+
+		try {
+			if (solverPermits.tryAcquire(
+					__remainingMillis(deadline), TimeUnit.MILLISECONDS
+					)) {
+				final Future<Map<StoreTO, Collection<ProductAmountTO>>> exactResult =
+						__executor.submit(exactSolve);
+
+				try {
+					exactPlan = exactResult.get(__remainingMillis(deadline), TimeUnit.MILLISECONDS);
+					finished = true;
+
+				} catch (final TimeoutException te) {
+					//
+					// Interrupt the exact solver and give it a chance to
+					// return the best plan it found so far.
+					//
+					__deadlineMissCount.incrementAndGet();
+					exactSolve.interrupt();
+
+					exactPlan = exactResult.get(__INCUMBENT_GRACE_MILLIS__, TimeUnit.MILLISECONDS);
+				}
+
+			} else {
+				__deadlineMissCount.incrementAndGet();
+				__log__.debug("No solver permit available before deadline, using heuristic plan");
+			}
+
+		} catch (final TimeoutException te) {
+			__log__.debug("Exact dispatch solver missed deadline, using heuristic plan");
+
+		} catch (final ExecutionException ee) {
+			__failureCount.incrementAndGet();
+			__log__.warn("Exact dispatch solver failed, using heuristic plan", ee.getCause());
+
+		} catch (final InterruptedException ie) {
+			exactSolve.interrupt();
+			Thread.currentThread().interrupt();
+		}
+
+		//
+		// An empty plan from the exact solver indicates a failure,
+		// unless the heuristic plan is empty as well.
+		//
+		final Map<Long, Integer> distances = __getDistancesById(storeDistances);
+		final long heuristicCost = __getCost(heuristicPlan, distances);
+
+		if (exactPlan != null && (!exactPlan.isEmpty() || heuristicPlan.isEmpty())) {
+			final long exactCost = __getCost(exactPlan, distances);
+			if (finished) {
+				__recordHeuristicGap(heuristicCost, exactCost);
+				__recordGap(0);
+				return exactPlan;
+
+			} else if (exactCost < heuristicCost) {
+				__incumbentCount.incrementAndGet();
+				__recordBoundedGap(exactCost, requiredProductAmounts, storeStockItems, distances);
+				return exactPlan;
+			}
+
+		} else if (finished) {
+			__failureCount.incrementAndGet();
+		}
+
+		__recordBoundedGap(heuristicCost, requiredProductAmounts, storeStockItems, distances);
+		return heuristicPlan;
+	}
+
+	private static long __remainingMillis(final long deadline) {
+		return Math.max(0, deadline - System.currentTimeMillis());
+	}
+
+	/**
+	 * Records an upper bound on the optimality gap of a plan with the given
+	 * cost, derived from a lower bound on the cost of any plan.
+	 */
+	private void __recordBoundedGap(
+			final long cost,
+			final Collection<ProductAmountTO> requiredProductAmounts,
+			final Map<Store, Collection<StockItem>> storeStockItems,
+			final Map<Long, Integer> distances
+			) {
+		final long lowerBound = __getLowerBound(requiredProductAmounts, storeStockItems, distances);
+		__recordGap((cost > 0) ? 100.0 * Math.max(0, cost - lowerBound) / cost : 0);
+	}
+
+	//
+
+	private static Map<Long, Integer> __getDistancesById(final Map<Store, Integer> storeDistances) {
+		final Map<Long, Integer> result = new HashMap<Long, Integer>();
+		for (final Entry<Store, Integer> entry : storeDistances.entrySet()) {
+			result.put(entry.getKey().getId(), entry.getValue());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the total distance of the stores shipping products in the given plan.
+	 */
+	private static long __getCost(
+			final Map<StoreTO, Collection<ProductAmountTO>> plan,
+			final Map<Long, Integer> distances
+			) {
+		long result = 0;
+		for (final StoreTO store : plan.keySet()) {
+			final Integer distance = distances.get(store.getId());
+			result += (distance != null) ? distance : 0;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a lower bound on the total distance of any plan. Each available
+	 * product has to be shipped from at least one store, so the total
+	 * distance cannot be lower than the distance of the closest store
+	 * offering the product whose closest offering store is the farthest.
+	 */
+	private static long __getLowerBound(
+			final Collection<ProductAmountTO> requiredProductAmounts,
+			final Map<Store, Collection<StockItem>> storeStockItems,
+			final Map<Long, Integer> distances
+			) {
+		final Map<Long, Long> closestOffers = new HashMap<Long, Long>();
+		for (final ProductAmountTO productAmount : requiredProductAmounts) {
+			if (productAmount.getAmount() > 0) {
+				closestOffers.put(productAmount.getProduct().getId(), Long.MAX_VALUE);
+			}
+		}
+
+		for (final Entry<Store, Collection<StockItem>> entry : storeStockItems.entrySet()) {
+			final Integer distance = distances.get(entry.getKey().getId());
+			if (distance == null) {
+				continue;
+			}
+
+			for (final StockItem stockItem : entry.getValue()) {
+				final long productId = stockItem.getProduct().getId();
+				final Long closestOffer = closestOffers.get(productId);
+				if (closestOffer != null && stockItem.getAmount() > 0 && distance < closestOffer) {
+					closestOffers.put(productId, (long) distance);
+				}
+			}
+		}
+
+		long result = 0;
+		for (final long closestOffer : closestOffers.values()) {
+			if (closestOffer != Long.MAX_VALUE) {
+				result = Math.max(result, closestOffer);
+			}
+		}
+
+		return result;
+	}
+
+	private void __recordGap(final double gapPercent) {
+		__lastGapPercent = gapPercent;
+		__maxGapPercent = Math.max(__maxGapPercent, gapPercent);
+	}
+
+	private synchronized void __recordHeuristicGap(final long heuristicCost, final long exactCost) {
+		if (exactCost > 0) {
+			__heuristicGapSum += 100.0 * Math.max(0, heuristicCost - exactCost) / exactCost;
+			__heuristicGapCount.incrementAndGet();
+		}
+	}
+
+	//
+	// AnytimeSolverMBean
+	//
+
+	@Override
+	public long getDeadlineMillis() {
+		return __deadlineMillis;
+	}
+
+	@Override
+	public long getSolveCount() {
+		return __solveCount.get();
+	}
+
+	@Override
+	public long getDeadlineMissCount() {
+		return __deadlineMissCount.get();
+	}
+
+	@Override
+	public long getIncumbentCount() {
+		return __incumbentCount.get();
+	}
+
+	@Override
+	public long getFailureCount() {
+		return __failureCount.get();
+	}
+
+	@Override
+	public double getLastGapPercent() {
+		return __lastGapPercent;
+	}
+
+	@Override
+	public double getMaxGapPercent() {
+		return __maxGapPercent;
+	}
+
+	@Override
+	public synchronized double getAverageHeuristicGapPercent() {
+		final long count = __heuristicGapCount.get();
+		return (count > 0) ? __heuristicGapSum / count : 0;
+	}
+
+}
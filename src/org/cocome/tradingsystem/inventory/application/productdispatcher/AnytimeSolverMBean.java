@@ -0,0 +1,73 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+/**
+ * Management interface of the {@link AnytimeSolver}. Exposes how often the
+ * exact solver meets the deadline and the quality of the returned plans.
+ */
+public interface AnytimeSolverMBean {
+
+	/**
+	 * @return time (in milliseconds) the exact solver is given to improve
+	 *         the heuristic plan
+	 */
+	long getDeadlineMillis();
+
+	/**
+	 * @return number of problems solved
+	 */
+	long getSolveCount();
+
+	/**
+	 * @return number of problems for which the exact solver missed the
+	 *         deadline
+	 */
+	long getDeadlineMissCount();
+
+	/**
+	 * @return number of problems for which the exact solver missed the
+	 *         deadline, but the best plan it found so far was better than
+	 *         the heuristic plan and was returned instead
+	 */
+	long getIncumbentCount();
+
+	/**
+	 * @return number of problems for which the exact solver failed, and
+	 *         the heuristic plan was returned
+	 */
+	long getFailureCount();
+
+	/**
+	 * @return upper bound on the optimality gap (in percent) of the last
+	 *         returned plan; zero if the plan is optimal
+	 */
+	double getLastGapPercent();
+
+	/**
+	 * @return maximal upper bound on the optimality gap (in percent) of
+	 *         the returned plans
+	 */
+	double getMaxGapPercent();
+
+	/**
+	 * @return average optimality gap (in percent) of the heuristic plans,
+	 *         for problems on which the exact solver met the deadline
+	 */
+	double getAverageHeuristicGapPercent();
+
+}
@@ -0,0 +1,361 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.inventory.application.store.FillTransferObjects;
+import org.cocome.tradingsystem.inventory.application.store.ProductAmountTO;
+import org.cocome.tradingsystem.inventory.application.store.ProductTO;
+import org.cocome.tradingsystem.inventory.application.store.StoreTO;
+import org.cocome.tradingsystem.inventory.data.store.StockItem;
+import org.cocome.tradingsystem.inventory.data.store.Store;
+
+/**
+ * Optimization solver decorator which reuses solutions of previously solved
+ * problems. Problems are identified by a fingerprint comprising the required
+ * product amounts, the distances of the stores, and the available stock of
+ * the required products in each store. The stock is reduced to coarse
+ * buckets (no stock, enough stock, or a power-of-two range), so that small
+ * changes in stock do not change the fingerprint.
+ * <p>
+ * Because the fingerprint does not capture the exact stock, a cached
+ * solution is only reused if the stores can still ship the amounts it
+ * prescribes. Otherwise, the problem is solved again.
+ */
+final class CachingOptimizationSolver implements IOptimizationSolver {
+
+	private static final Logger __log__ =
+			Logger.getLogger(CachingOptimizationSolver.class);
+
+	/** Stock bucket representing enough stock to cover the required amount. */
+	private static final long __ENOUGH_STOCK__ = Long.MAX_VALUE;
+
+	//
+
+	/**
+	 * Fingerprint of an optimization problem.
+	 */
+	static final class Fingerprint {
+		private final long[] __values;
+
+		private final int __hashCode;
+
+		Fingerprint(final long[] values) {
+			__values = values;
+			__hashCode = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return __hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object object) {
+			if (object == this) {
+				return true;
+
+			} else if (object instanceof Fingerprint) {
+				final Fingerprint that = (Fingerprint) object;
+				return __hashCode == that.__hashCode && Arrays.equals(__values, that.__values);
+
+			} else {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Solver-independent representation of a solution: a list of
+	 * (store, product, amount) shipments.
+	 */
+	static final class Plan {
+		private final long[] __storeIds;
+
+		private final long[] __productIds;
+
+		private final long[] __amounts;
+
+		Plan(final long[] storeIds, final long[] productIds, final long[] amounts) {
+			__storeIds = storeIds;
+			__productIds = productIds;
+			__amounts = amounts;
+		}
+	}
+
+	//
+
+	private final IOptimizationSolver __solver;
+
+	private final SolutionCache<Fingerprint, Plan> __cache;
+
+	//
+
+	/**
+	 * Creates a caching decorator for the given solver.
+	 * 
+	 * @param solver
+	 *            the solver to use for problems without a cached solution
+	 * @param cache
+	 *            the cache to keep the solutions in
+	 */
+	CachingOptimizationSolver(
+			final IOptimizationSolver solver, final SolutionCache<Fingerprint, Plan> cache
+			) {
+		__solver = solver;
+		__cache = cache;
+	}
+
+	/*
+	 * @see IOptimizationSolver#solveOptimization(Collection, Map, Map)
+	 */
+	@Override
+	public Map<StoreTO, Collection<ProductAmountTO>> solveOptimization(
+			final Collection<ProductAmountTO> requiredProductAmounts,
+			final Map<Store, Collection<StockItem>> storeStockItems,
+			final Map<Store, Integer> storeDistances
+			) {
+		final Map<Long, Map<Long, Long>> storeStock = __getStoreStock(storeStockItems);
+		final Fingerprint fingerprint = __fingerprint(
+				requiredProductAmounts, storeStock, storeDistances
+				);
+
+		//
+		// Reuse the cached solution if it is still feasible.
+		//
+		final Plan cachedPlan = __cache.get(fingerprint);
+		if (cachedPlan != null) {
+			if (__isFeasible(cachedPlan, storeStock)) {
+				__cache.recordHit();
+				return __solutionFromPlan(cachedPlan, requiredProductAmounts, storeStockItems.keySet());
+			}
+
+			__log__.debug("Cached dispatch solution no longer feasible");
+			__cache.removeStale(fingerprint);
+		}
+
+		//
+		// Solve the problem and cache the solution, unless it is empty,
+		// which usually indicates that the solver failed, or unless the
+		// solver has been interrupted, in which case the solution may
+		// not be optimal.
+		//
+		__cache.recordMiss();
+
+		final Map<StoreTO, Collection<ProductAmountTO>> result = __solver.solveOptimization(
+				requiredProductAmounts, storeStockItems, storeDistances
+				);
+
+		if (!result.isEmpty() && !Thread.currentThread().isInterrupted()) {
+			__cache.put(fingerprint, __planFromSolution(result));
+		}
+
+		return result;
+	}
+
+	//
+
+	/**
+	 * Returns the amount of each product in each store, indexed by store
+	 * and product identifiers.
+	 */
+	private static Map<Long, Map<Long, Long>> __getStoreStock(
+			final Map<Store, Collection<StockItem>> storeStockItems
+			) {
+		final Map<Long, Map<Long, Long>> result = new HashMap<Long, Map<Long, Long>>();
+
+		for (final Entry<Store, Collection<StockItem>> entry : storeStockItems.entrySet()) {
+			final Map<Long, Long> stock = new HashMap<Long, Long>();
+			for (final StockItem stockItem : entry.getValue()) {
+				final long productId = stockItem.getProduct().getId();
+				stock.put(productId, __getAmount(stock, productId) + stockItem.getAmount());
+			}
+
+			result.put(entry.getKey().getId(), stock);
+		}
+
+		return result;
+	}
+
+	private static Fingerprint __fingerprint(
+			final Collection<ProductAmountTO> requiredProductAmounts,
+			final Map<Long, Map<Long, Long>> storeStock,
+			final Map<Store, Integer> storeDistances
+			) {
+		final ProductAmountTO[] products = requiredProductAmounts.toArray(
+				new ProductAmountTO[requiredProductAmounts.size()]
+				);
+
+		Arrays.sort(products, new Comparator<ProductAmountTO>() {
+			@Override
+			public int compare(final ProductAmountTO first, final ProductAmountTO second) {
+				return __compare(first.getProduct().getId(), second.getProduct().getId());
+			}
+		});
+
+		final Store[] stores = storeDistances.keySet().toArray(new Store[storeDistances.size()]);
+		Arrays.sort(stores, new Comparator<Store>() {
+			@Override
+			public int compare(final Store first, final Store second) {
+				return __compare(first.getId(), second.getId());
+			}
+		});
+
+		//
+		// Fingerprint layout: required (product, amount) pairs, followed by
+		// (store, distance) pairs, followed by the stock bucket for each
+		// (store, product) pair.
+		//
+		final long[] values = new long[2 * products.length + stores.length * (2 + products.length)];
+
+		int index = 0;
+		for (final ProductAmountTO product : products) {
+			values[index++] = product.getProduct().getId();
+			values[index++] = product.getAmount();
+		}
+
+		for (final Store store : stores) {
+			values[index++] = store.getId();
+			values[index++] = storeDistances.get(store);
+		}
+
+		for (final Store store : stores) {
+			final Map<Long, Long> stock = storeStock.get(store.getId());
+			for (final ProductAmountTO product : products) {
+				final long amount = (stock != null) ? __getAmount(stock, product.getProduct().getId()) : 0;
+				values[index++] = __stockBucket(amount, product.getAmount());
+			}
+		}
+
+		return new Fingerprint(values);
+	}
+
+	private static long __stockBucket(final long amount, final long requiredAmount) {
+		if (amount >= requiredAmount) {
+			return __ENOUGH_STOCK__;
+
+		} else if (amount <= 0) {
+			return 0;
+
+		} else {
+			return Long.SIZE - Long.numberOfLeadingZeros(amount);
+		}
+	}
+
+	//
+
+	private static boolean __isFeasible(
+			final Plan plan, final Map<Long, Map<Long, Long>> storeStock
+			) {
+		for (int index = 0; index < plan.__amounts.length; index++) {
+			final Map<Long, Long> stock = storeStock.get(plan.__storeIds[index]);
+			if (stock == null || __getAmount(stock, plan.__productIds[index]) < plan.__amounts[index]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static Plan __planFromSolution(
+			final Map<StoreTO, Collection<ProductAmountTO>> solution
+			) {
+		int count = 0;
+		for (final Collection<ProductAmountTO> productAmounts : solution.values()) {
+			count += productAmounts.size();
+		}
+
+		final long[] storeIds = new long[count];
+		final long[] productIds = new long[count];
+		final long[] amounts = new long[count];
+
+		int index = 0;
+		for (final Entry<StoreTO, Collection<ProductAmountTO>> entry : solution.entrySet()) {
+			for (final ProductAmountTO productAmount : entry.getValue()) {
+				storeIds[index] = entry.getKey().getId();
+				productIds[index] = productAmount.getProduct().getId();
+				amounts[index] = productAmount.getAmount();
+				index++;
+			}
+		}
+
+		return new Plan(storeIds, productIds, amounts);
+	}
+
+	private static Map<StoreTO, Collection<ProductAmountTO>> __solutionFromPlan(
+			final Plan plan, final Collection<ProductAmountTO> requiredProductAmounts,
+			final Collection<Store> stores
+			) {
+		final Map<Long, ProductTO> products = new HashMap<Long, ProductTO>();
+		for (final ProductAmountTO productAmount : requiredProductAmounts) {
+			products.put(productAmount.getProduct().getId(), productAmount.getProduct());
+		}
+
+		final Map<Long, Store> storesById = new HashMap<Long, Store>();
+		for (final Store store : stores) {
+			storesById.put(store.getId(), store);
+		}
+
+		//
+		// Group the shipments by store, creating the transfer objects
+		// from the entities and transfer objects of the current problem.
+		//
+		final Map<Long, Collection<ProductAmountTO>> storeShipments =
+				new HashMap<Long, Collection<ProductAmountTO>>();
+
+		final Map<StoreTO, Collection<ProductAmountTO>> result =
+				new HashMap<StoreTO, Collection<ProductAmountTO>>();
+
+		for (int index = 0; index < plan.__amounts.length; index++) {
+			final long storeId = plan.__storeIds[index];
+
+			Collection<ProductAmountTO> shipments = storeShipments.get(storeId);
+			if (shipments == null) {
+				shipments = new ArrayList<ProductAmountTO>();
+				storeShipments.put(storeId, shipments);
+				result.put(FillTransferObjects.fillStoreTO(storesById.get(storeId)), shipments);
+			}
+
+			final ProductAmountTO productAmount = new ProductAmountTO();
+			productAmount.setProduct(products.get(plan.__productIds[index]));
+			productAmount.setAmount(plan.__amounts[index]);
+			shipments.add(productAmount);
+		}
+
+		return result;
+	}
+
+	//
+
+	private static long __getAmount(final Map<Long, Long> stock, final long productId) {
+		final Long result = stock.get(productId);
+		return (result != null) ? result : 0;
+	}
+
+	private static int __compare(final long first, final long second) {
+		return (first < second) ? -1 : ((first == second) ? 0 : 1);
+	}
+
+}
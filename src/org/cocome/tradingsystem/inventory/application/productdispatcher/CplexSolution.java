@@ -16,11 +16,11 @@
 
 package org.cocome.tradingsystem.inventory.application.productdispatcher;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+
+import org.cocome.tradingsystem.util.java.LongIntMap;
 
 /**
  * Represents the solution returned by the CPLEX parser. An instance of this
@@ -65,7 +65,10 @@ final class CplexSolution {
 	 * of products the store will be sending to target store.
 	 */
 	public static final class Store {
-		private final Map<Long, Product> __products = new HashMap<Long, Product>();
+		private final List<Product> __products = new ArrayList<Product>();
+
+		/** Indices of products in the product list, keyed by product identifier. */
+		private final LongIntMap __productIndices = new LongIntMap();
 
 		private final long __id;
 
@@ -76,7 +79,15 @@ final class CplexSolution {
 		}
 
 		void addProduct(final long productId, final int amount) {
-			__products.put(productId, new Product(productId, amount));
+			final Product product = new Product(productId, amount);
+
+			final int index = __productIndices.get(productId, -1);
+			if (index >= 0) {
+				__products.set(index, product);
+			} else {
+				__productIndices.put(productId, __products.size());
+				__products.add(product);
+			}
 		}
 
 		//
@@ -86,14 +97,17 @@ final class CplexSolution {
 		}
 
 		public Collection<Product> products() {
-			return __products.values();
+			return __products;
 		}
 	}
 
 	//
 
 	/** Stores with products to send out. */
-	private final Map<Long, Store> __stores = new HashMap<Long, Store>();
+	private final List<Store> __stores = new ArrayList<Store>();
+
+	/** Indices of stores in the store list, keyed by store identifier. */
+	private final LongIntMap __storeIndices = new LongIntMap();
 
 	private CplexSolution() {
 		// not to be instantiated by public
@@ -104,10 +118,15 @@ final class CplexSolution {
 	void addStoreProduct(
 			final long storeId, final long productId, final int amount
 			) {
-		Store store = __stores.get(storeId);
-		if (store == null) {
+		final Store store;
+
+		final int index = __storeIndices.get(storeId, -1);
+		if (index >= 0) {
+			store = __stores.get(index);
+		} else {
 			store = new Store(storeId);
-			__stores.put(storeId, store);
+			__storeIndices.put(storeId, __stores.size());
+			__stores.add(store);
 		}
 
 		store.addProduct(productId, amount);
@@ -118,14 +137,146 @@ final class CplexSolution {
 	}
 
 	public Collection<Store> stores() {
-		return __stores.values();
+		return __stores;
 	}
 
 	//
 
-	private static final Pattern __ROW_PATTERN__ = Pattern.compile(
-			"shipping_amount\\['Product(\\d+)','Store(\\d+)'\\]\\s=\\s(\\d+)\n"
-			);
+	/**
+	 * Incremental parser of the CPLEX solver output. The output is passed
+	 * to the parser one character at a time, as it is being read from the
+	 * solver, so that it never needs to be held in memory as a whole. Each
+	 * line is collected in a fixed-size buffer and parsed in place. Rows
+	 * with zero amounts, which make up most of the output, are recognized
+	 * by their last characters and skipped without parsing.
+	 */
+	static final class Parser implements AmplPipe.OutputHandler {
+		private static final char[] __PRODUCT_PREFIX__ = "shipping_amount['Product".toCharArray();
+
+		private static final char[] __STORE_PREFIX__ = "','Store".toCharArray();
+
+		private static final char[] __AMOUNT_PREFIX__ = "'] = ".toCharArray();
+
+		/** Maximal length of a row, longer lines are ignored. */
+		private static final int __MAX_LINE_LENGTH__ = 128;
+
+		//
+
+		private final CplexSolution __solution = new CplexSolution();
+
+		private final char[] __line = new char[__MAX_LINE_LENGTH__];
+
+		private int __lineLength;
+
+		private boolean __lineTooLong;
+
+		private int __position;
+
+		//
+
+		@Override
+		public void append(final char ch) {
+			if (ch == '\n') {
+				if (!__lineTooLong) {
+					__parseLine();
+				}
+
+				__lineLength = 0;
+				__lineTooLong = false;
+
+			} else if (__lineLength < __line.length) {
+				__line[__lineLength++] = ch;
+
+			} else {
+				__lineTooLong = true;
+			}
+		}
+
+		/**
+		 * Returns the solution parsed from the output passed to the parser
+		 * so far. An unterminated last line is ignored.
+		 */
+		CplexSolution solution() {
+			return __solution;
+		}
+
+		//
+
+		private void __parseLine() {
+			if (__lineLength < 2) {
+				return;
+			}
+
+			if (__line[__lineLength - 1] == '0' && __line[__lineLength - 2] == ' ') {
+				return;
+			}
+
+			__position = 0;
+			if (!__skip(__PRODUCT_PREFIX__)) {
+				return;
+			}
+
+			final long productId = __parseNumber();
+			if (productId < 0 || !__skip(__STORE_PREFIX__)) {
+				return;
+			}
+
+			final long storeId = __parseNumber();
+			if (storeId < 0 || !__skip(__AMOUNT_PREFIX__)) {
+				return;
+			}
+
+			final long amount = __parseNumber();
+			if (amount <= 0 || amount > Integer.MAX_VALUE || __position != __lineLength) {
+				return;
+			}
+
+			__solution.addStoreProduct(storeId, productId, (int) amount);
+		}
+
+		private boolean __skip(final char[] expected) {
+			if (__lineLength - __position < expected.length) {
+				return false;
+			}
+
+			for (int i = 0; i < expected.length; i++) {
+				if (__line[__position + i] != expected[i]) {
+					return false;
+				}
+			}
+
+			__position += expected.length;
+			return true;
+		}
+
+		/**
+		 * Parses a non-negative decimal number at the current position.
+		 * Returns -1 if there is no number at the current position, or
+		 * if the number does not fit in a {@code long}.
+		 */
+		private long __parseNumber() {
+			final int start = __position;
+
+			long result = 0;
+			while (__position < __lineLength) {
+				final char ch = __line[__position];
+				if (ch < '0' || ch > '9') {
+					break;
+				}
+
+				if (result > (Long.MAX_VALUE - 9) / 10) {
+					return -1;
+				}
+
+				result = 10 * result + (ch - '0');
+				__position++;
+			}
+
+			return (__position > start) ? result : -1;
+		}
+	}
+
+	//
 
 	/**
 	 * Parses the output of the CPLEX solver and returns the parsed solution.
@@ -139,20 +290,12 @@ final class CplexSolution {
 	 *         shipped to the calling store
 	 */
 	public static CplexSolution parse(final String solverOutput) {
-		final CplexSolution solution = new CplexSolution();
-
-		final Matcher matcher = __ROW_PATTERN__.matcher(solverOutput);
-		while (matcher.find()) {
-			final long productId = Long.parseLong(matcher.group(1));
-			final long storeId = Long.parseLong(matcher.group(2));
-			final int amount = Integer.parseInt(matcher.group(3));
-
-			if (amount > 0) {
-				solution.addStoreProduct(storeId, productId, amount);
-			}
+		final Parser parser = new Parser();
+		for (int i = 0; i < solverOutput.length(); i++) {
+			parser.append(solverOutput.charAt(i));
 		}
 
-		return solution;
+		return parser.solution();
 	}
 
 }
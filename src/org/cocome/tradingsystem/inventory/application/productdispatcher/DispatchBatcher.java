@@ -0,0 +1,317 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.inventory.application.store.ProductAmountTO;
+import org.cocome.tradingsystem.util.ApplicationHelper;
+
+/**
+ * Collects dispatch requests from the stores of an enterprise into batches,
+ * so that the requests in a batch can be dispatched jointly. The first
+ * request for an enterprise opens a batch, which collects further requests
+ * for the time given by the {@link #WINDOW_PROPERTY} system property. The
+ * thread that opened the batch then dispatches all requests in the batch,
+ * while the threads making the other requests wait for the result. A store
+ * can only have one request in a batch, because the products made available
+ * to a store cannot be attributed to its individual requests.
+ */
+final class DispatchBatcher implements DispatchBatcherMBean {
+
+	private static final Logger __log__ = Logger.getLogger(DispatchBatcher.class);
+
+	/**
+	 * Name of the system property specifying the time (in milliseconds)
+	 * during which dispatch requests are collected into a batch. Batching
+	 * is disabled if the window is zero.
+	 */
+	static final String WINDOW_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.DispatchWindow";
+
+	//
+
+	/**
+	 * Dispatches a batch of requests from the stores of an enterprise.
+	 */
+	interface BatchHandler {
+		/**
+		 * @param enterpriseId
+		 *            the enterprise the requesting stores belong to
+		 * @param storeRequests
+		 *            products/amounts required by each store, keyed by
+		 *            store identifier
+		 * @return products/amounts made available to each store, keyed
+		 *         by store identifier
+		 */
+		Map<Long, ProductAmountTO[]> dispatch(
+				long enterpriseId, Map<Long, Collection<ProductAmountTO>> storeRequests
+				);
+	}
+
+	//
+
+	private static final class Batch {
+		final long enterpriseId;
+
+		final Map<Long, Collection<ProductAmountTO>> storeRequests =
+				new HashMap<Long, Collection<ProductAmountTO>>();
+
+		final CountDownLatch completed = new CountDownLatch(1);
+
+		volatile Map<Long, ProductAmountTO[]> results;
+
+		volatile Throwable failure;
+
+		//
+
+		Batch(final long enterpriseId) {
+			this.enterpriseId = enterpriseId;
+		}
+
+		/**
+		 * Adds a request to the batch, unless the batch already contains a
+		 * request from the same store.
+		 * 
+		 * @return {@code true} if the request has been added
+		 */
+		boolean addRequest(final long storeId, final Collection<ProductAmountTO> productAmounts) {
+			if (this.storeRequests.containsKey(storeId)) {
+				return false;
+			}
+
+			this.storeRequests.put(storeId, productAmounts);
+			return true;
+		}
+	}
+
+	//
+
+	private final BatchHandler __handler;
+
+	private final long __windowMillis;
+
+	/** Batches collecting requests, keyed by enterprise identifier. */
+	private final Map<Long, Batch> __openBatches = new HashMap<Long, Batch>();
+
+	//
+
+	private final AtomicLong __requestCount = new AtomicLong();
+
+	private final AtomicLong __batchCount = new AtomicLong();
+
+	private final AtomicLong __failedBatchCount = new AtomicLong();
+
+	private final AtomicLong __rejectedRequestCount = new AtomicLong();
+
+	private volatile int __maxBatchSize;
+
+	private volatile long __lastDispatchMillis;
+
+	//
+
+	private DispatchBatcher(final BatchHandler handler, final long windowMillis) {
+		__handler = handler;
+		__windowMillis = windowMillis;
+	}
+
+	/**
+	 * Creates a new batcher if batching is enabled by the
+	 * {@link #WINDOW_PROPERTY} system property, and registers it with the
+	 * platform MBean server.
+	 * 
+	 * @param handler
+	 *            handler to dispatch the batches
+	 * @return
+	 *         new batcher, or {@code null} if batching is disabled
+	 */
+	static DispatchBatcher newInstance(final BatchHandler handler) {
+		final long windowMillis = ApplicationHelper.getLongProperty(WINDOW_PROPERTY, 0);
+		if (windowMillis <= 0) {
+			return null;
+		}
+
+		final DispatchBatcher result = new DispatchBatcher(handler, windowMillis);
+		ApplicationHelper.registerMBean(
+				result, DispatchBatcherMBean.class,
+				"org.cocome.tradingsystem:type=DispatchBatcher"
+				);
+
+		__log__.info("Batching dispatch requests within " + windowMillis + " ms");
+		return result;
+	}
+
+	//
+
+	/**
+	 * Adds the request of the given store to the batch for the given
+	 * enterprise and waits for the batch to be dispatched.
+	 * 
+	 * @return
+	 *         products/amounts made available to the requesting store
+	 * @throws RemoteException
+	 *             if the batch already contains a request from the store,
+	 *             if dispatching the batch failed, or if interrupted while
+	 *             waiting for the batch to be dispatched
+	 */
+	ProductAmountTO[] dispatch(
+			final long enterpriseId, final long storeId,
+			final Collection<ProductAmountTO> requiredProducts
+			) throws RemoteException {
+		__requestCount.incrementAndGet();
+
+		final Batch batch;
+		final boolean opened;
+		synchronized (__openBatches) {
+			final Batch openBatch = __openBatches.get(enterpriseId);
+			opened = (openBatch == null);
+			batch = opened ? new Batch(enterpriseId) : openBatch;
+			if (opened) {
+				__openBatches.put(enterpriseId, batch);
+			}
+
+			if (!batch.addRequest(storeId, requiredProducts)) {
+				__rejectedRequestCount.incrementAndGet();
+				throw new RemoteException(String.format(
+						"Store %d already has a request in the dispatch batch for enterprise %d",
+						storeId, enterpriseId
+						));
+			}
+		}
+
+		if (opened) {
+			__dispatchBatch(batch);
+
+		} else {
+			try {
+				batch.completed.await();
+
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new RemoteException("Interrupted while waiting for batch dispatch");
+			}
+		}
+
+		if (batch.failure != null || batch.results == null) {
+			throw new RemoteException("Batch dispatch failed", batch.failure);
+		}
+
+		final ProductAmountTO[] result = batch.results.get(storeId);
+		return (result != null) ? result : new ProductAmountTO[0];
+	}
+
+	private void __dispatchBatch(final Batch batch) {
+		try {
+			//
+			// Collect requests for the duration of the window, then close
+			// the batch so that no more requests can be added.
+			//
+			try {
+				Thread.sleep(__windowMillis);
+
+			} catch (final InterruptedException ie) {
+				// dispatch the batch right away
+				Thread.currentThread().interrupt();
+			}
+
+			final Map<Long, Collection<ProductAmountTO>> requests;
+			synchronized (__openBatches) {
+				__openBatches.remove(batch.enterpriseId);
+				requests = batch.storeRequests;
+			}
+
+			final long startTime = System.currentTimeMillis();
+			batch.results = __handler.dispatch(batch.enterpriseId, requests);
+			__lastDispatchMillis = System.currentTimeMillis() - startTime;
+
+			__batchCount.incrementAndGet();
+			__maxBatchSize = Math.max(__maxBatchSize, requests.size());
+
+			if (__log__.isDebugEnabled()) {
+				__log__.debug(String.format(
+						"Dispatched batch of %d requests for enterprise %d in %d ms",
+						requests.size(), batch.enterpriseId, __lastDispatchMillis
+						));
+			}
+
+		} catch (final Throwable t) {
+			//
+			// Catch everything, including errors, so that the requests
+			// waiting for the batch always get either results or a failure.
+			//
+			__failedBatchCount.incrementAndGet();
+			batch.failure = t;
+			__log__.error("Failed to dispatch batch for enterprise " + batch.enterpriseId, t);
+
+		} finally {
+			batch.completed.countDown();
+		}
+	}
+
+	//
+	// DispatchBatcherMBean
+	//
+
+	@Override
+	public long getWindowMillis() {
+		return __windowMillis;
+	}
+
+	@Override
+	public long getRequestCount() {
+		return __requestCount.get();
+	}
+
+	@Override
+	public long getBatchCount() {
+		return __batchCount.get();
+	}
+
+	@Override
+	public long getFailedBatchCount() {
+		return __failedBatchCount.get();
+	}
+
+	@Override
+	public long getRejectedRequestCount() {
+		return __rejectedRequestCount.get();
+	}
+
+	@Override
+	public double getAverageBatchSize() {
+		final long batches = __batchCount.get() + __failedBatchCount.get();
+		final long requests = __requestCount.get() - __rejectedRequestCount.get();
+		return (batches > 0) ? (double) requests / batches : 0;
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return __maxBatchSize;
+	}
+
+	@Override
+	public long getLastDispatchMillis() {
+		return __lastDispatchMillis;
+	}
+
+}
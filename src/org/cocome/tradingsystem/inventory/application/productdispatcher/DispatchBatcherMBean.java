@@ -0,0 +1,69 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+/**
+ * Management interface of the {@link DispatchBatcher}. Exposes the
+ * effectiveness of batching dispatch requests via JMX.
+ */
+public interface DispatchBatcherMBean {
+
+	/**
+	 * @return time (in milliseconds) during which dispatch requests
+	 *         are collected into a batch
+	 */
+	long getWindowMillis();
+
+	/**
+	 * @return number of dispatch requests received
+	 */
+	long getRequestCount();
+
+	/**
+	 * @return number of batches dispatched, i.e., the number of joint
+	 *         transport problems solved
+	 */
+	long getBatchCount();
+
+	/**
+	 * @return number of batches that failed to be dispatched
+	 */
+	long getFailedBatchCount();
+
+	/**
+	 * @return number of dispatch requests rejected because the batch
+	 *         already contained a request from the same store
+	 */
+	long getRejectedRequestCount();
+
+	/**
+	 * @return average number of requests per batch
+	 */
+	double getAverageBatchSize();
+
+	/**
+	 * @return maximal number of requests in a single batch
+	 */
+	int getMaxBatchSize();
+
+	/**
+	 * @return time (in milliseconds) needed to dispatch the last batch,
+	 *         excluding the time spent collecting requests
+	 */
+	long getLastDispatchMillis();
+
+}
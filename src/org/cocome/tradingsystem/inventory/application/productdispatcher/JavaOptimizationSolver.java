@@ -0,0 +1,532 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.inventory.application.store.FillTransferObjects;
+import org.cocome.tradingsystem.inventory.application.store.ProductAmountTO;
+import org.cocome.tradingsystem.inventory.application.store.StoreTO;
+import org.cocome.tradingsystem.inventory.data.store.StockItem;
+import org.cocome.tradingsystem.inventory.data.store.Store;
+import org.cocome.tradingsystem.util.ApplicationHelper;
+
+/**
+ * In-process solver for the problem of optimal transportation costs. Solves
+ * the same model as the AMPL/CPLEX backend (see {@code cocome.mod}), i.e.
+ * it selects the set of supplying stores with minimal total distance such
+ * that the stock of the selected stores covers the required amount of each
+ * product.
+ * <p>
+ * Instances with at most {@link #EXACT_LIMIT_PROPERTY} candidate stores are
+ * solved exactly using depth-first branch-and-bound. Larger instances are
+ * solved using a greedy heuristic which repeatedly selects the store with
+ * the lowest distance per unit of demand it covers, and then drops stores
+ * that became redundant.
+ * <p>
+ * Unlike the AMPL/CPLEX backend, the solver does not give up when some
+ * product is not available in sufficient amount. Instead, the required
+ * amount is capped at the amount available in all stores together.
+ * 
+ * @see IOptimizationSolver
+ */
+final class JavaOptimizationSolver implements IOptimizationSolver {
+
+	private static final Logger __log__ =
+			Logger.getLogger(JavaOptimizationSolver.class);
+
+	/**
+	 * Name of the system property specifying the maximal number of candidate
+	 * stores for which the problem is solved exactly.
+	 */
+	static final String EXACT_LIMIT_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.ExactSolverLimit";
+
+	private static final int __DEFAULT_EXACT_LIMIT__ = 24;
+
+	//
+
+	private final int __exactLimit;
+
+	//
+
+	/**
+	 * Creates a solver with the exact solver limit determined by the
+	 * {@link #EXACT_LIMIT_PROPERTY} system property.
+	 */
+	public JavaOptimizationSolver() {
+		this((int) Math.max(0, ApplicationHelper.getLongProperty(
+				EXACT_LIMIT_PROPERTY, __DEFAULT_EXACT_LIMIT__
+				)));
+	}
+
+	/**
+	 * Creates a solver with the given exact solver limit.
+	 * 
+	 * @param exactLimit
+	 *            maximal number of candidate stores for which the problem
+	 *            is solved exactly, zero to always use the heuristic
+	 */
+	JavaOptimizationSolver(final int exactLimit) {
+		__exactLimit = exactLimit;
+	}
+
+	/*
+	 * @see IOptimizationSolver#solveOptimization(Collection, Map, Map)
+	 */
+	@Override
+	public Map<StoreTO, Collection<ProductAmountTO>> solveOptimization(
+			final Collection<ProductAmountTO> requiredProductAmounts,
+			final Map<Store, Collection<StockItem>> storeStockItems,
+			final Map<Store, Integer> storeDistances
+			) {
+		final Problem problem = Problem.newInstance(
+				requiredProductAmounts, storeStockItems, storeDistances
+				);
+
+		if (problem.isTrivial()) {
+			return Collections.emptyMap();
+		}
+
+		//
+		// Select the supplying stores and split the required amounts
+		// among them. Any split is optimal once the stores are selected.
+		//
+		final long startTime = System.nanoTime();
+
+		final boolean exact = problem.storeCount() <= __exactLimit;
+		final boolean[] selected = exact ?
+				problem.selectExact() : problem.selectGreedy();
+
+		final Map<StoreTO, Collection<ProductAmountTO>> result =
+				problem.shipments(selected);
+
+		if (__log__.isDebugEnabled()) {
+			__log__.debug(String.format(
+					"Solved %s problem with %d stores and %d products in %d us",
+					exact ? "exact" : "heuristic",
+					problem.storeCount(), problem.productCount(),
+					(System.nanoTime() - startTime) / 1000
+					));
+		}
+
+		return result;
+	}
+
+	//
+
+	/**
+	 * Solver-domain representation of the problem. Stores are ordered by
+	 * increasing distance and products are indexed in the order in which
+	 * they were required.
+	 */
+	static final class Problem {
+
+		private final Store[] __stores;
+
+		private final long[] __distances;
+
+		private final ProductAmountTO[] __products;
+
+		/** Remaining required amount of each product. */
+		private final long[] __demand;
+
+		/** Amount of each product in each store, indexed[store][product]. */
+		private final long[][] __stock;
+
+		/**
+		 * Amount of each product in stores with index greater or equal to
+		 * the row index, indexed[store][product]. Used to prune branches
+		 * which cannot lead to a feasible solution.
+		 */
+		private final long[][] __suffixStock;
+
+		/** Best selection found by branch-and-bound. */
+		private boolean[] __bestSelection;
+
+		private long __bestDistance;
+
+		//
+
+		private Problem(
+				final Store[] stores, final long[] distances,
+				final ProductAmountTO[] products, final long[] demand,
+				final long[][] stock
+				) {
+			__stores = stores;
+			__distances = distances;
+			__products = products;
+			__demand = demand;
+			__stock = stock;
+			__suffixStock = __suffixSums(stock, demand.length);
+		}
+
+		//
+
+		static Problem newInstance(
+				final Collection<ProductAmountTO> requiredProductAmounts,
+				final Map<Store, Collection<StockItem>> storeStockItems,
+				final Map<Store, Integer> storeDistances
+				) {
+			//
+			// Index the required products by product identifier and the
+			// stores by increasing distance.
+			//
+			final ProductAmountTO[] products = requiredProductAmounts.toArray(
+					new ProductAmountTO[requiredProductAmounts.size()]
+					);
+
+			final Map<Long, Integer> productIndices = new HashMap<Long, Integer>();
+			for (int index = 0; index < products.length; index++) {
+				productIndices.put(products[index].getProduct().getId(), index);
+			}
+
+			final Store[] stores = __sortByDistance(storeStockItems.keySet(), storeDistances);
+
+			//
+			// Collect the stock amounts and distances. A store missing in
+			// the distance map is treated as being infinitely distant.
+			//
+			final long[] distances = new long[stores.length];
+			final long[][] stock = new long[stores.length][products.length];
+			final long[] available = new long[products.length];
+
+			for (int store = 0; store < stores.length; store++) {
+				distances[store] = __distance(stores[store], storeDistances);
+
+				for (final StockItem stockItem : storeStockItems.get(stores[store])) {
+					final Integer product = productIndices.get(stockItem.getProduct().getId());
+					if (product != null && stockItem.getAmount() > 0) {
+						stock[store][product] += stockItem.getAmount();
+						available[product] += stockItem.getAmount();
+					}
+				}
+			}
+
+			//
+			// Cap the required amounts at the amounts available in all
+			// stores, so that the problem always has a solution.
+			//
+			final long[] demand = new long[products.length];
+			for (int product = 0; product < products.length; product++) {
+				demand[product] = Math.max(0, Math.min(
+						products[product].getAmount(), available[product]
+						));
+			}
+
+			return new Problem(stores, distances, products, demand, stock);
+		}
+
+		//
+
+		int storeCount() {
+			return __stores.length;
+		}
+
+		int productCount() {
+			return __products.length;
+		}
+
+		/**
+		 * Returns {@code true} if none of the required products needs
+		 * to be shipped.
+		 */
+		boolean isTrivial() {
+			for (final long amount : __demand) {
+				if (amount > 0) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		//
+
+		/**
+		 * Selects the optimal set of stores using branch-and-bound. The
+		 * greedy solution serves as the initial upper bound. If the thread
+		 * is interrupted, the search stops and the best selection found so
+		 * far is returned.
+		 */
+		boolean[] selectExact() {
+			__bestSelection = selectGreedy();
+			__bestDistance = __totalDistance(__bestSelection);
+
+			__branch(0, 0, __demand.clone(), new boolean[__stores.length]);
+			return __bestSelection;
+		}
+
+		/**
+		 * Explores selections of stores starting at the given index. Stores
+		 * are ordered by distance, so whenever some demand remains, at least
+		 * the distance of the next store needs to be added to the partial
+		 * solution, which provides a lower bound for pruning.
+		 */
+		private void __branch(
+				final int store, final long distance,
+				final long[] demand, final boolean[] selection
+				) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+
+			if (__isSatisfied(demand)) {
+				if (distance < __bestDistance) {
+					__bestDistance = distance;
+					__bestSelection = selection.clone();
+				}
+
+				return;
+			}
+
+			if (store >= __stores.length
+					|| distance + __distances[store] >= __bestDistance
+					|| !__isCoverable(store, demand)) {
+				return;
+			}
+
+			//
+			// Explore the branch including the store first, and only if
+			// the store actually covers some of the remaining demand.
+			//
+			final long[] covered = __cover(store, demand);
+			if (covered != null) {
+				selection[store] = true;
+				__branch(store + 1, distance + __distances[store], covered, selection);
+				selection[store] = false;
+			}
+
+			__branch(store + 1, distance, demand, selection);
+		}
+
+		/**
+		 * Selects stores using a greedy heuristic which repeatedly picks
+		 * the store with the lowest distance per unit of covered demand.
+		 * Stores made redundant by later choices are dropped afterwards,
+		 * starting with the most distant ones.
+		 */
+		boolean[] selectGreedy() {
+			final boolean[] selection = new boolean[__stores.length];
+			long[] demand = __demand.clone();
+
+			while (!__isSatisfied(demand)) {
+				int bestStore = -1;
+				double bestRatio = Double.POSITIVE_INFINITY;
+
+				for (int store = 0; store < __stores.length; store++) {
+					if (selection[store]) {
+						continue;
+					}
+
+					final long coverage = __coverage(store, demand);
+					if (coverage > 0) {
+						final double ratio = (double) __distances[store] / coverage;
+						if (ratio < bestRatio || bestStore < 0) {
+							bestStore = store;
+							bestRatio = ratio;
+						}
+					}
+				}
+
+				if (bestStore < 0) {
+					// cannot happen with capped demand, but avoid looping
+					break;
+				}
+
+				selection[bestStore] = true;
+				demand = __cover(bestStore, demand);
+			}
+
+			for (int store = __stores.length - 1; store >= 0; store--) {
+				if (selection[store]) {
+					selection[store] = false;
+					if (!__covers(selection)) {
+						selection[store] = true;
+					}
+				}
+			}
+
+			return selection;
+		}
+
+		//
+
+		/**
+		 * Splits the required amounts among the selected stores, taking
+		 * as much as possible from the closest stores.
+		 */
+		Map<StoreTO, Collection<ProductAmountTO>> shipments(final boolean[] selection) {
+			final Map<StoreTO, Collection<ProductAmountTO>> result =
+					new HashMap<StoreTO, Collection<ProductAmountTO>>();
+
+			final long[] demand = __demand.clone();
+			for (int store = 0; store < __stores.length; store++) {
+				if (!selection[store]) {
+					continue;
+				}
+
+				final Collection<ProductAmountTO> productAmounts = new ArrayList<ProductAmountTO>();
+				for (int product = 0; product < demand.length; product++) {
+					final long amount = Math.min(demand[product], __stock[store][product]);
+					if (amount > 0) {
+						demand[product] -= amount;
+						productAmounts.add(__newProductAmountTO(product, amount));
+					}
+				}
+
+				if (!productAmounts.isEmpty()) {
+					result.put(FillTransferObjects.fillStoreTO(__stores[store]), productAmounts);
+				}
+			}
+
+			return result;
+		}
+
+		private ProductAmountTO __newProductAmountTO(final int product, final long amount) {
+			final ProductAmountTO result = new ProductAmountTO();
+			result.setProduct(__products[product].getProduct());
+			result.setAmount(amount);
+			return result;
+		}
+
+		//
+
+		private long __totalDistance(final boolean[] selection) {
+			long result = 0;
+			for (int store = 0; store < selection.length; store++) {
+				if (selection[store]) {
+					result += __distances[store];
+				}
+			}
+
+			return result;
+		}
+
+		/**
+		 * Determines whether the stores with the given index or higher
+		 * have enough stock to cover the given demand.
+		 */
+		private boolean __isCoverable(final int store, final long[] demand) {
+			final long[] suffixStock = __suffixStock[store];
+			for (int product = 0; product < demand.length; product++) {
+				if (demand[product] > suffixStock[product]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private boolean __covers(final boolean[] selection) {
+			final long[] demand = __demand.clone();
+			for (int store = 0; store < selection.length; store++) {
+				if (selection[store]) {
+					for (int product = 0; product < demand.length; product++) {
+						demand[product] -= __stock[store][product];
+					}
+				}
+			}
+
+			return __isSatisfied(demand);
+		}
+
+		/**
+		 * Returns the amount of the given demand that the given store
+		 * is able to cover.
+		 */
+		private long __coverage(final int store, final long[] demand) {
+			long result = 0;
+			for (int product = 0; product < demand.length; product++) {
+				result += Math.min(demand[product], __stock[store][product]);
+			}
+
+			return result;
+		}
+
+		/**
+		 * Returns the demand remaining after covering the given demand from
+		 * the given store, or {@code null} if the store covers nothing.
+		 */
+		private long[] __cover(final int store, final long[] demand) {
+			final long[] result = new long[demand.length];
+
+			boolean covered = false;
+			for (int product = 0; product < demand.length; product++) {
+				final long amount = Math.min(demand[product], __stock[store][product]);
+				result[product] = demand[product] - amount;
+				covered |= amount > 0;
+			}
+
+			return covered ? result : null;
+		}
+
+		private static boolean __isSatisfied(final long[] demand) {
+			for (final long amount : demand) {
+				if (amount > 0) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		//
+
+		private static long[][] __suffixSums(final long[][] stock, final int productCount) {
+			final long[][] result = new long[stock.length + 1][productCount];
+			for (int store = stock.length - 1; store >= 0; store--) {
+				for (int product = 0; product < productCount; product++) {
+					result[store][product] = result[store + 1][product] + stock[store][product];
+				}
+			}
+
+			return result;
+		}
+
+		private static Store[] __sortByDistance(
+				final Collection<Store> stores, final Map<Store, Integer> storeDistances
+				) {
+			final Store[] result = stores.toArray(new Store[stores.size()]);
+			Arrays.sort(result, new Comparator<Store>() {
+				@Override
+				public int compare(final Store first, final Store second) {
+					final long firstDistance = __distance(first, storeDistances);
+					final long secondDistance = __distance(second, storeDistances);
+					return (firstDistance < secondDistance) ? -1 : ((firstDistance == secondDistance) ? 0 : 1);
+				}
+			});
+
+			return result;
+		}
+
+		private static long __distance(
+				final Store store, final Map<Store, Integer> storeDistances
+				) {
+			final Integer distance = storeDistances.get(store);
+			return (distance != null) ? Math.max(0, distance) : Integer.MAX_VALUE;
+		}
+	}
+
+}
@@ -0,0 +1,298 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cocome.tradingsystem.inventory.application.store.FillTransferObjects;
+import org.cocome.tradingsystem.inventory.application.store.ProductAmountTO;
+import org.cocome.tradingsystem.inventory.application.store.ProductTO;
+import org.cocome.tradingsystem.inventory.application.store.StoreTO;
+import org.cocome.tradingsystem.inventory.data.store.StockItem;
+import org.cocome.tradingsystem.inventory.data.store.Store;
+
+/**
+ * Solves the joint transport problem for requests from multiple stores of
+ * an enterprise. Compared to solving the requests one by one, the stock of
+ * the supplying stores is shared among all requesting stores, so that a
+ * scarce product is never promised to more than one store.
+ * <p>
+ * The problem is an extension of the model solved by the
+ * {@link IOptimizationSolver} implementations to multiple destinations, i.e.
+ * the total distance of the routes used to ship products is minimized. The
+ * problem is solved using a greedy heuristic which repeatedly opens the
+ * route with the lowest distance per unit of demand it can cover. A store
+ * never ships products it requested itself.
+ */
+final class JointDispatchSolver {
+
+	private final Store[] __stores;
+
+	private final ProductTO[] __products;
+
+	/** Remaining stock, indexed [store][product]. */
+	private final long[][] __stock;
+
+	/** Remaining demand, indexed [store][product]. */
+	private final long[][] __demand;
+
+	/** Route distances, indexed [origin][destination]. */
+	private final long[][] __distances;
+
+	/** Shipped amounts, indexed [origin][destination][product]. */
+	private final long[][][] __shipments;
+
+	//
+
+	private JointDispatchSolver(
+			final Store[] stores, final ProductTO[] products,
+			final long[][] stock, final long[][] demand, final long[][] distances
+			) {
+		__stores = stores;
+		__products = products;
+		__stock = stock;
+		__demand = demand;
+		__distances = distances;
+		__shipments = new long[stores.length][][];
+	}
+
+	/**
+	 * Solves the joint transport problem.
+	 * 
+	 * @param storeRequests
+	 *            products/amounts required by each requesting store, keyed by
+	 *            store identifier
+	 * @param storeStockItems
+	 *            stock item availability in all stores of the enterprise
+	 * @param distances
+	 *            distances between stores
+	 * @return
+	 *         a map containing, for each requesting store, a map of
+	 *         products/amounts to be delivered by the supplying stores
+	 */
+	static Map<Long, Map<StoreTO, Collection<ProductAmountTO>>> solve(
+			final Map<Long, Collection<ProductAmountTO>> storeRequests,
+			final Map<Store, Collection<StockItem>> storeStockItems,
+			final StoreDistanceMatrix distances
+			) {
+		final JointDispatchSolver solver = __newInstance(
+				storeRequests, storeStockItems, distances
+				);
+
+		solver.__openRoutes();
+		return solver.__solution();
+	}
+
+	private static JointDispatchSolver __newInstance(
+			final Map<Long, Collection<ProductAmountTO>> storeRequests,
+			final Map<Store, Collection<StockItem>> storeStockItems,
+			final StoreDistanceMatrix storeDistances
+			) {
+		//
+		// Index the required products and the stores.
+		//
+		final Map<Long, Integer> productIndices = new HashMap<Long, Integer>();
+		final Collection<ProductTO> products = new ArrayList<ProductTO>();
+		for (final Collection<ProductAmountTO> productAmounts : storeRequests.values()) {
+			for (final ProductAmountTO productAmount : productAmounts) {
+				final ProductTO product = productAmount.getProduct();
+				if (!productIndices.containsKey(product.getId())) {
+					productIndices.put(product.getId(), products.size());
+					products.add(product);
+				}
+			}
+		}
+
+		final Store[] stores = storeStockItems.keySet().toArray(
+				new Store[storeStockItems.size()]
+				);
+
+		//
+		// Collect the stock and demand of all stores, and the distances
+		// between them. A store does not offer products it requires.
+		//
+		final long[][] stock = new long[stores.length][products.size()];
+		final long[][] demand = new long[stores.length][products.size()];
+		final long[][] distances = new long[stores.length][stores.length];
+
+		final int[] ordinals = new int[stores.length];
+		for (int store = 0; store < stores.length; store++) {
+			ordinals[store] = storeDistances.ordinal(stores[store].getId());
+		}
+
+		for (int store = 0; store < stores.length; store++) {
+			final Collection<ProductAmountTO> request = storeRequests.get(stores[store].getId());
+			if (request != null) {
+				for (final ProductAmountTO productAmount : request) {
+					final int product = productIndices.get(productAmount.getProduct().getId());
+					demand[store][product] += Math.max(0, productAmount.getAmount());
+				}
+			}
+
+			for (final StockItem stockItem : storeStockItems.get(stores[store])) {
+				final Integer product = productIndices.get(stockItem.getProduct().getId());
+				if (product != null && demand[store][product] == 0) {
+					stock[store][product] += Math.max(0, stockItem.getAmount());
+				}
+			}
+
+			for (int other = 0; other < stores.length; other++) {
+				distances[store][other] = Math.max(0,
+						storeDistances.distance(ordinals[store], ordinals[other])
+						);
+			}
+		}
+
+		return new JointDispatchSolver(
+				stores, products.toArray(new ProductTO[products.size()]),
+				stock, demand, distances
+				);
+	}
+
+	//
+
+	/**
+	 * Repeatedly opens the route with the lowest distance per unit of
+	 * covered demand and ships as much as possible along the route, until
+	 * no route can cover any of the remaining demand.
+	 */
+	private void __openRoutes() {
+		while (true) {
+			int bestOrigin = -1;
+			int bestDestination = -1;
+			double bestRatio = Double.POSITIVE_INFINITY;
+
+			for (int destination = 0; destination < __stores.length; destination++) {
+				for (int origin = 0; origin < __stores.length; origin++) {
+					if (origin == destination || __isOpen(origin, destination)) {
+						continue;
+					}
+
+					final long coverage = __coverage(origin, destination);
+					if (coverage > 0) {
+						final double ratio = (double) __distances[origin][destination] / coverage;
+						if (ratio < bestRatio || bestOrigin < 0) {
+							bestOrigin = origin;
+							bestDestination = destination;
+							bestRatio = ratio;
+						}
+					}
+				}
+			}
+
+			if (bestOrigin < 0) {
+				return;
+			}
+
+			__ship(bestOrigin, bestDestination);
+		}
+	}
+
+	private boolean __isOpen(final int origin, final int destination) {
+		return __shipments[origin] != null && __shipments[origin][destination] != null;
+	}
+
+	private long __coverage(final int origin, final int destination) {
+		final long[] stock = __stock[origin];
+		final long[] demand = __demand[destination];
+
+		long result = 0;
+		for (int product = 0; product < demand.length; product++) {
+			result += Math.min(demand[product], stock[product]);
+		}
+
+		return result;
+	}
+
+	private void __ship(final int origin, final int destination) {
+		if (__shipments[origin] == null) {
+			__shipments[origin] = new long[__stores.length][];
+		}
+
+		final long[] shipment = new long[__products.length];
+		__shipments[origin][destination] = shipment;
+
+		final long[] stock = __stock[origin];
+		final long[] demand = __demand[destination];
+		for (int product = 0; product < demand.length; product++) {
+			final long amount = Math.min(demand[product], stock[product]);
+			shipment[product] = amount;
+			stock[product] -= amount;
+			demand[product] -= amount;
+		}
+	}
+
+	//
+
+	private Map<Long, Map<StoreTO, Collection<ProductAmountTO>>> __solution() {
+		final Map<Long, Map<StoreTO, Collection<ProductAmountTO>>> result =
+				new HashMap<Long, Map<StoreTO, Collection<ProductAmountTO>>>();
+
+		for (int origin = 0; origin < __stores.length; origin++) {
+			if (__shipments[origin] == null) {
+				continue;
+			}
+
+			final StoreTO originTO = FillTransferObjects.fillStoreTO(__stores[origin]);
+			for (int destination = 0; destination < __stores.length; destination++) {
+				final long[] shipment = __shipments[origin][destination];
+				if (shipment == null) {
+					continue;
+				}
+
+				final Collection<ProductAmountTO> productAmounts = new ArrayList<ProductAmountTO>();
+				for (int product = 0; product < shipment.length; product++) {
+					if (shipment[product] > 0) {
+						productAmounts.add(__newProductAmountTO(__products[product], shipment[product]));
+					}
+				}
+
+				__destinationShipments(result, __stores[destination].getId()).put(
+						originTO, productAmounts
+						);
+			}
+		}
+
+		return result;
+	}
+
+	private static Map<StoreTO, Collection<ProductAmountTO>> __destinationShipments(
+			final Map<Long, Map<StoreTO, Collection<ProductAmountTO>>> solution,
+			final long destinationId
+			) {
+		Map<StoreTO, Collection<ProductAmountTO>> result = solution.get(destinationId);
+		if (result == null) {
+			result = new HashMap<StoreTO, Collection<ProductAmountTO>>();
+			solution.put(destinationId, result);
+		}
+
+		return result;
+	}
+
+	private static ProductAmountTO __newProductAmountTO(
+			final ProductTO product, final long amount
+			) {
+		final ProductAmountTO result = new ProductAmountTO();
+		result.setProduct(product);
+		result.setAmount(amount);
+		return result;
+	}
+
+}
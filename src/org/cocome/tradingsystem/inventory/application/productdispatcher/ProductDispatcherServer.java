@@ -22,9 +22,23 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 
 import org.apache.log4j.Logger;
 import org.cocome.tradingsystem.inventory.application.store.FillTransferObjects;
@@ -33,6 +47,7 @@ import org.cocome.tradingsystem.inventory.application.store.ProductAmountTO;
 import org.cocome.tradingsystem.inventory.application.store.ProductMovementTO;
 import org.cocome.tradingsystem.inventory.application.store.StoreTO;
 import org.cocome.tradingsystem.inventory.data.DataFactory;
+import org.cocome.tradingsystem.inventory.data.enterprise.IEnterpriseQuery;
 import org.cocome.tradingsystem.inventory.data.enterprise.TradingEnterprise;
 import org.cocome.tradingsystem.inventory.data.persistence.IPersistence;
 import org.cocome.tradingsystem.inventory.data.persistence.IPersistenceContext;
@@ -60,6 +75,40 @@ final class ProductDispatcherServer
 	private static final Logger LOG =
 			Logger.getLogger(ProductDispatcherServer.class);
 
+	/**
+	 * Name of the system property selecting the optimization solver. The
+	 * value "java" selects the in-process {@link JavaOptimizationSolver},
+	 * the value "ampl" (default) selects the {@link AmplCplexSolver}.
+	 */
+	static final String SOLVER_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.Solver";
+
+	/**
+	 * Name of the system property specifying the maximal number of
+	 * optimization problems solved concurrently. Defaults to the number
+	 * of available processors.
+	 */
+	static final String CONCURRENT_SOLVES_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.ConcurrentSolves";
+
+	/**
+	 * Name of the system property specifying the number of threads used
+	 * to issue product movements in the supplying stores.
+	 */
+	static final String MOVEMENT_THREADS_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.MovementThreads";
+
+	/**
+	 * Name of the system property specifying the time (in milliseconds)
+	 * to wait for the supplying stores to issue product movements.
+	 */
+	static final String MOVEMENT_TIMEOUT_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.MovementTimeout";
+
+	private static final int DEFAULT_MOVEMENT_THREADS = 8;
+
+	private static final long DEFAULT_MOVEMENT_TIMEOUT = 10000;
+
 	//
 
 	private final IPersistence persistence =
@@ -68,10 +117,88 @@ final class ProductDispatcherServer
 	private final IStoreQuery storeQuery =
 			DataFactory.getInstance().getStoreQuery();
 
+	private final IEnterpriseQuery enterpriseQuery =
+			DataFactory.getInstance().getEnterpriseQuery();
+
+	/**
+	 * Cache of solutions to previously solved problems, or {@code null}
+	 * if caching is disabled.
+	 */
+	private final transient SolutionCache<CachingOptimizationSolver.Fingerprint, CachingOptimizationSolver.Plan> solutionCache =
+			SolutionCache.newInstance();
+
+	/**
+	 * Bounds the time spent solving optimization problems, or {@code null}
+	 * if the solvers are given unlimited time.
+	 */
+	private final transient AnytimeSolver anytimeSolver = AnytimeSolver.newInstance();
+
+	/** Store distance matrices, keyed by enterprise identifier. */
+	private final Map<Long, StoreDistanceMatrix> distanceMatrices =
+			new ConcurrentHashMap<Long, StoreDistanceMatrix>();
+
+	private final boolean useJavaSolver =
+			"java".equalsIgnoreCase(System.getProperty(SOLVER_PROPERTY, "ampl").trim());
+
+	/**
+	 * Limits the number of concurrently solved optimization problems.
+	 * Dispatch requests from different stores are otherwise independent.
+	 */
+	private final Semaphore solverPermits = new Semaphore((int) Math.max(1,
+			ApplicationHelper.getLongProperty(
+					CONCURRENT_SOLVES_PROPERTY, Runtime.getRuntime().availableProcessors()
+					)), true);
+
+	private final long movementTimeout = Math.max(1, ApplicationHelper.getLongProperty(
+			MOVEMENT_TIMEOUT_PROPERTY, DEFAULT_MOVEMENT_TIMEOUT
+			));
+
+	/**
+	 * Issues product movements in supplying stores concurrently. The threads
+	 * are daemon threads, because the dispatcher is never shut down orderly.
+	 */
+	private final transient ExecutorService movementExecutor = Executors.newFixedThreadPool(
+			(int) Math.max(1, ApplicationHelper.getLongProperty(
+					MOVEMENT_THREADS_PROPERTY, DEFAULT_MOVEMENT_THREADS
+					)),
+			new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread result = new Thread(
+							runnable, "Product movement " + this.threadCount.incrementAndGet()
+							);
+					result.setDaemon(true);
+					return result;
+				}
+			});
+
+	/** Product movement statistics, keyed by supplying store name. */
+	private final transient ConcurrentHashMap<String, ProductMovementStatistics> movementStatistics =
+			new ConcurrentHashMap<String, ProductMovementStatistics>();
+
+	/**
+	 * Collects dispatch requests into batches to be dispatched jointly,
+	 * or {@code null} if batching is disabled.
+	 */
+	private final transient DispatchBatcher dispatchBatcher = DispatchBatcher.newInstance(
+			new DispatchBatcher.BatchHandler() {
+				@Override
+				public Map<Long, ProductAmountTO[]> dispatch(
+						final long enterpriseId,
+						final Map<Long, Collection<ProductAmountTO>> storeRequests
+						) {
+					return ProductDispatcherServer.this.__dispatchJointly(enterpriseId, storeRequests);
+				}
+			});
+
 	//
 
 	public ProductDispatcherServer() throws RemoteException {
 		super();
+
+		LOG.info("Using " + (this.useJavaSolver ? "in-process Java" : "AMPL/CPLEX") + " optimization solver");
 	}
 
 	/*
@@ -81,6 +208,12 @@ final class ProductDispatcherServer
 	public ProductAmountTO[] dispatchProductsFromOtherStores(
 			final long callingStoreId, final Collection<ProductAmountTO> requiredProducts
 			) throws RemoteException {
+		if (this.dispatchBatcher != null) {
+			return this.dispatchBatcher.dispatch(
+					this.__getEnterpriseId(callingStoreId), callingStoreId, requiredProducts
+					);
+		}
+
 		final IPersistenceContext pctx = this.persistence.getPersistenceContext();
 
 		try {
@@ -96,13 +229,17 @@ final class ProductDispatcherServer
 			final Collection<Store> stores = enterprise.getStores();
 			this.__flushStoreDatabases(stores, pctx);
 
+			final StoreDistanceMatrix distances = this.__getDistanceMatrix(enterprise, stores);
+
 			//
 			// Exclude the calling store from the set of stores and solve
 			// the optimization problem using ampl/cplex.
 			//
 			stores.remove(callingStore);
 			final Map<StoreTO, Collection<ProductAmountTO>> storeProductAmounts =
-					this.__solveStoreProductOrders(requiredProducts, stores, callingStore, pctx);
+					this.__solveStoreProductOrders(
+							requiredProducts, enterprise, stores, callingStore, distances, pctx
+							);
 
 			//
 			// Distributed action: issue product movement in stores determined
@@ -118,6 +255,104 @@ final class ProductDispatcherServer
 		}
 	}
 
+	/**
+	 * Returns the identifier of the enterprise owning the given store.
+	 */
+	private long __getEnterpriseId(final long storeId) {
+		final IPersistenceContext pctx = this.persistence.getPersistenceContext();
+
+		try {
+			return this.storeQuery.queryStoreById(storeId, pctx).getEnterprise().getId();
+
+		} finally {
+			pctx.close();
+		}
+	}
+
+	/**
+	 * Dispatches products to multiple stores of an enterprise at once. The
+	 * transport problem is solved jointly for all requesting stores, with
+	 * the stock of all stores of the enterprise available to every store
+	 * (except for products the store requested itself).
+	 * 
+	 * @param enterpriseId
+	 *            the enterprise owning the requesting stores
+	 * @param storeRequests
+	 *            products/amounts required by each store, keyed by store id
+	 * @return
+	 *         products/amounts made available to each store, keyed by store id
+	 */
+	private Map<Long, ProductAmountTO[]> __dispatchJointly(
+			final long enterpriseId, final Map<Long, Collection<ProductAmountTO>> storeRequests
+			) {
+		final IPersistenceContext pctx = this.persistence.getPersistenceContext();
+
+		try {
+			final TradingEnterprise enterprise =
+					this.enterpriseQuery.queryEnterpriseById(enterpriseId, pctx);
+
+			final Collection<Store> stores = enterprise.getStores();
+			this.__flushStoreDatabases(stores, pctx);
+
+			final StoreDistanceMatrix distances = this.__getDistanceMatrix(enterprise, stores);
+
+			//
+			// Query the stock of all required products in all stores
+			// and solve the joint transport problem.
+			//
+			final Collection<ProductAmountTO> requiredProductAmounts = new ArrayList<ProductAmountTO>();
+			for (final Collection<ProductAmountTO> productAmounts : storeRequests.values()) {
+				requiredProductAmounts.addAll(productAmounts);
+			}
+
+			final Map<Store, Collection<StockItem>> storeStockItems = this.__getOfferedStockItemsPerStore(
+					enterprise, stores, this.__getProductIds(requiredProductAmounts), pctx
+					);
+
+			final Map<Long, Map<StoreTO, Collection<ProductAmountTO>>> storeShipments;
+			this.solverPermits.acquireUninterruptibly();
+			try {
+				storeShipments = JointDispatchSolver.solve(
+						storeRequests, storeStockItems, distances
+						);
+
+			} finally {
+				this.solverPermits.release();
+			}
+
+			//
+			// Distributed action: issue product movements for all
+			// requesting stores at once, then wait for all of them
+			// until a common deadline.
+			//
+			final long deadline = System.currentTimeMillis() + this.movementTimeout;
+			final Map<Long, Map<ProductMovement, Future<Long>>> storeMovements =
+					new LinkedHashMap<Long, Map<ProductMovement, Future<Long>>>();
+
+			for (final Store store : stores) {
+				final Map<StoreTO, Collection<ProductAmountTO>> shipments =
+						storeShipments.get(store.getId());
+
+				if (shipments != null) {
+					storeMovements.put(store.getId(), this.__submitProductMovements(shipments, store));
+				}
+			}
+
+			final Map<Long, ProductAmountTO[]> result = new HashMap<Long, ProductAmountTO[]>();
+			for (final Entry<Long, Map<ProductMovement, Future<Long>>> entry : storeMovements.entrySet()) {
+				final Map<StoreTO, Collection<ProductAmountTO>> incomingProducts =
+						this.__awaitProductMovements(entry.getValue(), deadline);
+
+				result.put(entry.getKey(), this.__sumUpIncomingProducts(incomingProducts));
+			}
+
+			return result;
+
+		} finally {
+			pctx.close();
+		}
+	}
+
 	/**
 	 * Solves the optimization problem of finding from which store to order
 	 * required products. Returns a map of product amounts per store, which
@@ -126,17 +361,59 @@ final class ProductDispatcherServer
 	 */
 	private Map<StoreTO, Collection<ProductAmountTO>> __solveStoreProductOrders(
 			final Collection<ProductAmountTO> requiredProductAmounts,
-			final Collection<Store> stores, final Store callingStore,
+			final TradingEnterprise enterprise, final Collection<Store> stores,
+			final Store callingStore, final StoreDistanceMatrix distances,
 			final IPersistenceContext pctx
 			) {
-		final IOptimizationSolver solver = new AmplCplexSolver(pctx);
+		final IOptimizationSolver solver = this.__newSolver();
 		final long[] productIds = this.__getProductIds(requiredProductAmounts);
 
-		return solver.solveOptimization(
-				requiredProductAmounts,
-				this.__getOfferedStockItemsPerStore(stores, productIds, pctx),
-				this.__getStoreDistances(stores, callingStore.getLocation())
-				);
+		final Map<Store, Collection<StockItem>> storeStockItems =
+				this.__getOfferedStockItemsPerStore(enterprise, stores, productIds, pctx);
+		final Map<Store, Integer> storeDistances =
+				this.__getStoreDistances(stores, callingStore, distances);
+
+		if (this.anytimeSolver != null) {
+			// the anytime solver acquires a permit for the exact solver itself
+			return solver.solveOptimization(
+					requiredProductAmounts, storeStockItems, storeDistances
+					);
+		}
+
+		this.solverPermits.acquireUninterruptibly();
+		try {
+			return solver.solveOptimization(
+					requiredProductAmounts, storeStockItems, storeDistances
+					);
+
+		} finally {
+			this.solverPermits.release();
+		}
+	}
+
+	/**
+	 * Creates the optimization solver selected by the {@link #SOLVER_PROPERTY}
+	 * system property. The solver reuses cached solutions if caching is enabled.
+	 * If the solve deadline is set, a heuristic plan is returned whenever the
+	 * solver fails to find a better plan in time. The Java solver then solves
+	 * all problems exactly, because it is no longer needed to limit its size.
+	 * The solvers do not use the persistence context of the request, because
+	 * the anytime solver may leave them running after the request completes.
+	 */
+	private IOptimizationSolver __newSolver() {
+		final IOptimizationSolver solver;
+		if (this.useJavaSolver) {
+			solver = (this.anytimeSolver != null) ?
+					new JavaOptimizationSolver(Integer.MAX_VALUE) : new JavaOptimizationSolver();
+		} else {
+			solver = new AmplCplexSolver();
+		}
+
+		final IOptimizationSolver cachingSolver = (this.solutionCache != null) ?
+				new CachingOptimizationSolver(solver, this.solutionCache) : solver;
+
+		return (this.anytimeSolver != null) ?
+				this.anytimeSolver.withExactSolver(cachingSolver, this.solverPermits) : cachingSolver;
 	}
 
 	/**
@@ -175,71 +452,308 @@ final class ProductDispatcherServer
 	 * Issues orders for the given products to be transferred to the calling
 	 * store. This makes the products unavailable in stock at the supplying
 	 * stores. Makes distributed calls at all store servers whose stores have to
-	 * deliver products.
+	 * deliver products. The calls are made concurrently, and calls not
+	 * completed within the movement timeout are abandoned.
+	 * <p>
+	 * A store server may still complete an abandoned call, in which case the
+	 * products are marked unavailable, but never delivered. Such movements
+	 * are reverted as soon as the call completes. The latency and outcome of
+	 * the calls is exposed via JMX for each supplying store.
 	 * 
 	 * @param storeProductAmounts
 	 *            products/amounts that have to be delivered
 	 * @param destinationStore
 	 *            the store to deliver the products to (the calling store)
 	 * @return
-	 *         list of entries for stores where product movement failed
+	 *         list of entries for stores where product movement succeeded
 	 */
 	private Map<StoreTO, Collection<ProductAmountTO>> __issueProductMovements(
 			final Map<StoreTO, Collection<ProductAmountTO>> storeProductAmounts,
 			final Store destinationStore
 			) {
-		final Map<StoreTO, Collection<ProductAmountTO>> result = Maps.newHashMap();
+		final long deadline = System.currentTimeMillis() + this.movementTimeout;
+		return this.__awaitProductMovements(
+				this.__submitProductMovements(storeProductAmounts, destinationStore), deadline
+				);
+	}
+
+	/**
+	 * Submits the product movements to the given destination store for
+	 * concurrent execution, without waiting for them to complete.
+	 * 
+	 * @return the submitted movements, with the pending results
+	 */
+	private Map<ProductMovement, Future<Long>> __submitProductMovements(
+			final Map<StoreTO, Collection<ProductAmountTO>> storeProductAmounts,
+			final Store destinationStore
+			) {
 		final StoreTO destinationStoreTO = FillTransferObjects.fillStoreTO(destinationStore);
 
+		final Map<ProductMovement, Future<Long>> result = new LinkedHashMap<ProductMovement, Future<Long>>();
 		for (final Entry<StoreTO, Collection<ProductAmountTO>> storeEntry : storeProductAmounts.entrySet()) {
-			final StoreTO originStoreTO = storeEntry.getKey();
-			final Collection<ProductAmountTO> productAmounts = storeEntry.getValue();
+			final ProductMovement movement = new ProductMovement(this.__createProductMovement(
+					storeEntry.getValue(), storeEntry.getKey(), destinationStoreTO
+					));
 
-			final boolean movementIssued = this.__issueProductMovement(
-					productAmounts, originStoreTO, destinationStoreTO
-					);
+			result.put(movement, this.movementExecutor.submit(movement));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Collects the results of the given product movements to a single
+	 * destination store, waiting at most until the given deadline, and
+	 * abandons the movements not completed by then.
+	 * 
+	 * @return
+	 *         list of entries for stores where product movement succeeded
+	 */
+	private Map<StoreTO, Collection<ProductAmountTO>> __awaitProductMovements(
+			final Map<ProductMovement, Future<Long>> movements, final long deadline
+			) {
+		final Map<StoreTO, Collection<ProductAmountTO>> result = Maps.newHashMap();
+		if (movements.isEmpty()) {
+			return result;
+		}
 
-			if (movementIssued) {
-				result.put(originStoreTO, productAmounts);
+		final StoreTO destinationStoreTO =
+				movements.keySet().iterator().next().movedProducts.getDestinationStore();
+
+		final List<String> failures = new ArrayList<String>();
+		for (final Entry<ProductMovement, Future<Long>> entry : movements.entrySet()) {
+			final ProductMovement movement = entry.getKey();
+			final StoreTO originStoreTO = movement.movedProducts.getOriginStore();
+			final Future<Long> future = entry.getValue();
+
+			try {
+				final long latency = this.__awaitProductMovement(movement, future, deadline);
+				if (latency >= 0) {
+					result.put(originStoreTO, movement.movedProducts.getProductAmounts());
+					LOG.debug(String.format(
+							"Products marked for transfer from store %s to store %s in %d ms",
+							originStoreTO.getName(), destinationStoreTO.getName(), latency
+							));
+
+				} else {
+					failures.add(String.format(
+							"%s (timed out after %d ms)", originStoreTO.getName(), this.movementTimeout
+							));
+				}
+
+			} catch (final ExecutionException ee) {
+				failures.add(String.format(
+						"%s (%s)", originStoreTO.getName(), ee.getCause().getMessage()
+						));
 			}
 		}
 
+		if (!failures.isEmpty()) {
+			LOG.warn(String.format(
+					"Error marking products for transfer to store %s from stores: %s",
+					destinationStoreTO.getName(), failures
+					));
+		}
+
+		LOG.debug(String.format(
+				"Issued %d of %d product movements to store %s in %d ms",
+				result.size(), movements.size(), destinationStoreTO.getName(),
+				System.currentTimeMillis() - (deadline - this.movementTimeout)
+				));
+
 		return result;
 	}
 
 	/**
-	 * Issues product movement order for products in a single store.
+	 * Waits for the given product movement to complete until the given
+	 * deadline, and abandons the movement if it does not complete in time.
+	 * If the movement completes while being abandoned, it is considered
+	 * successful.
 	 * 
-	 * @returns
-	 *          {@code true} if the movement was successfully issued, {@code false} otherwise
+	 * @return latency (in milliseconds) of the movement, or -1 if the
+	 *         movement has been abandoned
+	 * @throws ExecutionException
+	 *             if the movement failed
 	 */
-	private boolean __issueProductMovement(
-			final Collection<ProductAmountTO> productAmounts,
-			final StoreTO originStore, final StoreTO destinationStore
-			) {
+	private long __awaitProductMovement(
+			final ProductMovement movement, final Future<Long> future, final long deadline
+			) throws ExecutionException {
+		boolean interrupted = false;
 		try {
+			try {
+				return future.get(
+						Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS
+						);
+
+			} catch (final TimeoutException te) {
+				// abandon below
+
+			} catch (final InterruptedException ie) {
+				interrupted = true;
+			}
+
+			if (movement.abandon()) {
+				movement.statistics.recordTimeout();
+				return -1;
+			}
+
 			//
-			// Connect to the store, create a description of the product
-			// movement and mark the required products as unavailable.
+			// The movement completed in the meantime, so its result
+			// is going to be available shortly.
 			//
-			final IStoreInventoryManager sourceStore = ApplicationHelper.getComponent(
-					Names.getStoreRemoteName(originStore.getName()), IStoreInventoryManager.class
-					);
+			while (true) {
+				try {
+					return future.get();
+
+				} catch (final InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Issues a product movement in the origin store. The task returns the
+	 * latency (in milliseconds) of the remote call. If the dispatcher
+	 * abandons the movement before the remote call completes, the movement
+	 * is reverted in the origin store after the call completes.
+	 */
+	private final class ProductMovement implements Callable<Long> {
+		final ProductMovementTO movedProducts;
 
-			final ProductMovementTO movedProducts = this.__createProductMovement(
-					productAmounts, originStore, destinationStore
+		final ProductMovementStatistics statistics;
+
+		private boolean completed;
+
+		private boolean abandoned;
+
+		ProductMovement(final ProductMovementTO movedProducts) {
+			this.movedProducts = movedProducts;
+			this.statistics = ProductDispatcherServer.this.__getMovementStatistics(
+					movedProducts.getOriginStore().getName()
 					);
+		}
+
+		@Override
+		public Long call() throws Exception {
+			synchronized (this) {
+				if (this.abandoned) {
+					// abandoned before started, nothing to revert
+					return -1L;
+				}
+			}
+
+			//
+			// Connect to the store and mark the required
+			// products as unavailable.
+			//
+			final long startTime = System.currentTimeMillis();
+
+			final IStoreInventoryManager sourceStore;
+			try {
+				sourceStore = ApplicationHelper.getComponent(
+						Names.getStoreRemoteName(this.movedProducts.getOriginStore().getName()),
+						IStoreInventoryManager.class
+						);
+
+				sourceStore.markProductsUnavailableInStock(this.movedProducts);
+
+			} catch (final Exception e) {
+				this.statistics.recordFailure();
+				throw e;
+			}
 
-			sourceStore.markProductsUnavailableInStock(movedProducts);
+			final long latency = System.currentTimeMillis() - startTime;
+			this.statistics.recordLatency(latency);
+
+			if (!this.complete()) {
+				this.revert(sourceStore, latency);
+			}
+
+			return latency;
+		}
+
+		/**
+		 * Marks the movement as completed, unless it has been abandoned.
+		 * 
+		 * @return {@code true} if the movement was marked completed,
+		 *         {@code false} if it has been abandoned
+		 */
+		private synchronized boolean complete() {
+			if (this.abandoned) {
+				return false;
+			}
+
+			this.completed = true;
 			return true;
+		}
 
-		} catch (final Exception e) {
-			LOG.warn(String.format(
-					"Error marking products for transfer from store %s to store %s: %s",
-					originStore.getName(), destinationStore.getName(), e.getMessage()
-					));
-			return false;
+		/**
+		 * Marks the movement as abandoned, unless it has completed.
+		 * 
+		 * @return {@code true} if the movement was marked abandoned,
+		 *         {@code false} if it has completed
+		 */
+		synchronized boolean abandon() {
+			if (this.completed) {
+				return false;
+			}
+
+			this.abandoned = true;
+			return true;
+		}
+
+		private void revert(final IStoreInventoryManager sourceStore, final long latency) {
+			final StoreTO originStore = this.movedProducts.getOriginStore();
+			final StoreTO destinationStore = this.movedProducts.getDestinationStore();
+
+			try {
+				sourceStore.markProductsAvailableInStock(this.movedProducts);
+				this.statistics.recordCompensation();
+				LOG.warn(String.format(
+						"Reverted transfer of products from store %s to store %s completed after %d ms",
+						originStore.getName(), destinationStore.getName(), latency
+						));
+
+			} catch (final Exception e) {
+				this.statistics.recordCompensationFailure();
+				LOG.error(String.format(
+						"Failed to revert transfer of products from store %s to store %s, products lost: %s",
+						originStore.getName(), destinationStore.getName(),
+						this.movedProducts.getProductAmounts()
+						), e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the product movement statistics for the given supplying
+	 * store, creating and registering them with the platform MBean server
+	 * if necessary.
+	 */
+	private ProductMovementStatistics __getMovementStatistics(final String storeName) {
+		final ProductMovementStatistics existing = this.movementStatistics.get(storeName);
+		if (existing != null) {
+			return existing;
 		}
+
+		final ProductMovementStatistics created = new ProductMovementStatistics();
+		final ProductMovementStatistics previous = this.movementStatistics.putIfAbsent(storeName, created);
+		if (previous != null) {
+			return previous;
+		}
+
+		ApplicationHelper.registerMBean(
+				created, ProductMovementStatisticsMBean.class,
+				"org.cocome.tradingsystem:type=ProductMovements,store=" + ObjectName.quote(storeName)
+				);
+
+		return created;
 	}
 
 	/**
@@ -281,8 +795,11 @@ final class ProductDispatcherServer
 
 	/**
 	 * Determines the available products for every store from the list of stores.
-	 * s
+	 * The stock of all stores in the enterprise is retrieved at once, and the
+	 * stock items are then distributed among the stores of interest.
 	 * 
+	 * @param enterprise
+	 *            the enterprise owning the stores
 	 * @param stores
 	 *            the stores to look up
 	 * @param productIds
@@ -293,55 +810,96 @@ final class ProductDispatcherServer
 	 *         A {@link Map} containing the available StockItems per Store.
 	 */
 	private Map<Store, Collection<StockItem>> __getOfferedStockItemsPerStore(
-			final Collection<Store> stores, final long[] productIds,
-			final IPersistenceContext pctx
+			final TradingEnterprise enterprise, final Collection<Store> stores,
+			final long[] productIds, final IPersistenceContext pctx
 			) {
 		final Map<Store, Collection<StockItem>> result =
 				new HashMap<Store, Collection<StockItem>>();
 
-		for (final Store store : stores) {
-			final Collection<StockItem> stockItems = this.storeQuery.queryStockItemsByProductId(
-					store.getId(), productIds, pctx
-					);
+		final Map<Long, Collection<StockItem>> storeIdStockItems =
+				new HashMap<Long, Collection<StockItem>>();
 
+		for (final Store store : stores) {
+			final Collection<StockItem> stockItems = new ArrayList<StockItem>();
 			result.put(store, stockItems);
+			storeIdStockItems.put(store.getId(), stockItems);
+		}
+
+		final Collection<StockItem> enterpriseStockItems =
+				this.storeQuery.queryEnterpriseStockItemsByProductId(
+						enterprise.getId(), productIds, pctx
+						);
+
+		for (final StockItem stockItem : enterpriseStockItems) {
+			final Collection<StockItem> stockItems =
+					storeIdStockItems.get(stockItem.getStore().getId());
+
+			// skip stock items of stores not of interest (the calling store)
+			if (stockItems != null) {
+				stockItems.add(stockItem);
+			}
 		}
 
 		return result;
 	}
 
 	/**
-	 * Simple test for geographical adjacency: the location strings of each store
-	 * are compared to the calling stores location using "compareTo".
+	 * Returns the distance matrix for the given stores of the given
+	 * enterprise. The matrix is computed when first needed and recomputed
+	 * whenever the stores of the enterprise change.
+	 */
+	private StoreDistanceMatrix __getDistanceMatrix(
+			final TradingEnterprise enterprise, final Collection<Store> stores
+			) {
+		final StoreDistanceMatrix cached = this.distanceMatrices.get(enterprise.getId());
+		if (cached != null && cached.isCurrent(stores)) {
+			return cached;
+		}
+
+		final StoreDistanceMatrix result = StoreDistanceMatrix.newInstance(stores);
+		this.distanceMatrices.put(enterprise.getId(), result);
+
+		LOG.debug(String.format(
+				"Computed distance matrix for %d stores of enterprise %s",
+				result.storeCount(), enterprise.getName()
+				));
+
+		if (!result.isGeographic()) {
+			LOG.warn(String.format(
+					"Some stores of enterprise %s have no coordinates, " +
+							"using location name distances for all stores",
+					enterprise.getName()
+					));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the distances of the given stores to the calling store,
+	 * taken from the precomputed distance matrix.
 	 * 
 	 * @param stores
 	 *            all stores possibly in the region
-	 * @param destinationLocation
-	 *            the location of the store to check adjacency for
+	 * @param destinationStore
+	 *            the store to determine the distances to
+	 * @param distances
+	 *            the distance matrix of the enterprise
 	 * @return
 	 *         a map of stores and their distance to the calling store
 	 */
 	private Map<Store, Integer> __getStoreDistances(
-			final Collection<Store> stores, final String destinationLocation
+			final Collection<Store> stores, final Store destinationStore,
+			final StoreDistanceMatrix distances
 			) {
 		final Map<Store, Integer> result = new HashMap<Store, Integer>();
 
+		final int destination = distances.ordinal(destinationStore.getId());
 		for (final Store store : stores) {
-			final String location = store.getLocation();
-			result.put(store, this.__getStoreDistance(location, destinationLocation));
+			result.put(store, distances.distance(distances.ordinal(store.getId()), destination));
 		}
 
 		return result;
 	}
 
-	/**
-	 * Returns the distance between two stores.
-	 */
-	private int __getStoreDistance(
-			final String originLocation, final String destinationLocation
-			) {
-		// currently simply abs (compareTo):
-		return Math.abs(destinationLocation.compareTo(originLocation));
-	}
-
 }
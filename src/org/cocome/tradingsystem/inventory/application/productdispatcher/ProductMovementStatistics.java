@@ -0,0 +1,114 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the latency and the outcome of product movements issued in a
+ * single supplying store.
+ */
+final class ProductMovementStatistics implements ProductMovementStatisticsMBean {
+
+	private final AtomicLong __movementCount = new AtomicLong();
+
+	private final AtomicLong __failureCount = new AtomicLong();
+
+	private final AtomicLong __timeoutCount = new AtomicLong();
+
+	private final AtomicLong __compensationCount = new AtomicLong();
+
+	private final AtomicLong __compensationFailureCount = new AtomicLong();
+
+	private final AtomicLong __totalLatencyMillis = new AtomicLong();
+
+	private volatile long __lastLatencyMillis;
+
+	private volatile long __maxLatencyMillis;
+
+	//
+
+	void recordLatency(final long latencyMillis) {
+		__movementCount.incrementAndGet();
+		__totalLatencyMillis.addAndGet(latencyMillis);
+
+		__lastLatencyMillis = latencyMillis;
+		__maxLatencyMillis = Math.max(__maxLatencyMillis, latencyMillis);
+	}
+
+	void recordFailure() {
+		__failureCount.incrementAndGet();
+	}
+
+	void recordTimeout() {
+		__timeoutCount.incrementAndGet();
+	}
+
+	void recordCompensation() {
+		__compensationCount.incrementAndGet();
+	}
+
+	void recordCompensationFailure() {
+		__compensationFailureCount.incrementAndGet();
+	}
+
+	//
+	// ProductMovementStatisticsMBean
+	//
+
+	@Override
+	public long getMovementCount() {
+		return __movementCount.get();
+	}
+
+	@Override
+	public long getFailureCount() {
+		return __failureCount.get();
+	}
+
+	@Override
+	public long getTimeoutCount() {
+		return __timeoutCount.get();
+	}
+
+	@Override
+	public long getCompensationCount() {
+		return __compensationCount.get();
+	}
+
+	@Override
+	public long getCompensationFailureCount() {
+		return __compensationFailureCount.get();
+	}
+
+	@Override
+	public long getLastLatencyMillis() {
+		return __lastLatencyMillis;
+	}
+
+	@Override
+	public double getAverageLatencyMillis() {
+		final long count = __movementCount.get();
+		return (count > 0) ? (double) __totalLatencyMillis.get() / count : 0.0;
+	}
+
+	@Override
+	public long getMaxLatencyMillis() {
+		return __maxLatencyMillis;
+	}
+
+}
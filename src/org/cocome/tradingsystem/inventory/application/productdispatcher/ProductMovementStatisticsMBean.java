@@ -0,0 +1,70 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+/**
+ * Management interface of the {@link ProductMovementStatistics}. Exposes the
+ * latency and the outcome of product movements issued in a single supplying
+ * store via JMX.
+ */
+public interface ProductMovementStatisticsMBean {
+
+	/**
+	 * @return number of product movements issued in the store
+	 */
+	long getMovementCount();
+
+	/**
+	 * @return number of product movements the store failed to issue
+	 */
+	long getFailureCount();
+
+	/**
+	 * @return number of product movements the dispatcher stopped waiting
+	 *         for, because they did not complete within the movement timeout
+	 */
+	long getTimeoutCount();
+
+	/**
+	 * @return number of product movements which completed after the
+	 *         dispatcher stopped waiting for them, and were reverted
+	 */
+	long getCompensationCount();
+
+	/**
+	 * @return number of late product movements which could not be reverted,
+	 *         so that the moved products are neither in the store nor on the
+	 *         way to the destination store
+	 */
+	long getCompensationFailureCount();
+
+	/**
+	 * @return latency (in milliseconds) of the last completed movement
+	 */
+	long getLastLatencyMillis();
+
+	/**
+	 * @return average latency (in milliseconds) of completed movements
+	 */
+	double getAverageLatencyMillis();
+
+	/**
+	 * @return maximal latency (in milliseconds) of completed movements
+	 */
+	long getMaxLatencyMillis();
+
+}
@@ -0,0 +1,194 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cocome.tradingsystem.util.ApplicationHelper;
+
+/**
+ * Bounded cache of dispatch solutions with least-recently-used eviction.
+ * The cache maps problem fingerprints to solutions, and keeps track of
+ * the number of cache hits and misses. The fingerprints and solutions are
+ * opaque to the cache.
+ * 
+ * @see CachingOptimizationSolver
+ */
+final class SolutionCache<K, V> implements SolutionCacheMBean {
+
+	/**
+	 * Name of the system property specifying the maximal number of cached
+	 * solutions. Caching is disabled if the capacity is zero.
+	 */
+	static final String CAPACITY_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.productdispatcher.SolutionCacheSize";
+
+	private static final int __DEFAULT_CAPACITY__ = 256;
+
+	//
+
+	private final int __capacity;
+
+	private final Map<K, V> __solutions;
+
+	//
+
+	private final AtomicLong __hitCount = new AtomicLong();
+
+	private final AtomicLong __missCount = new AtomicLong();
+
+	private final AtomicLong __staleCount = new AtomicLong();
+
+	private final AtomicLong __evictionCount = new AtomicLong();
+
+	//
+
+	private SolutionCache(final int capacity) {
+		__capacity = capacity;
+		__solutions = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+				final boolean result = size() > __capacity;
+				if (result) {
+					__evictionCount.incrementAndGet();
+				}
+
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Creates a new solution cache if caching is enabled by the
+	 * {@link #CAPACITY_PROPERTY} system property, and registers it with
+	 * the platform MBean server.
+	 * 
+	 * @return
+	 *         new solution cache, or {@code null} if caching is disabled
+	 */
+	static <K, V> SolutionCache<K, V> newInstance() {
+		final long capacity = ApplicationHelper.getLongProperty(
+				CAPACITY_PROPERTY, __DEFAULT_CAPACITY__
+				);
+
+		if (capacity <= 0) {
+			return null;
+		}
+
+		final SolutionCache<K, V> result = new SolutionCache<K, V>(
+				(int) Math.min(capacity, Integer.MAX_VALUE)
+				);
+
+		ApplicationHelper.registerMBean(
+				result, SolutionCacheMBean.class,
+				"org.cocome.tradingsystem:type=SolutionCache"
+				);
+
+		return result;
+	}
+
+	//
+
+	/**
+	 * Returns the solution cached for the given fingerprint, or {@code null}
+	 * if there is no such solution. Does not update the hit/miss counters.
+	 */
+	V get(final K fingerprint) {
+		synchronized (__solutions) {
+			return __solutions.get(fingerprint);
+		}
+	}
+
+	void put(final K fingerprint, final V solution) {
+		synchronized (__solutions) {
+			__solutions.put(fingerprint, solution);
+		}
+	}
+
+	/**
+	 * Removes a solution which is no longer feasible from the cache.
+	 */
+	void removeStale(final K fingerprint) {
+		__staleCount.incrementAndGet();
+		synchronized (__solutions) {
+			__solutions.remove(fingerprint);
+		}
+	}
+
+	void recordHit() {
+		__hitCount.incrementAndGet();
+	}
+
+	void recordMiss() {
+		__missCount.incrementAndGet();
+	}
+
+	//
+	// SolutionCacheMBean
+	//
+
+	@Override
+	public int getCapacity() {
+		return __capacity;
+	}
+
+	@Override
+	public int getSize() {
+		synchronized (__solutions) {
+			return __solutions.size();
+		}
+	}
+
+	@Override
+	public long getHitCount() {
+		return __hitCount.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return __missCount.get();
+	}
+
+	@Override
+	public long getStaleCount() {
+		return __staleCount.get();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return __evictionCount.get();
+	}
+
+	@Override
+	public double getHitRatePercent() {
+		final long hits = __hitCount.get();
+		final long lookups = hits + __missCount.get();
+		return (lookups > 0) ? 100.0 * hits / lookups : 0;
+	}
+
+	@Override
+	public void clear() {
+		synchronized (__solutions) {
+			__solutions.clear();
+		}
+	}
+
+}
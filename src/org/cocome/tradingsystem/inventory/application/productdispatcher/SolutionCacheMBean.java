@@ -0,0 +1,65 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+/**
+ * Management interface of the {@link SolutionCache}. Exposes the
+ * effectiveness of reusing dispatch solutions via JMX.
+ */
+public interface SolutionCacheMBean {
+
+	/**
+	 * @return maximal number of solutions kept in the cache
+	 */
+	int getCapacity();
+
+	/**
+	 * @return number of solutions currently in the cache
+	 */
+	int getSize();
+
+	/**
+	 * @return number of problems solved by reusing a cached solution
+	 */
+	long getHitCount();
+
+	/**
+	 * @return number of problems without a cached solution
+	 */
+	long getMissCount();
+
+	/**
+	 * @return number of cached solutions found to be no longer feasible
+	 */
+	long getStaleCount();
+
+	/**
+	 * @return number of solutions evicted from the cache
+	 */
+	long getEvictionCount();
+
+	/**
+	 * @return percentage of problems solved by reusing a cached solution
+	 */
+	double getHitRatePercent();
+
+	/**
+	 * Removes all solutions from the cache.
+	 */
+	void clear();
+
+}
@@ -0,0 +1,236 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.productdispatcher;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import org.cocome.tradingsystem.inventory.data.store.Store;
+import org.cocome.tradingsystem.util.java.LongIntMap;
+
+/**
+ * Precomputed symmetric matrix of distances between the stores of an
+ * enterprise. Stores are assigned dense ordinals (in the order of increasing
+ * identifiers) which index the matrix.
+ * <p>
+ * If all stores have known coordinates, the distance between stores is the
+ * great-circle distance in kilometers. If any of the stores lacks
+ * coordinates, the matrix falls back to the original distance derived from
+ * comparing the location strings for all stores, because the two metrics
+ * use unrelated units and cannot be mixed.
+ * <p>
+ * Instances of this class are immutable and thread-safe.
+ */
+final class StoreDistanceMatrix {
+
+	private static final double __EARTH_RADIUS_KM__ = 6371.0;
+
+	//
+
+	private final long[] __storeIds;
+
+	private final LongIntMap __ordinals;
+
+	/** Distances, indexed [ordinal * storeCount + ordinal]. */
+	private final int[] __distances;
+
+	/** Whether the distances are great-circle distances. */
+	private final boolean __geographic;
+
+	/** Fingerprint of the store attributes the distances depend on. */
+	private final long __fingerprint;
+
+	//
+
+	private StoreDistanceMatrix(
+			final long[] storeIds, final LongIntMap ordinals,
+			final int[] distances, final boolean geographic,
+			final long fingerprint
+			) {
+		__storeIds = storeIds;
+		__ordinals = ordinals;
+		__distances = distances;
+		__geographic = geographic;
+		__fingerprint = fingerprint;
+	}
+
+	/**
+	 * Computes the distance matrix for the given stores.
+	 */
+	static StoreDistanceMatrix newInstance(final Collection<Store> stores) {
+		final Store[] sortedStores = stores.toArray(new Store[stores.size()]);
+		Arrays.sort(sortedStores, new Comparator<Store>() {
+			@Override
+			public int compare(final Store first, final Store second) {
+				return (first.getId() < second.getId()) ? -1 : ((first.getId() == second.getId()) ? 0 : 1);
+			}
+		});
+
+		final int count = sortedStores.length;
+		final long[] storeIds = new long[count];
+		final LongIntMap ordinals = new LongIntMap(count);
+		boolean geographic = true;
+		for (int ordinal = 0; ordinal < count; ordinal++) {
+			storeIds[ordinal] = sortedStores[ordinal].getId();
+			ordinals.put(storeIds[ordinal], ordinal);
+			geographic &= __hasCoordinates(sortedStores[ordinal]);
+		}
+
+		final int[] distances = new int[count * count];
+		for (int first = 0; first < count; first++) {
+			for (int second = first + 1; second < count; second++) {
+				final int distance = geographic
+						? __geographicDistance(sortedStores[first], sortedStores[second])
+						: __locationDistance(sortedStores[first], sortedStores[second]);
+				distances[first * count + second] = distance;
+				distances[second * count + first] = distance;
+			}
+		}
+
+		return new StoreDistanceMatrix(
+				storeIds, ordinals, distances, geographic, fingerprint(stores)
+				);
+	}
+
+	//
+
+	/**
+	 * Returns a fingerprint of the given stores, which changes whenever a
+	 * store is added or removed, or when the location or the coordinates of
+	 * a store change. The location strings are needed when some store lacks
+	 * coordinates. The fingerprint does not depend on the order of the
+	 * stores.
+	 */
+	static long fingerprint(final Collection<Store> stores) {
+		long result = stores.size();
+		for (final Store store : stores) {
+			final String location = store.getLocation();
+
+			long hash = store.getId();
+			hash = 31 * hash + ((location != null) ? location.hashCode() : 0);
+			hash = 31 * hash + __bits(store.getLatitude());
+			hash = 31 * hash + __bits(store.getLongitude());
+
+			// mix the bits so that the sum does not cancel out changes
+			hash *= 0x9E3779B97F4A7C15L;
+			result += hash ^ (hash >>> 32);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Determines whether the matrix has been computed for the given stores.
+	 */
+	boolean isCurrent(final Collection<Store> stores) {
+		return fingerprint(stores) == __fingerprint;
+	}
+
+	//
+
+	/**
+	 * Determines whether the distances are great-circle distances, i.e.,
+	 * whether all stores have known coordinates.
+	 */
+	boolean isGeographic() {
+		return __geographic;
+	}
+
+	int storeCount() {
+		return __storeIds.length;
+	}
+
+	/**
+	 * Returns the ordinal of the given store, or -1 if the store is unknown.
+	 */
+	int ordinal(final long storeId) {
+		return __ordinals.get(storeId, -1);
+	}
+
+	long storeId(final int ordinal) {
+		return __storeIds[ordinal];
+	}
+
+	/**
+	 * Returns the distance between stores with the given ordinals.
+	 */
+	int distance(final int firstOrdinal, final int secondOrdinal) {
+		return __distances[firstOrdinal * __storeIds.length + secondOrdinal];
+	}
+
+	/**
+	 * Returns the distance between the given stores.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any of the stores is not in the matrix
+	 */
+	int distance(final Store first, final Store second) {
+		return distance(__checkedOrdinal(first), __checkedOrdinal(second));
+	}
+
+	private int __checkedOrdinal(final Store store) {
+		final int result = ordinal(store.getId());
+		if (result < 0) {
+			throw new IllegalArgumentException("Unknown store " + store.getId());
+		}
+
+		return result;
+	}
+
+	//
+
+	private static boolean __hasCoordinates(final Store store) {
+		return store.getLatitude() != null && store.getLongitude() != null;
+	}
+
+	private static int __geographicDistance(final Store first, final Store second) {
+		return (int) Math.round(__greatCircleDistance(
+				first.getLatitude(), first.getLongitude(),
+				second.getLatitude(), second.getLongitude()
+				));
+	}
+
+	private static int __locationDistance(final Store first, final Store second) {
+		// the original distance, not really a distance
+		return Math.abs(first.getLocation().compareTo(second.getLocation()));
+	}
+
+	/**
+	 * Returns the great-circle distance (in kilometers) between two points
+	 * given by latitude and longitude in degrees, using the haversine formula.
+	 */
+	private static double __greatCircleDistance(
+			final double firstLatitude, final double firstLongitude,
+			final double secondLatitude, final double secondLongitude
+			) {
+		final double latitudeDelta = Math.toRadians(secondLatitude - firstLatitude);
+		final double longitudeDelta = Math.toRadians(secondLongitude - firstLongitude);
+
+		final double sinLatitude = Math.sin(latitudeDelta / 2);
+		final double sinLongitude = Math.sin(longitudeDelta / 2);
+		final double a = sinLatitude * sinLatitude + Math.cos(Math.toRadians(firstLatitude))
+				* Math.cos(Math.toRadians(secondLatitude)) * sinLongitude * sinLongitude;
+
+		return 2 * __EARTH_RADIUS_KM__ * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	private static long __bits(final Double value) {
+		return (value != null) ? Double.doubleToLongBits(value) : 0;
+	}
+
+}
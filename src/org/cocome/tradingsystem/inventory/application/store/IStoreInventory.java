@@ -47,4 +47,22 @@ public interface IStoreInventory extends Remote {
 			long productBarcode
 			) throws NoSuchProductException, RemoteException;
 
+	/**
+	 * Determine products and corresponding store stock items for multiple
+	 * product barcodes at once. Used for realization of UC 1 when many items
+	 * are scanned at once, e.g. a whole tray of items or a pre-packed kit.
+	 * 
+	 * @param productBarcodes
+	 *            the product barcodes
+	 * @return
+	 *         An instance of {@link ProductWithStockItemLookupTO} transfer
+	 *         object containing the products and stock items corresponding
+	 *         to the given barcodes (in the order of the barcodes), and the
+	 *         barcodes for which there is no product (or a stock item for
+	 *         product) in the store.
+	 */
+	ProductWithStockItemLookupTO getProductsWithStockItems(
+			long[] productBarcodes
+			) throws RemoteException;
+
 }
@@ -156,6 +156,24 @@ public interface IStoreInventoryManager extends Remote {
 			ProductMovementTO movedProductAmounts
 			) throws RemoteException, ProductNotAvailableException;
 
+	/**
+	 * Reverts a product movement previously initiated by
+	 * {@link #markProductsUnavailableInStock(ProductMovementTO)}, i.e., puts
+	 * the moved products back into the local stock. Used by the product
+	 * dispatcher to compensate movements that completed after the dispatcher
+	 * stopped waiting for them, and which will therefore never be received
+	 * by the destination store.
+	 * <p>
+	 * Method required for UC 8 (product exchange (on low stock) among stores).
+	 * 
+	 * @param movedProductAmounts
+	 *            products and their amounts that were to be moved to another
+	 *            store
+	 */
+	void markProductsAvailableInStock(
+			ProductMovementTO movedProductAmounts
+			) throws RemoteException;
+
 	/**
 	 * Returns the stock for the given products.
 	 * <p>
@@ -0,0 +1,88 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.cocome.tradingsystem.util.java.Lists;
+
+/**
+ * A transfer object class for exchanging the result of looking up multiple
+ * products by barcode between client and the service-oriented application
+ * layer. It contains the products (along with their stock items) found for
+ * the barcodes, and the barcodes for which no product was found.
+ */
+public final class ProductWithStockItemLookupTO implements Serializable {
+
+	private static final long serialVersionUID = -4211939245366128327L;
+
+	//
+
+	private List<ProductWithStockItemTO> __productWithStockItems = Collections.emptyList();
+
+	private long[] __unknownBarcodes = new long[0];
+
+	//
+
+	/**
+	 * Gets list of products (along with their stock items) found for the
+	 * looked up barcodes, in the order of the barcodes.
+	 * 
+	 * @return
+	 *         List of products with stock items.
+	 */
+	public List<ProductWithStockItemTO> getProductWithStockItemTOs() {
+		return new ArrayList<ProductWithStockItemTO>(__productWithStockItems);
+	}
+
+	/**
+	 * Sets list of products (along with their stock items) found for the
+	 * looked up barcodes.
+	 * 
+	 * @param productWithStockItems
+	 *            the list of products with stock items
+	 */
+	public void setProductWithStockItemTOs(final List<ProductWithStockItemTO> productWithStockItems) {
+		__productWithStockItems = Lists.newArrayList(productWithStockItems);
+	}
+
+	/**
+	 * Gets the looked up barcodes for which there is no product (or a stock
+	 * item for product) in the store.
+	 * 
+	 * @return
+	 *         Array of unknown barcodes.
+	 */
+	public long[] getUnknownBarcodes() {
+		return __unknownBarcodes.clone();
+	}
+
+	/**
+	 * Sets the looked up barcodes for which there is no product (or a stock
+	 * item for product) in the store.
+	 * 
+	 * @param unknownBarcodes
+	 *            the array of unknown barcodes
+	 */
+	public void setUnknownBarcodes(final long[] unknownBarcodes) {
+		__unknownBarcodes = unknownBarcodes.clone();
+	}
+
+}
@@ -0,0 +1,303 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.util.ApplicationHelper;
+
+/**
+ * Periodically performs low-stock checks of a store in a background thread.
+ * A check is only performed if it has been requested since the last check,
+ * which means that multiple requests made between two consecutive checks are
+ * coalesced into a single check. Failed checks are retried a few times,
+ * with the delay doubling after each retry. Checks which could not obtain
+ * all the required items are not retried; the next sale of a low-stock item
+ * requests another check anyway.
+ */
+final class ReplenishmentScheduler implements ReplenishmentSchedulerMBean {
+
+	private static final Logger __log__ = Logger.getLogger(ReplenishmentScheduler.class);
+
+	/**
+	 * Name of the system property specifying the period (in milliseconds)
+	 * between consecutive low-stock checks.
+	 */
+	static final String PERIOD_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.store.ReplenishmentPeriod";
+
+	private static final long __DEFAULT_PERIOD__ = 5000;
+
+	/**
+	 * Maximal number of retries of a failed check.
+	 */
+	private static final int __MAX_RETRIES__ = 3;
+
+	//
+
+	/**
+	 * Outcome of a single low-stock check.
+	 */
+	enum CheckResult {
+		/** No items were required, the product dispatcher was not called. */
+		NONE_REQUIRED,
+
+		/** All required items were dispatched from other stores. */
+		DISPATCHED,
+
+		/** Some of the required items could not be dispatched. */
+		UNFILLED;
+	}
+
+	//
+
+	private final String __storeName;
+
+	private final Callable<CheckResult> __check;
+
+	private final long __periodMillis;
+
+	private final ScheduledExecutorService __executor;
+
+	//
+
+	/**
+	 * Time (in milliseconds) of the first request not yet served by a
+	 * check, or zero if there is no pending request.
+	 */
+	private final AtomicLong __pendingSince = new AtomicLong();
+
+	/**
+	 * Number of retries of a failed check made so far. Only used by the
+	 * scheduler thread.
+	 */
+	private int __retryCount;
+
+	/**
+	 * Number of periods remaining until a failed check is retried, or zero
+	 * if there is no retry pending. Only used by the scheduler thread.
+	 */
+	private int __retryCountdown;
+
+	private final AtomicLong __requestCount = new AtomicLong();
+
+	private final AtomicLong __checkCount = new AtomicLong();
+
+	private final AtomicLong __dispatchCount = new AtomicLong();
+
+	private final AtomicLong __unfilledCount = new AtomicLong();
+
+	private final AtomicLong __failureCount = new AtomicLong();
+
+	private volatile long __lastLagMillis;
+
+	private volatile long __maxLagMillis;
+
+	private volatile long __lastCheckMillis;
+
+	//
+
+	/**
+	 * Creates a scheduler for the given store, with the period determined by
+	 * the {@link #PERIOD_PROPERTY} system property.
+	 * 
+	 * @param storeName
+	 *            name of the store, used to name the scheduler thread
+	 * @param check
+	 *            the check to perform when requested
+	 */
+	ReplenishmentScheduler(final String storeName, final Callable<CheckResult> check) {
+		__storeName = storeName;
+		__check = check;
+		__periodMillis = Math.max(1, ApplicationHelper.getLongProperty(
+				PERIOD_PROPERTY, __DEFAULT_PERIOD__
+				));
+
+		__executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread result = new Thread(runnable, "Replenishment " + storeName);
+				result.setDaemon(true);
+				return result;
+			}
+		});
+	}
+
+	//
+
+	/**
+	 * Starts performing the requested checks and registers the scheduler
+	 * with the platform MBean server.
+	 */
+	void start() {
+		__executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				__runCheck();
+			}
+		}, __periodMillis, __periodMillis, TimeUnit.MILLISECONDS);
+
+		ApplicationHelper.registerMBean(
+				this, ReplenishmentSchedulerMBean.class,
+				"org.cocome.tradingsystem:type=ReplenishmentScheduler,store=" + ObjectName.quote(__storeName)
+				);
+
+		__debug("Replenishment checks for %s every %d ms", __storeName, __periodMillis);
+	}
+
+	/**
+	 * Requests a check to be performed in the next period. Does not block.
+	 */
+	void requestCheck() {
+		__requestCount.incrementAndGet();
+		__pendingSince.compareAndSet(0, System.currentTimeMillis());
+	}
+
+	private void __runCheck() {
+		final long startTime = System.currentTimeMillis();
+		final long pendingSince = __pendingSince.getAndSet(0);
+		if (pendingSince != 0) {
+			//
+			// A new request supersedes any pending retry. The lag is only
+			// measured for requests, not for retries.
+			//
+			__retryCount = 0;
+			__retryCountdown = 0;
+
+			__lastLagMillis = startTime - pendingSince;
+			__maxLagMillis = Math.max(__maxLagMillis, __lastLagMillis);
+
+		} else if (__retryCountdown == 0 || --__retryCountdown > 0) {
+			return;
+		}
+
+		try {
+			__checkCount.incrementAndGet();
+			final CheckResult result = __check.call();
+			if (result != CheckResult.NONE_REQUIRED) {
+				__dispatchCount.incrementAndGet();
+			}
+
+			if (result == CheckResult.UNFILLED) {
+				__unfilledCount.incrementAndGet();
+			}
+
+			__retryCount = 0;
+
+		} catch (final Exception e) {
+			__failureCount.incrementAndGet();
+
+			if (__retryCount < __MAX_RETRIES__) {
+				//
+				// Retry after 1, 2, 4, ... periods, unless another request
+				// has been made in the meantime.
+				//
+				__retryCountdown = 1 << __retryCount;
+				__retryCount++;
+
+				__warn(
+						"Failed UC8! Could not transport low-stock items from other stores, retrying in %d ms: %s",
+						__retryCountdown * __periodMillis, e.getMessage());
+
+			} else {
+				__retryCount = 0;
+
+				__warn(
+						"Failed UC8! Could not transport low-stock items from other stores, giving up: %s",
+						e.getMessage());
+			}
+
+		} finally {
+			__lastCheckMillis = System.currentTimeMillis() - startTime;
+		}
+	}
+
+	//
+	// ReplenishmentSchedulerMBean
+	//
+
+	@Override
+	public long getPeriodMillis() {
+		return __periodMillis;
+	}
+
+	@Override
+	public long getRequestCount() {
+		return __requestCount.get();
+	}
+
+	@Override
+	public long getCheckCount() {
+		return __checkCount.get();
+	}
+
+	@Override
+	public long getDispatchCount() {
+		return __dispatchCount.get();
+	}
+
+	@Override
+	public long getUnfilledCount() {
+		return __unfilledCount.get();
+	}
+
+	@Override
+	public long getFailureCount() {
+		return __failureCount.get();
+	}
+
+	@Override
+	public long getLastLagMillis() {
+		return __lastLagMillis;
+	}
+
+	@Override
+	public long getMaxLagMillis() {
+		return __maxLagMillis;
+	}
+
+	@Override
+	public long getLastCheckMillis() {
+		return __lastCheckMillis;
+	}
+
+	//
+
+	private static void __debug(final String format, final Object... args) {
+		__log(Level.DEBUG, format, args);
+	}
+
+	private static void __warn(final String format, final Object... args) {
+		__log(Level.WARN, format, args);
+	}
+
+	private static void __log(final Level level, final String format, final Object... args) {
+		if (__log__.isEnabledFor(level)) {
+			__log__.log(level, String.format(format, args));
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+/**
+ * Management interface of the {@link ReplenishmentScheduler}. Exposes the
+ * activity of the low-stock replenishment checks of a store via JMX.
+ */
+public interface ReplenishmentSchedulerMBean {
+
+	/**
+	 * @return period (in milliseconds) between consecutive checks for
+	 *         low-stock items
+	 */
+	long getPeriodMillis();
+
+	/**
+	 * @return number of check requests made since the scheduler was started
+	 */
+	long getRequestCount();
+
+	/**
+	 * @return number of low-stock checks actually performed
+	 */
+	long getCheckCount();
+
+	/**
+	 * @return number of low-stock checks which requested items from the
+	 *         product dispatcher
+	 */
+	long getDispatchCount();
+
+	/**
+	 * @return number of low-stock checks after which some of the required
+	 *         items could not be dispatched from other stores
+	 */
+	long getUnfilledCount();
+
+	/**
+	 * @return number of failed low-stock checks
+	 */
+	long getFailureCount();
+
+	/**
+	 * @return time (in milliseconds) between the first request for a check
+	 *         and the start of the last requested check (retries of failed
+	 *         checks are not included)
+	 */
+	long getLastLagMillis();
+
+	/**
+	 * @return maximal time (in milliseconds) between the first request for a
+	 *         check and the start of the check
+	 */
+	long getMaxLagMillis();
+
+	/**
+	 * @return duration (in milliseconds) of the last check performed
+	 */
+	long getLastCheckMillis();
+
+}
@@ -0,0 +1,799 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.cashdeskline.events.AccountSaleEvent;
+import org.cocome.tradingsystem.util.ApplicationHelper;
+import org.cocome.tradingsystem.util.event.EventCodecRegistry;
+import org.cocome.tradingsystem.util.event.ObjectMessageListener.IEventDispatcher;
+import org.cocome.tradingsystem.util.java.Lists;
+import org.cocome.tradingsystem.util.java.Maps;
+
+/**
+ * Books sales received from the store event channel in batches. The pipeline
+ * receives messages from the channel in a separate thread, and collects up to
+ * a given number of sales, or sales received within a given time window after
+ * the first sale. The corresponding messages are acknowledged by committing
+ * the JMS session only after the sales have been booked.
+ * <p>
+ * To book the sales in parallel, the sold items in a batch are split into
+ * partitions by stock item identifier, and each partition is booked in a
+ * separate database transaction by a separate thread. Because a stock item
+ * always falls into the same partition, and a batch is only committed after
+ * all its partitions have been booked, the stock of each item is updated in
+ * the order of sales, and concurrent transactions never update the same
+ * stock item.
+ * <p>
+ * If a partition cannot be booked as a whole, the stock items in the
+ * partition are booked one at a time, so that a single bad item does not
+ * prevent other items from being booked. Sold items which cannot be booked
+ * at all, including stock items not found in the store, are sent to the
+ * failed sales queue as an {@link AccountSaleEvent} in the same JMS
+ * transaction that acknowledges the batch. Nothing in the trading system
+ * consumes that queue; the broker keeps the messages until they are
+ * reconciled by hand. Events other than {@link AccountSaleEvent} are passed
+ * to the given event dispatcher.
+ * <p>
+ * If a batch fails before its sales are booked, the session is rolled back
+ * so that the messages are redelivered, and the pipeline continues with the
+ * next batch. Once the booking has started, the batch is never rolled back.
+ * If the session then fails to commit, the sold items that could not be
+ * booked are sent again with the next batch, and the identifiers of the
+ * handled messages are remembered, so that messages redelivered by the
+ * broker anyway are only acknowledged, without being booked or dispatched
+ * again. The pipeline only terminates when the session or the consumer is
+ * closed.
+ */
+final class SaleBookingPipeline implements Runnable, SaleBookingPipelineMBean {
+
+	private static final Logger __log__ = Logger.getLogger(SaleBookingPipeline.class);
+
+	/**
+	 * Name of the system property specifying the maximal number of sales
+	 * booked in a single batch.
+	 */
+	static final String BATCH_SIZE_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.store.SaleBatchSize";
+
+	/**
+	 * Name of the system property specifying the maximal time (in
+	 * milliseconds) to wait for a batch to fill up.
+	 */
+	static final String BATCH_TIMEOUT_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.store.SaleBatchTimeout";
+
+	/**
+	 * Name of the system property specifying the number of partitions of
+	 * the sold items, i.e., the number of sale booking threads. Defaults to
+	 * the number of available processors.
+	 */
+	static final String PARTITIONS_PROPERTY =
+			"org.cocome.tradingsystem.inventory.application.store.SalePartitions";
+
+	private static final int __DEFAULT_BATCH_SIZE__ = 20;
+
+	private static final long __DEFAULT_BATCH_TIMEOUT__ = 100;
+
+	/**
+	 * Time (in milliseconds) to pause after a batch failed to be processed.
+	 */
+	private static final long __FAILURE_PAUSE__ = 1000;
+
+	/**
+	 * Maximal number of remembered identifiers of messages that were
+	 * handled, but not acknowledged.
+	 */
+	private static final int __MAX_HANDLED_MESSAGES__ = 4096;
+
+	//
+
+	/**
+	 * Books sold items in the store inventory.
+	 */
+	interface ISoldItemsAccount {
+
+		/**
+		 * Registers sold quantities of stock items in the store inventory
+		 * within a single transaction.
+		 * 
+		 * @param soldQuantities
+		 *            sold quantities indexed by stock item identifier
+		 * @return
+		 *         sold quantities of the stock items that were not booked
+		 *         because they were not found in the store
+		 */
+		Map<Long, Long> accountSoldItems(Map<Long, Long> soldQuantities);
+
+	}
+
+	//
+
+	private final String __storeName;
+
+	private final ISoldItemsAccount __store;
+
+	private final IEventDispatcher __dispatcher;
+
+	private final Session __session;
+
+	private final MessageConsumer __consumer;
+
+	private final MessageProducer __failedSales;
+
+	private final int __batchSize;
+
+	private final long __batchTimeout;
+
+	private final int __partitionCount;
+
+	/**
+	 * Executor booking all but one partition of a batch, or {@code null} if
+	 * there is only a single partition. The remaining partition is booked
+	 * by the pipeline thread.
+	 */
+	private final ExecutorService __workers;
+
+	/**
+	 * Sold quantities of stock items which could not be booked and have not
+	 * been sent to the failed sales queue yet. Only used by the pipeline
+	 * thread.
+	 */
+	private final Map<Long, Long> __unbookedItems = Maps.newHashMap();
+
+	/**
+	 * Identifiers of messages which were handled, but whose acknowledgement
+	 * failed. Only used by the pipeline thread.
+	 */
+	private final Map<String, Boolean> __handledMessageIds = new LinkedHashMap<String, Boolean>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+			return size() > __MAX_HANDLED_MESSAGES__;
+		}
+	};
+
+	//
+
+	private final AtomicLong __batchCount = new AtomicLong();
+
+	private final AtomicLong __saleCount = new AtomicLong();
+
+	private final AtomicLong __failedPartitionCount = new AtomicLong();
+
+	private final AtomicLong __failedItemCount = new AtomicLong();
+
+	private final AtomicLong __totalCommitNanos = new AtomicLong();
+
+	private volatile int __lastBatchSize;
+
+	private volatile long __lastCommitNanos;
+
+	private volatile long __maxCommitNanos;
+
+	//
+
+	/**
+	 * Creates a sale booking pipeline.
+	 * 
+	 * @param storeName
+	 *            name of the store, used to name the pipeline thread
+	 * @param store
+	 *            the store to book the sales in
+	 * @param dispatcher
+	 *            dispatcher for events other than sales
+	 * @param session
+	 *            transacted session the consumer belongs to
+	 * @param consumer
+	 *            consumer receiving messages from the store event channel
+	 * @param failedSales
+	 *            producer (belonging to the same session) sending the sold
+	 *            items which could not be booked to the failed sales queue
+	 */
+	SaleBookingPipeline(
+			final String storeName, final ISoldItemsAccount store,
+			final IEventDispatcher dispatcher,
+			final Session session, final MessageConsumer consumer,
+			final MessageProducer failedSales
+			) {
+		__storeName = storeName;
+		__store = store;
+		__dispatcher = dispatcher;
+		__session = session;
+		__consumer = consumer;
+		__failedSales = failedSales;
+
+		__batchSize = (int) Math.max(1, ApplicationHelper.getLongProperty(
+				BATCH_SIZE_PROPERTY, __DEFAULT_BATCH_SIZE__
+				));
+		__batchTimeout = Math.max(0, ApplicationHelper.getLongProperty(
+				BATCH_TIMEOUT_PROPERTY, __DEFAULT_BATCH_TIMEOUT__
+				));
+		__partitionCount = (int) Math.max(1, ApplicationHelper.getLongProperty(
+				PARTITIONS_PROPERTY, Runtime.getRuntime().availableProcessors()
+				));
+
+		__workers = (__partitionCount > 1) ? __createWorkers() : null;
+	}
+
+	private ExecutorService __createWorkers() {
+		return Executors.newFixedThreadPool(__partitionCount - 1, new ThreadFactory() {
+			private final AtomicInteger __threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread result = new Thread(runnable, String.format(
+						"Sale booking %s-%d", __storeName, __threadNumber.incrementAndGet()
+						));
+				result.setDaemon(true);
+				return result;
+			}
+		});
+	}
+
+	//
+
+	/**
+	 * Starts the pipeline thread and registers the pipeline with the
+	 * platform MBean server. The session and the consumer must not be used
+	 * by any other thread after the pipeline has been started.
+	 */
+	void start() {
+		ApplicationHelper.registerMBean(
+				this, SaleBookingPipelineMBean.class,
+				"org.cocome.tradingsystem:type=SaleBookingPipeline,store=" + ObjectName.quote(__storeName)
+				);
+
+		final Thread thread = new Thread(this, "Sale booking " + __storeName);
+		thread.setDaemon(true);
+		thread.start();
+
+		__debug(
+				"Booking sales for %s in batches of up to %d sales within %d ms, %d partition(s)",
+				__storeName, __batchSize, __batchTimeout, __partitionCount
+				);
+	}
+
+	@Override
+	public void run() {
+		final List<Message> batch = Lists.newArrayList(__batchSize);
+		final List<String> handledIds = Lists.newArrayList(__batchSize);
+
+		RECEIVE: while (true) {
+			try {
+				//
+				// Wait for the first message of a batch, then collect other
+				// messages until the batch is full or the time runs out.
+				//
+				final Message first = __consumer.receive();
+				if (first == null) {
+					// the consumer has been closed
+					break RECEIVE;
+				}
+
+				batch.add(first);
+
+				final long deadline = System.currentTimeMillis() + __batchTimeout;
+				while (batch.size() < __batchSize) {
+					final long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						break;
+					}
+
+					final Message next = __consumer.receive(remaining);
+					if (next == null) {
+						break;
+					}
+
+					batch.add(next);
+				}
+
+				final long startTime = System.nanoTime();
+				final int saleCount = __processBatch(batch, handledIds);
+
+				//
+				// Acknowledge the messages only after the sales have been
+				// booked, together with sending the items that could not be
+				// booked. The batch is not rolled back after this point.
+				//
+				if (__commit(handledIds)) {
+					if (saleCount > 0) {
+						__updateStatistics(saleCount, System.nanoTime() - startTime);
+					}
+
+				} else if (!__pause()) {
+					break RECEIVE;
+				}
+
+			} catch (final javax.jms.IllegalStateException ise) {
+				// the session or the consumer has been closed
+				break RECEIVE;
+
+			} catch (final JMSException jmse) {
+				__error(
+						"Failed to process sales batch for %s, rolling back: %s",
+						__storeName, jmse.getMessage()
+						);
+
+				if (!__rollbackAndPause(handledIds)) {
+					break RECEIVE;
+				}
+
+			} catch (final RuntimeException re) {
+				__log__.error(String.format(
+						"Failed to process sales batch for %s, rolling back", __storeName
+						), re);
+
+				if (!__rollbackAndPause(handledIds)) {
+					break RECEIVE;
+				}
+
+			} finally {
+				batch.clear();
+				handledIds.clear();
+			}
+		}
+
+		__error("Sale booking for %s terminated!", __storeName);
+	}
+
+	/**
+	 * Rolls back the session so that the messages of a failed batch are
+	 * redelivered (the broker moves messages that keep failing to its
+	 * dead letter queue), and pauses before receiving further messages to
+	 * avoid spinning on a persistent failure. Messages of the batch that
+	 * have already been handled are only acknowledged when redelivered.
+	 * 
+	 * @return {@code true} if the pipeline should continue receiving
+	 *         messages, {@code false} if the session has been closed or the
+	 *         pipeline thread has been interrupted
+	 */
+	private boolean __rollbackAndPause(final List<String> handledIds) {
+		__rememberHandled(handledIds);
+
+		try {
+			__session.rollback();
+
+		} catch (final javax.jms.IllegalStateException ise) {
+			return false;
+
+		} catch (final JMSException jmse) {
+			__error("Failed to roll back sales batch for %s: %s", __storeName, jmse.getMessage());
+		}
+
+		return __pause();
+	}
+
+	/**
+	 * Pauses after a failure to avoid spinning on a persistent failure.
+	 * 
+	 * @return {@code true} if the pipeline should continue receiving
+	 *         messages, {@code false} if the pipeline thread has been
+	 *         interrupted
+	 */
+	private boolean __pause() {
+		try {
+			Thread.sleep(__FAILURE_PAUSE__);
+			return true;
+
+		} catch (final InterruptedException ie) {
+			return false;
+		}
+	}
+
+	/**
+	 * Dispatches the events and books the sales received in the given
+	 * messages, skipping redelivered messages that have already been
+	 * handled. The identifiers of the handled messages are added to the
+	 * given list: messages with other events as soon as the events are
+	 * dispatched, and messages with sales once the booking starts.
+	 * 
+	 * @return the number of sales booked
+	 */
+	private int __processBatch(
+			final List<Message> batch, final List<String> handledIds
+			) throws JMSException {
+		final List<SaleTO> sales = Lists.newArrayList(batch.size());
+		final List<String> saleIds = Lists.newArrayList(batch.size());
+		for (final Message message : batch) {
+			if (__wasHandled(message)) {
+				__warn("Received message handled before in %s, message acknowledged", __storeName);
+				continue;
+			}
+
+			final Serializable event = __getEvent(message);
+			if (event instanceof AccountSaleEvent) {
+				final SaleTO sale = ((AccountSaleEvent) event).getSale();
+				if (sale != null) {
+					sales.add(sale);
+					saleIds.add(message.getJMSMessageID());
+				} else {
+					__warn("Received sale event without sale in %s, event ignored", __storeName);
+				}
+
+			} else if (event != null) {
+				__dispatcher.dispatch(event);
+				handledIds.add(message.getJMSMessageID());
+			}
+		}
+
+		if (!sales.isEmpty()) {
+			handledIds.addAll(saleIds);
+			__addUnbookedItems(__bookPartitions(__partition(sales)));
+		}
+
+		return sales.size();
+	}
+
+	/**
+	 * Commits the session, sending any sold items which could not be booked
+	 * to the failed sales queue first. If that fails, the identifiers of the
+	 * handled messages are remembered, and the unbooked items are kept to be
+	 * sent with the next commit (a failed commit discards the sent message).
+	 * 
+	 * @return {@code true} if the session has been committed
+	 */
+	private boolean __commit(final List<String> handledIds) throws javax.jms.IllegalStateException {
+		try {
+			if (!__unbookedItems.isEmpty()) {
+				__sendFailedItems(__unbookedItems);
+			}
+
+			__session.commit();
+
+		} catch (final javax.jms.IllegalStateException ise) {
+			throw ise;
+
+		} catch (final JMSException jmse) {
+			__error(
+					"Failed to acknowledge sales batch for %s, the handled messages will not be handled again: %s",
+					__storeName, jmse.getMessage()
+					);
+
+			__rememberHandled(handledIds);
+			return false;
+		}
+
+		if (!__unbookedItems.isEmpty()) {
+			__failedItemCount.addAndGet(__unbookedItems.size());
+			__error(
+					"Sent %d sold stock items which could not be booked to the failed sales queue of %s",
+					__unbookedItems.size(), __storeName
+					);
+
+			__unbookedItems.clear();
+		}
+
+		return true;
+	}
+
+	private void __rememberHandled(final List<String> handledIds) {
+		for (final String handledId : handledIds) {
+			if (handledId != null) {
+				__handledMessageIds.put(handledId, Boolean.TRUE);
+			}
+		}
+	}
+
+	private boolean __wasHandled(final Message message) throws JMSException {
+		if (__handledMessageIds.isEmpty() || !message.getJMSRedelivered()) {
+			return false;
+		}
+
+		final String messageId = message.getJMSMessageID();
+		return (messageId != null) && (__handledMessageIds.remove(messageId) != null);
+	}
+
+	private void __addUnbookedItems(final Map<Long, Long> unbookedItems) {
+		for (final Map.Entry<Long, Long> entry : unbookedItems.entrySet()) {
+			final Long quantity = __unbookedItems.get(entry.getKey());
+			__unbookedItems.put(entry.getKey(), entry.getValue()
+					+ ((quantity != null) ? quantity : 0));
+		}
+	}
+
+	/**
+	 * Splits the items sold in the given sales into partitions by stock item
+	 * identifier, and aggregates the sold quantities of each stock item.
+	 */
+	private List<Map<Long, Long>> __partition(final List<SaleTO> sales) {
+		final List<Map<Long, Long>> result = Lists.newArrayList(__partitionCount);
+		for (int i = 0; i < __partitionCount; i++) {
+			final Map<Long, Long> partition = Maps.newHashMap();
+			result.add(partition);
+		}
+
+		for (final SaleTO sale : sales) {
+			for (final SaleLineTO saleLine : sale.getSaleLines()) {
+				final long stockItemId = saleLine.getStockItemId();
+				final Map<Long, Long> partition = result.get(__partitionOf(stockItemId));
+				final Long quantity = partition.get(stockItemId);
+				partition.put(stockItemId, saleLine.getQuantity()
+						+ ((quantity != null) ? quantity : 0));
+			}
+		}
+
+		return result;
+	}
+
+	private int __partitionOf(final long stockItemId) {
+		final int result = (int) (stockItemId % __partitionCount);
+		return (result >= 0) ? result : result + __partitionCount;
+	}
+
+	/**
+	 * Books the given partitions, and waits until all the partitions have
+	 * been booked. The last non-empty partition is booked by the calling
+	 * thread, the other partitions are handed over to the workers.
+	 * 
+	 * @return sold quantities of stock items which could not be booked
+	 */
+	private Map<Long, Long> __bookPartitions(final List<Map<Long, Long>> partitions) {
+		Map<Long, Long> localPartition = null;
+		final List<Map<Long, Long>> workerPartitions = Lists.newArrayList(partitions.size());
+		final List<Future<Map<Long, Long>>> futures = Lists.newArrayList(partitions.size());
+		for (final Map<Long, Long> partition : partitions) {
+			if (partition.isEmpty()) {
+				continue;
+			}
+
+			if (localPartition != null) {
+				final Map<Long, Long> workerPartition = localPartition;
+				workerPartitions.add(workerPartition);
+				futures.add(__workers.submit(new Callable<Map<Long, Long>>() {
+					@Override
+					public Map<Long, Long> call() {
+						return __bookPartition(workerPartition);
+					}
+				}));
+			}
+
+			localPartition = partition;
+		}
+
+		final Map<Long, Long> result = Maps.newHashMap();
+		if (localPartition != null) {
+			result.putAll(__bookPartition(localPartition));
+		}
+
+		//
+		// Wait for all the workers, even if interrupted, because the
+		// batch must not be committed before all partitions are booked.
+		// If a worker failed unexpectedly, the whole partition is treated
+		// as failed.
+		//
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); i++) {
+			while (true) {
+				try {
+					result.putAll(futures.get(i).get());
+					break;
+
+				} catch (final InterruptedException ie) {
+					interrupted = true;
+
+				} catch (final ExecutionException ee) {
+					__error("Failed to book sales partition: %s", ee.getCause());
+					result.putAll(workerPartitions.get(i));
+					break;
+				}
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Books the given partition as a whole, or one stock item at a time if
+	 * that fails.
+	 * 
+	 * @return sold quantities of stock items which could not be booked
+	 */
+	private Map<Long, Long> __bookPartition(final Map<Long, Long> partition) {
+		try {
+			return __store.accountSoldItems(partition);
+
+		} catch (final RuntimeException re) {
+			__failedPartitionCount.incrementAndGet();
+			__warn(
+					"Failed to book %d sold stock items, booking individually: %s",
+					partition.size(), re.getMessage()
+					);
+
+			return __bookIndividually(partition);
+		}
+	}
+
+	private Serializable __getEvent(final Message message) {
+		try {
+			return EventCodecRegistry.getDefault().getEvent(message);
+
+		} catch (final JMSException jmse) {
+			__log__.warn("Failed to extract message object, message ignored!", jmse);
+			return null;
+		}
+	}
+
+	private Map<Long, Long> __bookIndividually(final Map<Long, Long> soldQuantities) {
+		final Map<Long, Long> result = Maps.newHashMap();
+		for (final Map.Entry<Long, Long> entry : soldQuantities.entrySet()) {
+			try {
+				result.putAll(__store.accountSoldItems(Collections.singletonMap(
+						entry.getKey(), entry.getValue()
+						)));
+
+			} catch (final RuntimeException re) {
+				__error(
+						"Failed to book sale of stock item %d: %s",
+						entry.getKey(), re.getMessage()
+						);
+
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sends the sold items which could not be booked to the failed sales
+	 * queue as a single sale. The message is only sent when the session is
+	 * committed.
+	 */
+	private void __sendFailedItems(final Map<Long, Long> failedItems) throws JMSException {
+		final List<SaleLineTO> saleLines = Lists.newArrayList(failedItems.size());
+		for (final Map.Entry<Long, Long> entry : failedItems.entrySet()) {
+			final SaleLineTO saleLine = new SaleLineTO();
+			saleLine.setStockItemId(entry.getKey());
+			saleLine.setQuantity(entry.getValue());
+			saleLines.add(saleLine);
+		}
+
+		final SaleTO sale = new SaleTO();
+		sale.setDate(new Date());
+		sale.setSaleLines(saleLines);
+
+		__failedSales.send(EventCodecRegistry.getDefault().createMessage(
+				__session, new AccountSaleEvent(sale)
+				));
+	}
+
+	private void __updateStatistics(final int batchSize, final long commitNanos) {
+		__batchCount.incrementAndGet();
+		__saleCount.addAndGet(batchSize);
+		__totalCommitNanos.addAndGet(commitNanos);
+
+		__lastBatchSize = batchSize;
+		__lastCommitNanos = commitNanos;
+		__maxCommitNanos = Math.max(__maxCommitNanos, commitNanos);
+	}
+
+	//
+	// SaleBookingPipelineMBean
+	//
+
+	@Override
+	public int getBatchSizeLimit() {
+		return __batchSize;
+	}
+
+	@Override
+	public long getBatchTimeoutMillis() {
+		return __batchTimeout;
+	}
+
+	@Override
+	public long getBatchCount() {
+		return __batchCount.get();
+	}
+
+	@Override
+	public long getSaleCount() {
+		return __saleCount.get();
+	}
+
+	@Override
+	public int getPartitionCount() {
+		return __partitionCount;
+	}
+
+	@Override
+	public long getFailedPartitionCount() {
+		return __failedPartitionCount.get();
+	}
+
+	@Override
+	public long getFailedItemCount() {
+		return __failedItemCount.get();
+	}
+
+	@Override
+	public int getLastBatchSize() {
+		return __lastBatchSize;
+	}
+
+	@Override
+	public double getAverageBatchSize() {
+		final long batchCount = __batchCount.get();
+		return (batchCount > 0) ? (double) __saleCount.get() / batchCount : 0.0;
+	}
+
+	@Override
+	public double getLastCommitMillis() {
+		return __lastCommitNanos / 1e6;
+	}
+
+	@Override
+	public double getAverageCommitMillis() {
+		final long batchCount = __batchCount.get();
+		return (batchCount > 0) ? __totalCommitNanos.get() / (batchCount * 1e6) : 0.0;
+	}
+
+	@Override
+	public double getMaxCommitMillis() {
+		return __maxCommitNanos / 1e6;
+	}
+
+	//
+
+	private static void __debug(final String format, final Object... args) {
+		__log(Level.DEBUG, format, args);
+	}
+
+	private static void __warn(final String format, final Object... args) {
+		__log(Level.WARN, format, args);
+	}
+
+	private static void __error(final String format, final Object... args) {
+		__log(Level.ERROR, format, args);
+	}
+
+	private static void __log(final Level level, final String format, final Object... args) {
+		if (__log__.isEnabledFor(level)) {
+			__log__.log(level, String.format(format, args));
+		}
+	}
+
+}
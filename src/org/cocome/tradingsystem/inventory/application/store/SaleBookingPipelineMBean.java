@@ -0,0 +1,85 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+/**
+ * Management interface of the {@link SaleBookingPipeline}. Exposes the batch
+ * sizes and commit latencies of sale booking via JMX.
+ */
+public interface SaleBookingPipelineMBean {
+
+	/**
+	 * @return maximal number of sales booked in a single batch
+	 */
+	int getBatchSizeLimit();
+
+	/**
+	 * @return maximal time (in milliseconds) to wait for a batch to fill up
+	 */
+	long getBatchTimeoutMillis();
+
+	/**
+	 * @return number of batches booked since the pipeline was started
+	 */
+	long getBatchCount();
+
+	/**
+	 * @return number of sales booked since the pipeline was started
+	 */
+	long getSaleCount();
+
+	/**
+	 * @return number of partitions the sold items are split into
+	 */
+	int getPartitionCount();
+
+	/**
+	 * @return number of batch partitions that failed to be booked as a whole
+	 */
+	long getFailedPartitionCount();
+
+	/**
+	 * @return number of sold stock items sent to the failed sales queue
+	 */
+	long getFailedItemCount();
+
+	/**
+	 * @return number of sales in the last batch
+	 */
+	int getLastBatchSize();
+
+	/**
+	 * @return average number of sales in a batch
+	 */
+	double getAverageBatchSize();
+
+	/**
+	 * @return time (in milliseconds) needed to book and commit the last batch
+	 */
+	double getLastCommitMillis();
+
+	/**
+	 * @return average time (in milliseconds) needed to book and commit a batch
+	 */
+	double getAverageCommitMillis();
+
+	/**
+	 * @return maximal time (in milliseconds) needed to book and commit a batch
+	 */
+	double getMaxCommitMillis();
+
+}
@@ -0,0 +1,311 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQObjectMessage;
+import org.cocome.tradingsystem.cashdeskline.events.AccountSaleEvent;
+import org.cocome.tradingsystem.inventory.application.store.SaleBookingPipeline.ISoldItemsAccount;
+import org.cocome.tradingsystem.util.event.EventCodecRegistry;
+import org.cocome.tradingsystem.util.event.ObjectMessageListener.IEventDispatcher;
+import org.cocome.tradingsystem.util.java.Lists;
+import org.cocome.tradingsystem.util.java.Maps;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the handling of failures in the {@link SaleBookingPipeline}.
+ */
+public final class SaleBookingPipelineTest {
+
+	/** Stock items with identifiers from this one up are unknown. */
+	private static final long UNKNOWN_STOCK_ITEM_ID = 1000;
+
+	/** Identifier of a message with an event which fails to dispatch. */
+	private static final String BAD_EVENT_MESSAGE_ID = messageId(99);
+
+	//
+
+	/** Messages returned by the consumer, {@code null} ends a batch. */
+	private final LinkedList<Message> received = new LinkedList<Message>();
+
+	private final Map<Long, Long> bookedQuantities = Maps.newHashMap();
+
+	private final List<Serializable> dispatchedEvents = Lists.newArrayList();
+
+	private final List<Message> sentMessages = Lists.newArrayList();
+
+	private int failingCommits;
+
+	private int commitCount;
+
+	private int rollbackCount;
+
+	//
+
+	@Before
+	public void setUp() {
+		System.setProperty(SaleBookingPipeline.PARTITIONS_PROPERTY, "2");
+		System.setProperty(SaleBookingPipeline.BATCH_TIMEOUT_PROPERTY, "60000");
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(SaleBookingPipeline.PARTITIONS_PROPERTY);
+		System.clearProperty(SaleBookingPipeline.BATCH_TIMEOUT_PROPERTY);
+	}
+
+	@Test
+	public void failedCommitDoesNotBookTwice() throws Exception {
+		final Message sale = saleMessage(messageId(1), 1, 2);
+		final Message event = eventMessage(messageId(2));
+		received.add(sale);
+		received.add(event);
+		received.add(null);
+
+		// redelivered by the broker after the failed commit
+		received.add(redelivered(sale));
+		received.add(redelivered(event));
+		received.add(null);
+
+		failingCommits = 1;
+		newPipeline().run();
+
+		assertEquals(Long.valueOf(2), bookedQuantities.get(1L));
+		assertEquals(1, dispatchedEvents.size());
+		assertEquals(1, commitCount);
+		assertEquals(0, rollbackCount);
+	}
+
+	@Test
+	public void unknownItemsAreSentAgainAfterFailedCommit() throws Exception {
+		received.add(saleMessage(messageId(1), 1, 2));
+		received.add(saleMessage(messageId(3), UNKNOWN_STOCK_ITEM_ID, 3));
+		received.add(null);
+		received.add(saleMessage(messageId(4), 2, 1));
+		received.add(null);
+
+		failingCommits = 1;
+		final SaleBookingPipeline pipeline = newPipeline();
+		pipeline.run();
+
+		assertEquals(Long.valueOf(2), bookedQuantities.get(1L));
+		assertEquals(Long.valueOf(1), bookedQuantities.get(2L));
+		assertEquals(2, sentMessages.size());
+		assertEquals(1L, pipeline.getFailedItemCount());
+
+		final SaleTO failedSale = failedSale(sentMessages.get(1));
+		assertEquals(1, failedSale.getSaleLines().size());
+		assertEquals(UNKNOWN_STOCK_ITEM_ID, failedSale.getSaleLines().get(0).getStockItemId());
+		assertEquals(3L, failedSale.getSaleLines().get(0).getQuantity());
+	}
+
+	@Test
+	public void failureBeforeBookingRollsBack() throws Exception {
+		final Message event = eventMessage(messageId(2));
+		final Message sale = saleMessage(messageId(1), 1, 2);
+		final Message bad = eventMessage(BAD_EVENT_MESSAGE_ID);
+		received.add(event);
+		received.add(sale);
+		received.add(bad);
+		received.add(null);
+
+		// redelivered after the rollback, the bad event dropped
+		received.add(redelivered(event));
+		received.add(redelivered(sale));
+		received.add(null);
+
+		newPipeline().run();
+
+		assertEquals(Long.valueOf(2), bookedQuantities.get(1L));
+		assertEquals(1, dispatchedEvents.size());
+		assertEquals(1, commitCount);
+		assertEquals(1, rollbackCount);
+	}
+
+	//
+
+	private SaleBookingPipeline newPipeline() {
+		final ISoldItemsAccount account = new ISoldItemsAccount() {
+			@Override
+			public Map<Long, Long> accountSoldItems(final Map<Long, Long> soldQuantities) {
+				final Map<Long, Long> result = Maps.newHashMap();
+				synchronized (bookedQuantities) {
+					for (final Map.Entry<Long, Long> entry : soldQuantities.entrySet()) {
+						if (entry.getKey() >= UNKNOWN_STOCK_ITEM_ID) {
+							result.put(entry.getKey(), entry.getValue());
+							continue;
+						}
+
+						final Long quantity = bookedQuantities.get(entry.getKey());
+						bookedQuantities.put(entry.getKey(), entry.getValue()
+								+ ((quantity != null) ? quantity : 0));
+					}
+				}
+
+				return result;
+			}
+		};
+
+		final IEventDispatcher dispatcher = new IEventDispatcher() {
+			@Override
+			public void dispatch(final Serializable eventObject) {
+				if (BAD_EVENT_MESSAGE_ID.equals(eventObject)) {
+					throw new RuntimeException("dispatch failed");
+				}
+
+				dispatchedEvents.add(eventObject);
+			}
+		};
+
+		return new SaleBookingPipeline(
+				"TestStore", account, dispatcher,
+				proxy(Session.class, new SessionHandler()),
+				proxy(MessageConsumer.class, new ConsumerHandler()),
+				proxy(MessageProducer.class, new ProducerHandler())
+				);
+	}
+
+	private static String messageId(final int sequenceNumber) {
+		return "ID:test-1:1:1:" + sequenceNumber;
+	}
+
+	private static Message saleMessage(
+			final String messageId, final long stockItemId, final long quantity
+			) throws JMSException {
+		final SaleLineTO saleLine = new SaleLineTO();
+		saleLine.setStockItemId(stockItemId);
+		saleLine.setQuantity(quantity);
+
+		final SaleTO sale = new SaleTO();
+		sale.setSaleLines(Collections.singletonList(saleLine));
+		return objectMessage(messageId, new AccountSaleEvent(sale));
+	}
+
+	private static Message eventMessage(final String messageId) throws JMSException {
+		// the event is the identifier of the message carrying it
+		return objectMessage(messageId, messageId);
+	}
+
+	private static Message objectMessage(
+			final String messageId, final Serializable object
+			) throws JMSException {
+		final ActiveMQObjectMessage result = new ActiveMQObjectMessage();
+		result.setObject(object);
+		result.setJMSMessageID(messageId);
+		return result;
+	}
+
+	private static Message redelivered(final Message message) throws JMSException {
+		final ActiveMQObjectMessage result = (ActiveMQObjectMessage) objectMessage(
+				message.getJMSMessageID(), ((ActiveMQObjectMessage) message).getObject()
+				);
+
+		result.setJMSRedelivered(true);
+		return result;
+	}
+
+	private static SaleTO failedSale(final Message message) throws JMSException {
+		if (message instanceof ActiveMQBytesMessage) {
+			((ActiveMQBytesMessage) message).reset();
+		}
+
+		final Serializable event = EventCodecRegistry.getDefault().getEvent(message);
+		assertTrue(event instanceof AccountSaleEvent);
+		return ((AccountSaleEvent) event).getSale();
+	}
+
+	private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(
+				type.getClassLoader(), new Class<?>[] { type }, handler
+				));
+	}
+
+	//
+
+	private final class SessionHandler implements InvocationHandler {
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("commit".equals(name)) {
+				if (failingCommits > 0) {
+					failingCommits--;
+					throw new JMSException("commit failed");
+				}
+
+				commitCount++;
+				return null;
+
+			} else if ("rollback".equals(name)) {
+				rollbackCount++;
+				return null;
+
+			} else if ("createBytesMessage".equals(name)) {
+				return new ActiveMQBytesMessage();
+
+			} else if ("createObjectMessage".equals(name)) {
+				return objectMessage(null, (Serializable) args[0]);
+			}
+
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	private final class ConsumerHandler implements InvocationHandler {
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if ("receive".equals(method.getName())) {
+				// returning null with no timeout closes the pipeline
+				return received.isEmpty() ? null : received.removeFirst();
+			}
+
+			throw new UnsupportedOperationException(method.getName());
+		}
+	}
+
+	private final class ProducerHandler implements InvocationHandler {
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if ("send".equals(method.getName())) {
+				sentMessages.add((Message) args[0]);
+				return null;
+			}
+
+			throw new UnsupportedOperationException(method.getName());
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+import java.io.Serializable;
+
+import org.cocome.tradingsystem.inventory.data.store.StockItem;
+
+/**
+ * A transfer object class for exchanging a single line of a sale between
+ * client and the service-oriented application layer. A sale line represents
+ * all units of a single product sold in a sale, identified by the stock item
+ * they are taken from. It has no persistent counterpart.
+ * 
+ * @see SaleTO
+ */
+public final class SaleLineTO implements Serializable {
+
+	private static final long serialVersionUID = -2951607334178201456L;
+
+	//
+
+	private long __stockItemId;
+
+	private long __barcode;
+
+	private long __quantity;
+
+	private double __unitPrice;
+
+	//
+
+	/**
+	 * Returns the unique identifier of the {@link StockItem} entity the sold
+	 * units are taken from.
+	 * 
+	 * @return
+	 *         {@link StockItem} entity identifier.
+	 */
+	public long getStockItemId() {
+		return __stockItemId;
+	}
+
+	/**
+	 * Sets the unique identifier of the {@link StockItem} entity the sold
+	 * units are taken from.
+	 * 
+	 * @param stockItemId
+	 *            {@link StockItem} entity identifier
+	 */
+	public void setStockItemId(final long stockItemId) {
+		__stockItemId = stockItemId;
+	}
+
+	/**
+	 * Returns the barcode of the sold product.
+	 * 
+	 * @return
+	 *         Product barcode.
+	 */
+	public long getBarcode() {
+		return __barcode;
+	}
+
+	/**
+	 * Sets the barcode of the sold product.
+	 * 
+	 * @param barcode
+	 *            product barcode
+	 */
+	public void setBarcode(final long barcode) {
+		__barcode = barcode;
+	}
+
+	/**
+	 * Returns the number of units sold.
+	 * 
+	 * @return
+	 *         Number of units sold.
+	 */
+	public long getQuantity() {
+		return __quantity;
+	}
+
+	/**
+	 * Sets the number of units sold.
+	 * 
+	 * @param quantity
+	 *            number of units sold
+	 */
+	public void setQuantity(final long quantity) {
+		__quantity = quantity;
+	}
+
+	/**
+	 * Returns the price of a single unit.
+	 * 
+	 * @return
+	 *         Unit sales price.
+	 */
+	public double getUnitPrice() {
+		return __unitPrice;
+	}
+
+	/**
+	 * Sets the price of a single unit.
+	 * 
+	 * @param unitPrice
+	 *            unit sales price
+	 */
+	public void setUnitPrice(final double unitPrice) {
+		__unitPrice = unitPrice;
+	}
+
+}
@@ -17,6 +17,7 @@
 package org.cocome.tradingsystem.inventory.application.store;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -29,13 +30,13 @@ import java.util.List;
  */
 public final class SaleTO implements Serializable {
 
-	private static final long serialVersionUID = 5164217707863683479L;
+	private static final long serialVersionUID = -3310574632870931147L;
 
 	//
 
 	private Date __date;
 
-	private List<ProductWithStockItemTO> __productTOs;
+	private List<SaleLineTO> __saleLines;
 
 	//
 
@@ -60,24 +61,29 @@ public final class SaleTO implements Serializable {
 	}
 
 	/**
-	 * Gets list of products and corresponding item in stock which the sale
-	 * consists of.
+	 * Gets list of sale lines which the sale consists of. Each line holds
+	 * the quantity of a single product sold.
 	 * 
 	 * @return
-	 *         List of contained products.
+	 *         List of contained sale lines, empty if the sale lines have not
+	 *         been set.
 	 */
-	public List<ProductWithStockItemTO> getProductTOs() {
-		return __productTOs;
+	public List<SaleLineTO> getSaleLines() {
+		if (__saleLines == null) {
+			return Collections.emptyList();
+		}
+
+		return __saleLines;
 	}
 
 	/**
-	 * Sets list of products for the sale.
+	 * Sets list of sale lines for the sale.
 	 * 
-	 * @param productTOs
-	 *            List of products the sale should contain.
+	 * @param saleLines
+	 *            List of sale lines the sale should contain.
 	 */
-	public void setProductTOs(final List<ProductWithStockItemTO> productTOs) {
-		__productTOs = productTOs;
+	public void setSaleLines(final List<SaleLineTO> saleLines) {
+		__saleLines = saleLines;
 	}
 
 }
@@ -0,0 +1,107 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+import org.cocome.tradingsystem.util.java.LongIntMap;
+
+/**
+ * Accumulates changes in the amounts of stock items made within a single
+ * transaction, so that they can be applied to the stock item index after
+ * the transaction commits. The changes are kept in primitive arrays, with
+ * stock item identifiers mapped to array positions, which avoids boxing on
+ * the sale booking path.
+ * <p>
+ * The class is not thread-safe.
+ */
+final class StockChanges {
+
+	private final LongIntMap __positions;
+
+	private long[] __stockItemIds;
+
+	private long[] __deltas;
+
+	private int __size;
+
+	//
+
+	StockChanges(final int expectedSize) {
+		final int capacity = Math.max(expectedSize, 4);
+
+		__positions = new LongIntMap(capacity);
+		__stockItemIds = new long[capacity];
+		__deltas = new long[capacity];
+	}
+
+	StockChanges() {
+		this(4);
+	}
+
+	//
+
+	/**
+	 * Adds the given (possibly negative) change to the amount of the given
+	 * stock item.
+	 */
+	void add(final long stockItemId, final long delta) {
+		final int position = __positions.get(stockItemId, -1);
+		if (position >= 0) {
+			__deltas[position] += delta;
+			return;
+		}
+
+		if (__size == __stockItemIds.length) {
+			__stockItemIds = __grow(__stockItemIds, 2 * __size);
+			__deltas = __grow(__deltas, 2 * __size);
+		}
+
+		__positions.put(stockItemId, __size);
+		__stockItemIds[__size] = stockItemId;
+		__deltas[__size] = delta;
+		__size++;
+	}
+
+	/**
+	 * @return number of stock items with changed amount
+	 */
+	int size() {
+		return __size;
+	}
+
+	/**
+	 * @return identifier of the stock item at the given position
+	 */
+	long getStockItemId(final int position) {
+		return __stockItemIds[position];
+	}
+
+	/**
+	 * @return change in the amount of the stock item at the given position
+	 */
+	long getDelta(final int position) {
+		return __deltas[position];
+	}
+
+	//
+
+	private long[] __grow(final long[] array, final int capacity) {
+		final long[] result = new long[capacity];
+		System.arraycopy(array, 0, result, 0, __size);
+		return result;
+	}
+
+}
@@ -0,0 +1,383 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.application.store;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.cocome.tradingsystem.inventory.data.store.StockItem;
+import org.cocome.tradingsystem.util.java.Lists;
+import org.cocome.tradingsystem.util.java.LongIntMap;
+
+/**
+ * Resident index of the stock items of a single store, used to serve product
+ * lookups by barcode without accessing the database. The stock records are
+ * kept in parallel primitive arrays, with barcodes and stock item identifiers
+ * mapped to record slots using primitive-keyed maps.
+ * <p>
+ * The index only mirrors committed database state. It must therefore be
+ * updated only after the corresponding transaction has been committed. Stock
+ * amounts are updated using relative adjustments, so that the resulting
+ * amount does not depend on the order in which concurrent transactions
+ * update the index.
+ * <p>
+ * The index also keeps track of stock items with amount below their minimal
+ * stock, so that these can be enumerated without scanning all stock items.
+ */
+final class StockItemIndex {
+
+	private final ReadWriteLock __lock = new ReentrantReadWriteLock();
+
+	private final Lock __readLock = __lock.readLock();
+
+	private final Lock __writeLock = __lock.writeLock();
+
+	//
+
+	private final LongIntMap __slotsByBarcode;
+
+	private final LongIntMap __slotsByStockItemId;
+
+	private int __size;
+
+	//
+	// Stock item records.
+	//
+
+	private long[] __stockItemIds;
+
+	private double[] __salesPrices;
+
+	private long[] __amounts;
+
+	private long[] __minStocks;
+
+	private long[] __maxStocks;
+
+	//
+	// Product records.
+	//
+
+	private long[] __productIds;
+
+	private long[] __barcodes;
+
+	private double[] __purchasePrices;
+
+	private String[] __names;
+
+	//
+	// Slots of stock items below minimal stock. For each slot, the position
+	// array holds the position of the slot in the low-stock slot array, or
+	// -1 if the stock item is not low on stock.
+	//
+
+	private int[] __lowStockSlots;
+
+	private int[] __lowStockPositions;
+
+	private int __lowStockCount;
+
+	//
+
+	StockItemIndex(final int expectedSize) {
+		final int capacity = Math.max(expectedSize, 16);
+
+		__slotsByBarcode = new LongIntMap(capacity);
+		__slotsByStockItemId = new LongIntMap(capacity);
+
+		__stockItemIds = new long[capacity];
+		__salesPrices = new double[capacity];
+		__amounts = new long[capacity];
+		__minStocks = new long[capacity];
+		__maxStocks = new long[capacity];
+
+		__productIds = new long[capacity];
+		__barcodes = new long[capacity];
+		__purchasePrices = new double[capacity];
+		__names = new String[capacity];
+
+		__lowStockSlots = new int[capacity];
+		__lowStockPositions = new int[capacity];
+	}
+
+	//
+
+	/**
+	 * Creates an index containing the given stock items.
+	 */
+	static StockItemIndex newInstance(final Collection<StockItem> stockItems) {
+		final StockItemIndex result = new StockItemIndex(stockItems.size());
+		for (final StockItem stockItem : stockItems) {
+			result.putIfAbsent(FillTransferObjects.fillProductWithStockItemTO(stockItem));
+		}
+
+		return result;
+	}
+
+	//
+
+	/**
+	 * @return number of stock items in the index
+	 */
+	int size() {
+		__readLock.lock();
+		try {
+			return __size;
+
+		} finally {
+			__readLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the given product and its stock item to the index, unless the
+	 * stock item is already indexed. An existing record is never replaced,
+	 * because it may already reflect stock changes committed after the
+	 * given transfer object was filled.
+	 */
+	void putIfAbsent(final ProductWithStockItemTO product) {
+		final StockItemTO stockItem = product.getStockItemTO();
+
+		__writeLock.lock();
+		try {
+			if (__slotsByStockItemId.get(stockItem.getId(), -1) >= 0) {
+				return;
+			}
+
+			__ensureCapacity(__size + 1);
+			final int slot = __size++;
+			__slotsByStockItemId.put(stockItem.getId(), slot);
+			__lowStockPositions[slot] = -1;
+
+			__stockItemIds[slot] = stockItem.getId();
+			__salesPrices[slot] = stockItem.getSalesPrice();
+			__amounts[slot] = stockItem.getAmount();
+			__minStocks[slot] = stockItem.getMinStock();
+			__maxStocks[slot] = stockItem.getMaxStock();
+
+			__productIds[slot] = product.getId();
+			__barcodes[slot] = product.getBarcode();
+			__purchasePrices[slot] = product.getPurchasePrice();
+			__names[slot] = product.getName();
+
+			__slotsByBarcode.put(product.getBarcode(), slot);
+			__updateLowStock(slot);
+
+		} finally {
+			__writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the sales price of the given stock item. Unknown stock items are
+	 * ignored.
+	 */
+	void setSalesPrice(final long stockItemId, final double salesPrice) {
+		__writeLock.lock();
+		try {
+			final int slot = __slotsByStockItemId.get(stockItemId, -1);
+			if (slot >= 0) {
+				__salesPrices[slot] = salesPrice;
+			}
+
+		} finally {
+			__writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Adjusts the amounts of stock items by the given (possibly negative)
+	 * changes. Unknown stock items are ignored.
+	 * 
+	 * @return {@code true} if the amount of any of the stock items dropped
+	 *         below its minimal stock due to the adjustment, {@code false}
+	 *         otherwise
+	 */
+	boolean adjustAmounts(final StockChanges changes) {
+		boolean result = false;
+
+		__writeLock.lock();
+		try {
+			for (int position = 0; position < changes.size(); position++) {
+				final int slot = __slotsByStockItemId.get(changes.getStockItemId(position), -1);
+				if (slot < 0) {
+					continue;
+				}
+
+				final long oldAmount = __amounts[slot];
+				final long newAmount = oldAmount + changes.getDelta(position);
+				__amounts[slot] = newAmount;
+				__updateLowStock(slot);
+
+				final long minStock = __minStocks[slot];
+				result |= oldAmount >= minStock && newAmount < minStock;
+			}
+
+			return result;
+
+		} finally {
+			__writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a transfer object describing the product with the given barcode
+	 * and its stock item, or {@code null} if the store has no stock item for
+	 * the product.
+	 */
+	ProductWithStockItemTO getProductWithStockItem(final long barcode) {
+		__readLock.lock();
+		try {
+			final int slot = __slotsByBarcode.get(barcode, -1);
+			return (slot >= 0) ? __getProductWithStockItem(slot) : null;
+
+		} finally {
+			__readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns transfer objects describing the stock items with amount below
+	 * their minimal stock, along with their products.
+	 */
+	List<ProductWithStockItemTO> getLowStockProducts() {
+		__readLock.lock();
+		try {
+			final List<ProductWithStockItemTO> result = Lists.newArrayList(__lowStockCount);
+			for (int i = 0; i < __lowStockCount; i++) {
+				result.add(__getProductWithStockItem(__lowStockSlots[i]));
+			}
+
+			return result;
+
+		} finally {
+			__readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the identifiers of products with stock items below their
+	 * minimal stock.
+	 */
+	long[] getLowStockProductIds() {
+		__readLock.lock();
+		try {
+			final long[] result = new long[__lowStockCount];
+			for (int i = 0; i < __lowStockCount; i++) {
+				result[i] = __productIds[__lowStockSlots[i]];
+			}
+
+			return result;
+
+		} finally {
+			__readLock.unlock();
+		}
+	}
+
+	//
+
+	private ProductWithStockItemTO __getProductWithStockItem(final int slot) {
+		final StockItemTO stockItemTO = new StockItemTO();
+		stockItemTO.setId(__stockItemIds[slot]);
+		stockItemTO.setAmount(__amounts[slot]);
+		stockItemTO.setMinStock(__minStocks[slot]);
+		stockItemTO.setMaxStock(__maxStocks[slot]);
+		stockItemTO.setSalesPrice(__salesPrices[slot]);
+
+		final ProductWithStockItemTO result = new ProductWithStockItemTO();
+		result.setId(__productIds[slot]);
+		result.setName(__names[slot]);
+		result.setBarcode(__barcodes[slot]);
+		result.setPurchasePrice(__purchasePrices[slot]);
+		result.setStockItemTO(stockItemTO);
+
+		return result;
+	}
+
+	/**
+	 * Adds the given slot to the low-stock slots, or removes it from them,
+	 * depending on the current amount of the stock item in the slot.
+	 */
+	private void __updateLowStock(final int slot) {
+		final boolean lowStock = __amounts[slot] < __minStocks[slot];
+		final int position = __lowStockPositions[slot];
+
+		if (lowStock && position < 0) {
+			__lowStockSlots[__lowStockCount] = slot;
+			__lowStockPositions[slot] = __lowStockCount++;
+
+		} else if (!lowStock && position >= 0) {
+			//
+			// Move the last low-stock slot into the position
+			// of the removed slot.
+			//
+			final int lastSlot = __lowStockSlots[--__lowStockCount];
+			__lowStockSlots[position] = lastSlot;
+			__lowStockPositions[lastSlot] = position;
+			__lowStockPositions[slot] = -1;
+		}
+	}
+
+	private void __ensureCapacity(final int required) {
+		final int capacity = __stockItemIds.length;
+		if (required <= capacity) {
+			return;
+		}
+
+		final int newCapacity = Math.max(required, 2 * capacity);
+
+		__stockItemIds = __grow(__stockItemIds, newCapacity);
+		__salesPrices = __grow(__salesPrices, newCapacity);
+		__amounts = __grow(__amounts, newCapacity);
+		__minStocks = __grow(__minStocks, newCapacity);
+		__maxStocks = __grow(__maxStocks, newCapacity);
+
+		__productIds = __grow(__productIds, newCapacity);
+		__barcodes = __grow(__barcodes, newCapacity);
+		__purchasePrices = __grow(__purchasePrices, newCapacity);
+
+		final String[] names = new String[newCapacity];
+		System.arraycopy(__names, 0, names, 0, __size);
+		__names = names;
+
+		__lowStockSlots = __grow(__lowStockSlots, newCapacity);
+		__lowStockPositions = __grow(__lowStockPositions, newCapacity);
+	}
+
+	private long[] __grow(final long[] array, final int capacity) {
+		final long[] result = new long[capacity];
+		System.arraycopy(array, 0, result, 0, __size);
+		return result;
+	}
+
+	private int[] __grow(final int[] array, final int capacity) {
+		final int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, __size);
+		return result;
+	}
+
+	private double[] __grow(final double[] array, final int capacity) {
+		final double[] result = new double[capacity];
+		System.arraycopy(array, 0, result, 0, __size);
+		return result;
+	}
+
+}
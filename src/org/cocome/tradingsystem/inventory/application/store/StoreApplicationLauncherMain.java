@@ -20,6 +20,8 @@ import java.rmi.RemoteException;
 
 import javax.jms.Connection;
 import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.naming.NamingException;
 
@@ -29,7 +31,6 @@ import org.cocome.tradingsystem.util.ApplicationHelper;
 import org.cocome.tradingsystem.util.JmsHelper;
 import org.cocome.tradingsystem.util.Names;
 import org.cocome.tradingsystem.util.RemoteComponent;
-import org.cocome.tradingsystem.util.event.ObjectMessageListener;
 
 /**
  * Launcher for the store inventory application.
@@ -122,14 +123,25 @@ public final class StoreApplicationLauncherMain {
 		final StoreServer store = StoreServer.newInstance(storeName, remoteDispatcher);
 
 		//
-		// Create a session for messages originating in the context of the JMS
-		// dispatcher thread. Create the store application server and register a
-		// separate event handler as consumer in the session.
+		// Create a transacted session for messages from the store event
+		// channel. The messages are received by the sale booking pipeline,
+		// which books the sales in batches and commits the session after
+		// each batch. Other events are passed to the store event handler.
+		// Sold items which cannot be booked are sent to the failed sales
+		// queue within the same session.
 		//
-		final Session session = JmsHelper.createSession(connection);
+		final Session session = JmsHelper.createTransactedSession(connection);
 		final String storeTopicName = Names.getStoreTopicName(storeName);
 
-		JmsHelper.registerConsumer(session, storeTopicName, new ObjectMessageListener(new StoreEventHandler(store)));
+		final MessageConsumer consumer = JmsHelper.createConsumer(session, storeTopicName);
+		final MessageProducer failedSales = session.createProducer(
+				JmsHelper.lookupQueue(Names.getFailedSalesQueueName(storeName))
+				);
+
+		new SaleBookingPipeline(
+				storeName, store, new StoreEventHandler(store),
+				session, consumer, failedSales
+				).start();
 
 		return store;
 	}
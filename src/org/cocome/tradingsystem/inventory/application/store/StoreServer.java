@@ -25,8 +25,12 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.cocome.tradingsystem.inventory.application.productdispatcher.IProductDispatcher;
+import org.cocome.tradingsystem.inventory.application.store.ReplenishmentScheduler.CheckResult;
+import org.cocome.tradingsystem.inventory.application.store.SaleBookingPipeline.ISoldItemsAccount;
 import org.cocome.tradingsystem.inventory.data.DataFactory;
 import org.cocome.tradingsystem.inventory.data.enterprise.Product;
 import org.cocome.tradingsystem.inventory.data.persistence.IPersistenceContext;
@@ -55,7 +59,7 @@ import org.apache.log4j.Logger;
  * @author Lubomir Bulej
  */
 final class StoreServer extends UnicastRemoteObject
-		implements IStoreInventoryManager, IStoreInventory {
+		implements IStoreInventoryManager, IStoreInventory, ISoldItemsAccount {
 
 	private static final long serialVersionUID = -529765757261183369L;
 
@@ -74,19 +78,34 @@ final class StoreServer extends UnicastRemoteObject
 	/** Remote reference to the product dispatcher. */
 	private final RemoteComponent<IProductDispatcher> __remoteDispatcher;
 
+	/** Resident index of stock items for lookups by barcode. */
+	private final StockItemIndex __stockIndex;
+
+	/** Background checks for items running low on stock. */
+	private final ReplenishmentScheduler __replenishment;
+
 	//
 
 	private StoreServer(
-			final long storeId,
-			final RemoteComponent<IProductDispatcher> remoteDispatcher) throws RemoteException {
+			final long storeId, final String storeName,
+			final RemoteComponent<IProductDispatcher> remoteDispatcher,
+			final StockItemIndex stockIndex) throws RemoteException {
 		__storeId = storeId;
 		__remoteDispatcher = remoteDispatcher;
+		__stockIndex = stockIndex;
+
+		__replenishment = new ReplenishmentScheduler(storeName, new Callable<CheckResult>() {
+			@Override
+			public CheckResult call() throws Exception {
+				return __checkForLowRunningGoods();
+			}
+		});
 	}
 
 	//
 
 	public ProductWithStockItemTO changePrice(final StockItemTO stockItemTO) {
-		return TransactionWrapper.execute(new Operation<ProductWithStockItemTO>() {
+		final ProductWithStockItemTO result = TransactionWrapper.execute(new Operation<ProductWithStockItemTO>() {
 			@Override
 			public ProductWithStockItemTO execute(final IPersistenceContext pctx) {
 				final StockItem si = __storeQuery.queryStockItemById(
@@ -98,6 +117,9 @@ final class StoreServer extends UnicastRemoteObject
 				return FillTransferObjects.fillProductWithStockItemTO(si);
 			}
 		});
+
+		__stockIndex.setSalesPrice(stockItemTO.getId(), stockItemTO.getSalesPrice());
+		return result;
 	}
 
 	public List<ProductWithSupplierTO> getAllProducts() {
@@ -171,20 +193,7 @@ final class StoreServer extends UnicastRemoteObject
 
 	@Override
 	public List<ProductWithStockItemTO> getProductsWithLowStock() {
-		return TransactionWrapper.execute(new Operation<List<ProductWithStockItemTO>>() {
-			@Override
-			public List<ProductWithStockItemTO> execute(final IPersistenceContext pctx) {
-				final Collection<StockItem> stockItems =
-						__storeQuery.queryLowStockItems(__storeId, pctx);
-
-				final List<ProductWithStockItemTO> result = Lists.newArrayList();
-				for (final StockItem si : stockItems) {
-					result.add(FillTransferObjects.fillProductWithStockItemTO(si));
-				}
-
-				return result;
-			}
-		});
+		return __stockIndex.getLowStockProducts();
 	}
 
 	@Override
@@ -261,6 +270,7 @@ final class StoreServer extends UnicastRemoteObject
 
 	@Override
 	public void rollInReceivedOrder(final long orderId) throws InvalidRollInRequestException {
+		final StockChanges stockChanges = new StockChanges();
 		TransactionWrapper.execute(new CheckedSimpleOperation<InvalidRollInRequestException>() {
 			@Override
 			public void execute(final IPersistenceContext pctx) throws InvalidRollInRequestException {
@@ -311,6 +321,7 @@ final class StoreServer extends UnicastRemoteObject
 					final long newAmount = oldAmount + oe.getAmount();
 
 					si.setAmount(newAmount);
+					stockChanges.add(si.getId(), oe.getAmount());
 
 					__debug(
 							"%s (%d) stock increased from %d to %d.",
@@ -321,13 +332,27 @@ final class StoreServer extends UnicastRemoteObject
 			}
 
 		});
+
+		__updateStockIndex(stockChanges);
 	}
 
 	@Override
 	public ProductWithStockItemTO getProductWithStockItem(
 			final long productBarCode
 			) throws NoSuchProductException {
-		return TransactionWrapper.execute(new CheckedOperation<ProductWithStockItemTO, NoSuchProductException>() {
+		//
+		// Serve the lookup from the stock item index. Only go to the
+		// database if the index does not know about the product, and
+		// index the stock item found there once the transaction is over.
+		//
+		final ProductWithStockItemTO indexed =
+				__stockIndex.getProductWithStockItem(productBarCode);
+
+		if (indexed != null) {
+			return indexed;
+		}
+
+		final ProductWithStockItemTO result = TransactionWrapper.execute(new CheckedOperation<ProductWithStockItemTO, NoSuchProductException>() {
 			@Override
 			public ProductWithStockItemTO execute(final IPersistenceContext pctx) throws NoSuchProductException {
 				final StockItem stockItem =
@@ -343,10 +368,131 @@ final class StoreServer extends UnicastRemoteObject
 				return FillTransferObjects.fillProductWithStockItemTO(stockItem);
 			}
 		});
+
+		__stockIndex.putIfAbsent(result);
+		return result;
+	}
+
+	@Override
+	public ProductWithStockItemLookupTO getProductsWithStockItems(
+			final long[] productBarcodes
+			) {
+		//
+		// Serve the lookups from the stock item index, and collect the
+		// barcodes unknown to the index.
+		//
+		final ProductWithStockItemTO[] products = new ProductWithStockItemTO[productBarcodes.length];
+		final long[] missingBarcodes = new long[productBarcodes.length];
+		int missingCount = 0;
+
+		for (int index = 0; index < productBarcodes.length; index++) {
+			products[index] = __stockIndex.getProductWithStockItem(productBarcodes[index]);
+			if (products[index] == null) {
+				missingBarcodes[missingCount++] = productBarcodes[index];
+			}
+		}
+
+		//
+		// Look up all the missing barcodes in a single database query,
+		// and index the stock items found there once the transaction
+		// is over.
+		//
+		if (missingCount > 0) {
+			final long[] queryBarcodes = new long[missingCount];
+			System.arraycopy(missingBarcodes, 0, queryBarcodes, 0, missingCount);
+
+			final Map<Long, ProductWithStockItemTO> loadedProducts = TransactionWrapper.execute(
+					new Operation<Map<Long, ProductWithStockItemTO>>() {
+						@Override
+						public Map<Long, ProductWithStockItemTO> execute(final IPersistenceContext pctx) {
+							final Map<Long, ProductWithStockItemTO> result = Maps.newHashMap();
+							for (final StockItem stockItem : __storeQuery.queryStockItemsByBarcode(
+									__storeId, queryBarcodes, pctx
+									)) {
+								result.put(
+										stockItem.getProduct().getBarcode(),
+										FillTransferObjects.fillProductWithStockItemTO(stockItem)
+										);
+							}
+
+							return result;
+						}
+					});
+
+			for (final ProductWithStockItemTO product : loadedProducts.values()) {
+				__stockIndex.putIfAbsent(product);
+			}
+
+			for (int index = 0; index < productBarcodes.length; index++) {
+				if (products[index] == null) {
+					products[index] = loadedProducts.get(productBarcodes[index]);
+				}
+			}
+		}
+
+		//
+		// Split the results into found products and unknown barcodes.
+		//
+		final List<ProductWithStockItemTO> foundProducts = Lists.newArrayList();
+		final long[] unknownBarcodes = new long[productBarcodes.length];
+		int unknownCount = 0;
+
+		for (int index = 0; index < productBarcodes.length; index++) {
+			if (products[index] != null) {
+				foundProducts.add(products[index]);
+			} else {
+				unknownBarcodes[unknownCount++] = productBarcodes[index];
+			}
+		}
+
+		final ProductWithStockItemLookupTO result = new ProductWithStockItemLookupTO();
+		result.setProductWithStockItemTOs(foundProducts);
+
+		final long[] resultUnknownBarcodes = new long[unknownCount];
+		System.arraycopy(unknownBarcodes, 0, resultUnknownBarcodes, 0, unknownCount);
+		result.setUnknownBarcodes(resultUnknownBarcodes);
+
+		return result;
 	}
 
 	public void accountSale(final SaleTO sale) {
-		__bookSale(sale);
+		accountSales(Collections.singletonList(sale));
+	}
+
+	/**
+	 * Registers multiple sales in the store inventory within a single
+	 * transaction. Either all the sales are registered, or none of them.
+	 * 
+	 * @param sales
+	 *            the sales to be registered in stock
+	 */
+	void accountSales(final Collection<SaleTO> sales) {
+		final Map<Long, Long> soldQuantities = Maps.newHashMap();
+		for (final SaleTO saleTO : sales) {
+			for (final SaleLineTO saleLine : saleTO.getSaleLines()) {
+				final Long previous = soldQuantities.get(saleLine.getStockItemId());
+				soldQuantities.put(
+						saleLine.getStockItemId(),
+						(previous != null) ? previous + saleLine.getQuantity() : saleLine.getQuantity()
+						);
+			}
+		}
+
+		__bookSoldItems(soldQuantities);
+	}
+
+	/**
+	 * Registers sold quantities of stock items in the store inventory within
+	 * a single transaction. Stock items not found in the store are left out.
+	 * 
+	 * @param soldQuantities
+	 *            sold quantities indexed by stock item identifier
+	 * @return
+	 *         sold quantities of the stock items not found in the store
+	 */
+	@Override
+	public Map<Long, Long> accountSoldItems(final Map<Long, Long> soldQuantities) {
+		return __bookSoldItems(soldQuantities);
 	}
 
 	/**
@@ -355,36 +501,93 @@ final class StoreServer extends UnicastRemoteObject
 	 * they can be transported from nearby stores with sufficient stock. Used
 	 * for realization of UC 1 and UC 8.
 	 * 
-	 * @param saleTO
-	 *            the sale to be registered in stock
+	 * @param soldQuantities
+	 *            sold quantities indexed by stock item identifier
+	 * @return
+	 *         sold quantities of the stock items not found in the store
 	 */
-	private void __bookSale(final SaleTO saleTO) {
-		TransactionWrapper.execute(new SimpleOperation() {
+	private Map<Long, Long> __bookSoldItems(final Map<Long, Long> soldQuantities) {
+		//
+		// Group the stock items by sold quantity, so that the stock can be
+		// updated using a single bulk update for all stock items sold in
+		// the same quantity.
+		//
+		final Map<Long, List<Long>> stockItemsByQuantity = Maps.newHashMap();
+		for (final Map.Entry<Long, Long> entry : soldQuantities.entrySet()) {
+			final long quantity = entry.getValue();
+
+			List<Long> stockItemIds = stockItemsByQuantity.get(quantity);
+			if (stockItemIds == null) {
+				stockItemIds = Lists.newArrayList();
+				stockItemsByQuantity.put(quantity, stockItemIds);
+			}
+
+			stockItemIds.add(entry.getKey());
+		}
+
+		final Map<Long, Long> result = TransactionWrapper.execute(new Operation<Map<Long, Long>>() {
 			@Override
-			public void execute(final IPersistenceContext pctx) {
-				for (final ProductWithStockItemTO pwsto : saleTO.getProductTOs()) {
-					final StockItem si = __storeQuery.queryStockItemById(
-							pwsto.getStockItemTO().getId(), pctx
+			public Map<Long, Long> execute(final IPersistenceContext pctx) {
+				int updatedCount = 0;
+				for (final Map.Entry<Long, List<Long>> entry : stockItemsByQuantity.entrySet()) {
+					updatedCount += __storeQuery.decreaseStockAmounts(
+							__storeId, entry.getValue(), entry.getKey(), pctx
 							);
+				}
 
-					si.setAmount(si.getAmount() - 1);
+				__debug(
+						"Sale of %d stock items booked: %d stock items updated using %d statements",
+						soldQuantities.size(), updatedCount, stockItemsByQuantity.size()
+						);
+
+				if (updatedCount == soldQuantities.size()) {
+					return Collections.emptyMap();
 				}
+
+				//
+				// Some of the stock items are unknown or belong to another
+				// store. Find out which, so that the caller can deal with
+				// them, and so that their changes are not indexed.
+				//
+				return __getUnknownStockItems(soldQuantities, pctx);
 			}
 		});
 
 		//
-		// Check for items running low on stock. Required for UC 8.
-		// Alternative (and probably better) design would be to check
-		// once in a while from separate thread, not on every sale.
+		// Record the stock changes of the updated stock items in the
+		// stock item index.
 		//
-		try {
-			__checkForLowRunningGoods();
+		final StockChanges stockChanges = new StockChanges(soldQuantities.size());
+		for (final Map.Entry<Long, Long> entry : soldQuantities.entrySet()) {
+			if (!result.containsKey(entry.getKey())) {
+				stockChanges.add(entry.getKey(), -entry.getValue());
+			}
+		}
 
-		} catch (final Exception e) {
-			__warn(
-					"Failed UC8! Could not transport low-stock items from other stores: %s",
-					e.getMessage());
+		__updateStockIndex(stockChanges);
+		return result;
+	}
+
+	private Map<Long, Long> __getUnknownStockItems(
+			final Map<Long, Long> soldQuantities, final IPersistenceContext pctx
+			) {
+		final long[] stockItemIds = new long[soldQuantities.size()];
+		int index = 0;
+		for (final Long stockItemId : soldQuantities.keySet()) {
+			stockItemIds[index++] = stockItemId;
 		}
+
+		final Map<Long, Long> result = new HashMap<Long, Long>(soldQuantities);
+		result.keySet().removeAll(
+				__storeQuery.queryStockItemIds(__storeId, stockItemIds, pctx)
+				);
+
+		__warn(
+				"Sale booking found %d of %d sold stock items missing in store %d: %s",
+				result.size(), soldQuantities.size(), __storeId, result.keySet()
+				);
+
+		return result;
 	}
 
 	@Override
@@ -398,6 +601,7 @@ final class StoreServer extends UnicastRemoteObject
 	public void markProductsUnavailableInStock(
 			final ProductMovementTO movedProducts
 			) throws ProductNotAvailableException {
+		final StockChanges stockChanges = new StockChanges();
 		TransactionWrapper.execute(new CheckedSimpleOperation<ProductNotAvailableException>() {
 			@Override
 			public void execute(final IPersistenceContext pctx) throws ProductNotAvailableException {
@@ -428,6 +632,7 @@ final class StoreServer extends UnicastRemoteObject
 
 					// set new remaining stock amount
 					stockItem.setAmount(availableAmount - movedAmount);
+					stockChanges.add(stockItem.getId(), -movedAmount);
 
 					//
 					// TODO: virtual printout is missing
@@ -445,51 +650,126 @@ final class StoreServer extends UnicastRemoteObject
 				}
 			}
 		});
+
+		__updateStockIndex(stockChanges);
+	}
+
+	@Override
+	public void markProductsAvailableInStock(final ProductMovementTO movedProducts) {
+		final StockChanges stockChanges = new StockChanges();
+		TransactionWrapper.execute(new SimpleOperation() {
+			@Override
+			public void execute(final IPersistenceContext pctx) {
+				for (final ProductAmountTO movedProduct : movedProducts.getProductAmounts()) {
+					final long barcode = movedProduct.getProduct().getBarcode();
+					final StockItem stockItem =
+							__storeQuery.queryStockItem(__storeId, barcode, pctx);
+
+					if (stockItem == null) {
+						__warn(
+								"Store %d has no product with barcode %d, cannot return %d item(s) to stock",
+								__storeId, barcode, movedProduct.getAmount()
+								);
+						continue;
+					}
+
+					stockItem.setAmount(stockItem.getAmount() + movedProduct.getAmount());
+					stockChanges.add(stockItem.getId(), movedProduct.getAmount());
+				}
+			}
+		});
+
+		__updateStockIndex(stockChanges);
+		__debug(
+				"Returned %d product(s) not shipped to %s to stock of store %d",
+				movedProducts.getProductAmounts().size(),
+				movedProducts.getDestinationStore().getName(), __storeId
+				);
+	}
+
+	//
+
+	/**
+	 * Applies committed stock changes to the stock item index. If any of the
+	 * stock items drops below its minimal stock, a check for items running
+	 * low on stock is requested. Required for UC 8.
+	 */
+	private void __updateStockIndex(final StockChanges stockChanges) {
+		if (__stockIndex.adjustAmounts(stockChanges)) {
+			__replenishment.requestCheck();
+		}
 	}
 
 	/**
 	 * Checks for goods that run low. If there are goods running low they
-	 * transported from nearby stores in the enterprise.
+	 * transported from nearby stores in the enterprise. The check is performed
+	 * periodically by the replenishment scheduler, but only if some stock item
+	 * dropped below its minimal stock since the previous check.
 	 * <p>
 	 * Technically, the operation is performed by the product dispatcher. The store only needs to provide it with products that are low on stock. If there is any
 	 * problem communicating with the product dispatcher, the operation will not be performed. In case of transient errors, the operation may succeed during next
 	 * check for low-stock products.
 	 * <p>
+	 * The dispatcher calls back into other stores, so the call is made outside
+	 * of any transaction, to avoid holding database locks during the round
+	 * trip. Instead, the required amounts are reserved as incoming in a short
+	 * transaction before the call, and the reservation is settled to the
+	 * amounts actually incoming (or released, if the call fails) in another
+	 * short transaction after the call.
+	 * <p>
 	 * Required for UC 8
+	 * 
+	 * @return the outcome of the check
 	 */
-	private void __checkForLowRunningGoods() throws Exception {
-		TransactionWrapper.execute(new CheckedSimpleOperation<Exception>() {
-			@Override
-			public void execute(final IPersistenceContext pctx) throws Exception {
-				//
-				// Determine the products and amounts of items that are
-				// actually required, i.e. items that are really low on
-				// stock, including their current incoming amount.
-				//
-				final Collection<ProductAmountTO>
-				requiredProducts = __findRequiredProducts(pctx);
-
-				if (requiredProducts.size() < 1) {
-					return;
-				}
+	private CheckResult __checkForLowRunningGoods() throws Exception {
+		//
+		// Determine the products and amounts of items that are actually
+		// required, i.e. items that are really low on stock, including
+		// their current incoming amount. Reserve the required amounts as
+		// incoming, so that the items are no longer considered low on
+		// stock in case the reservation cannot be settled.
+		//
+		final Collection<ProductAmountTO> requiredProducts = TransactionWrapper.execute(
+				new Operation<Collection<ProductAmountTO>>() {
+					@Override
+					public Collection<ProductAmountTO> execute(final IPersistenceContext pctx) {
+						final Collection<ProductAmountTO> result = __findRequiredProducts(pctx);
+						__adjustIncomingAmounts(result, 1, pctx);
+						return result;
+					}
+				});
 
-				//
-				// Order required products from stores determined by the
-				// product dispatcher.
-				//
-				final ProductAmountTO[] incomingProducts =
-						__orderRequiredProducts(requiredProducts, pctx);
+		if (requiredProducts.size() < 1) {
+			return CheckResult.NONE_REQUIRED;
+		}
 
-				if (incomingProducts.length < 1) {
-					return;
-				}
+		//
+		// Order required products from stores determined by the product
+		// dispatcher. If the order fails, release the reserved amounts so
+		// that the products are ordered again during the next check.
+		//
+		ProductAmountTO[] incomingProducts = null;
+		try {
+			incomingProducts = __orderRequiredProducts(requiredProducts);
 
-				//
-				// Mark the products coming from other stores as incoming.
-				//
-				__registerIncomingProducts(incomingProducts, pctx);
+		} finally {
+			if (incomingProducts == null) {
+				__releaseIncomingAmounts(requiredProducts);
 			}
-		});
+		}
+
+		//
+		// Release the reserved amounts that are not coming from other stores.
+		//
+		final Collection<ProductAmountTO> missingProducts =
+				__getMissingProducts(requiredProducts, incomingProducts);
+
+		if (missingProducts.size() > 0) {
+			__releaseIncomingAmounts(missingProducts);
+			return CheckResult.UNFILLED;
+		}
+
+		return CheckResult.DISPATCHED;
 	}
 
 	private Collection<ProductAmountTO> __findRequiredProducts(
@@ -497,13 +777,19 @@ final class StoreServer extends UnicastRemoteObject
 			) {
 		//
 		// Query the store inventory for apparently low stock items,
-		// without consider items coming from other stores.
+		// without consider items coming from other stores. The stock
+		// item index knows which items are low on stock, so only those
+		// items need to be loaded.
 		//
-		final Collection<StockItem> lowStockItems = __storeQuery.queryLowStockItems(__storeId, pctx);
-		if (lowStockItems.size() < 1) {
+		final long[] lowStockProductIds = __stockIndex.getLowStockProductIds();
+		if (lowStockProductIds.length < 1) {
 			return Collections.emptyList();
 		}
 
+		final Collection<StockItem> lowStockItems = __storeQuery.queryStockItemsByProductId(
+				__storeId, lowStockProductIds, pctx
+				);
+
 		//
 		// Filter the low-stock items to determine items that are really
 		// low on stock and should be transported from other stores.
@@ -604,8 +890,7 @@ final class StoreServer extends UnicastRemoteObject
 	 *             if there is a problem communicating with the dispatcher
 	 */
 	private ProductAmountTO[] __orderRequiredProducts(
-			final Collection<ProductAmountTO> requiredProducts,
-			final IPersistenceContext pctx
+			final Collection<ProductAmountTO> requiredProducts
 			) throws RemoteException {
 		//
 		// Connect to the product dispatcher and order the required products
@@ -613,10 +898,9 @@ final class StoreServer extends UnicastRemoteObject
 		// cannot be established.
 		//
 		final IProductDispatcher dispatcher = __remoteDispatcher.get();
-		final Store store = __storeQuery.queryStoreById(__storeId, pctx);
 
 		final ProductAmountTO[] result = dispatcher.dispatchProductsFromOtherStores(
-				store.getId(), requiredProducts
+				__storeId, requiredProducts
 				);
 
 		__debug("%d products incoming to store %d", result.length, __storeId);
@@ -624,27 +908,99 @@ final class StoreServer extends UnicastRemoteObject
 	}
 
 	/**
-	 * Registers the products coming from other stores by increasing the
-	 * incoming amount of stock items corresponding to the incoming products.
+	 * Returns the amounts of required products that are not coming from
+	 * other stores.
+	 */
+	private static Collection<ProductAmountTO> __getMissingProducts(
+			final Collection<ProductAmountTO> requiredProducts,
+			final ProductAmountTO[] incomingProducts
+			) {
+		final Map<Long, Long> incomingAmounts = Maps.newHashMap();
+		for (final ProductAmountTO incomingProduct : incomingProducts) {
+			final long barcode = incomingProduct.getProduct().getBarcode();
+			final Long previous = incomingAmounts.get(barcode);
+			incomingAmounts.put(barcode, incomingProduct.getAmount()
+					+ ((previous != null) ? previous : 0));
+		}
+
+		final Collection<ProductAmountTO> result = Lists.newArrayList();
+		for (final ProductAmountTO requiredProduct : requiredProducts) {
+			final Long incomingAmount = incomingAmounts.get(requiredProduct.getProduct().getBarcode());
+			final long missingAmount = requiredProduct.getAmount()
+					- ((incomingAmount != null) ? incomingAmount : 0);
+
+			if (missingAmount > 0) {
+				final ProductAmountTO pa = new ProductAmountTO();
+				pa.setProduct(requiredProduct.getProduct());
+				pa.setAmount(missingAmount);
+
+				result.add(pa);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Releases the given amounts of products reserved as incoming. Failures
+	 * are only logged, because they do not affect the outcome of the order.
+	 * Items with unreleased amounts only appear to have more stock incoming
+	 * than they actually have.
 	 */
-	private void __registerIncomingProducts(
-			final ProductAmountTO[] incomingProducts,
+	private void __releaseIncomingAmounts(final Collection<ProductAmountTO> products) {
+		try {
+			TransactionWrapper.execute(new SimpleOperation() {
+				@Override
+				public void execute(final IPersistenceContext pctx) {
+					__adjustIncomingAmounts(products, -1, pctx);
+				}
+			});
+
+		} catch (final RuntimeException re) {
+			__error("Failed to release incoming amounts of %d products in store %d: %s",
+					products.size(), __storeId, re.getMessage());
+		}
+	}
+
+	/**
+	 * Adjusts the incoming amount of stock items corresponding to the given
+	 * products by the product amounts multiplied by the given sign. The stock
+	 * items are loaded in a single query.
+	 */
+	private void __adjustIncomingAmounts(
+			final Collection<ProductAmountTO> products, final int sign,
 			final IPersistenceContext pctx
 			) {
-		for (final ProductAmountTO incomingProductTO : incomingProducts) {
-			final ProductTO incomingProduct = incomingProductTO.getProduct();
-			final StockItem stockItem = __storeQuery.queryStockItem(
-					__storeId, incomingProduct.getBarcode(), pctx
-					);
+		if (products.size() < 1) {
+			return;
+		}
+
+		final long[] productIds = new long[products.size()];
+		final Map<Long, Long> amounts = Maps.newHashMap();
+
+		int index = 0;
+		for (final ProductAmountTO product : products) {
+			productIds[index++] = product.getProduct().getId();
+			amounts.put(product.getProduct().getId(), sign * product.getAmount());
+		}
+
+		final Collection<StockItem> stockItems = __storeQuery.queryStockItemsByProductId(
+				__storeId, productIds, pctx
+				);
+
+		for (final StockItem stockItem : stockItems) {
+			final Long amount = amounts.get(stockItem.getProduct().getId());
+			if (amount == null) {
+				continue;
+			}
 
-			final long incomingAmount = incomingProductTO.getAmount();
 			stockItem.setIncomingAmount(
-					stockItem.getIncomingAmount() + incomingAmount
+					Math.max(0, stockItem.getIncomingAmount() + amount)
 					);
 
 			__debug("\t%s, barcode %d, incoming amount %d",
-					incomingProduct.getName(), incomingProduct.getBarcode(),
-					incomingAmount);
+					stockItem.getProduct().getName(), stockItem.getProduct().getBarcode(),
+					stockItem.getIncomingAmount());
 		}
 	}
 
@@ -668,7 +1024,23 @@ final class StoreServer extends UnicastRemoteObject
 				final IStoreQuery sq = DataFactory.getInstance().getStoreQuery();
 				final Store storeEntity = sq.queryStore(storeName, "%", pctx);
 				if (storeEntity != null) {
-					return new StoreServer(storeEntity.getId(), remoteDispatcher);
+					final StockItemIndex stockIndex = StockItemIndex.newInstance(
+							sq.queryAllStockItems(storeEntity.getId(), pctx)
+							);
+
+					__debug("Indexed %d stock items of store '%s'", stockIndex.size(), storeName);
+
+					final StoreServer result = new StoreServer(
+							storeEntity.getId(), storeName, remoteDispatcher, stockIndex
+							);
+
+					//
+					// Start the replenishment checks, with an initial check
+					// for items that were already low on stock at startup.
+					//
+					result.__replenishment.start();
+					result.__replenishment.requestCheck();
+					return result;
 
 				} else {
 					final String message = String.format(
@@ -16,27 +16,67 @@
 
 package org.cocome.tradingsystem.inventory.data;
 
+import java.util.Map;
+import java.util.Properties;
+
 import javax.persistence.EntityManagerFactory;
 
 import org.cocome.tradingsystem.inventory.data.enterprise.IEnterpriseQuery;
 import org.cocome.tradingsystem.inventory.data.enterprise.EnterpriseQueryProvider;
+import org.cocome.tradingsystem.inventory.data.persistence.CacheStatistics;
 import org.cocome.tradingsystem.inventory.data.persistence.EntityPersistence;
 import org.cocome.tradingsystem.inventory.data.persistence.IPersistence;
 import org.cocome.tradingsystem.inventory.data.store.IStoreQuery;
 import org.cocome.tradingsystem.inventory.data.store.StoreQueryProvider;
+import org.cocome.tradingsystem.util.java.Maps;
 
 /**
  * @author Yannick Welsch
  */
 final class DataComponent implements IData {
 
-	private EntityManagerFactory __emf =
-			javax.persistence.Persistence.createEntityManagerFactory("inventory-manager");
+	private static final String __PERSISTENCE_UNIT__ = "inventory-manager";
+
+	/**
+	 * Prefix of system properties that override the connection pool
+	 * configuration in the persistence unit.
+	 */
+	private static final String __POOL_PROPERTY_PREFIX__ = "cocome.pool.";
+
+	//
+
+	private final EntityManagerFactory __emf =
+			javax.persistence.Persistence.createEntityManagerFactory(
+					__PERSISTENCE_UNIT__, __getPoolOverrides());
+
+	private final IPersistence __persistence = new EntityPersistence(__emf);
+
+	//
+
+	DataComponent() {
+		CacheStatistics.register(__emf, __PERSISTENCE_UNIT__);
+	}
+
+	//
+
+	private static Map<String, String> __getPoolOverrides() {
+		final Map<String, String> result = Maps.newHashMap();
+
+		final Properties props = System.getProperties();
+		for (final Object key : props.keySet()) {
+			final String name = String.valueOf(key);
+			if (name.startsWith(__POOL_PROPERTY_PREFIX__)) {
+				result.put(name, props.getProperty(name));
+			}
+		}
+
+		return result;
+	}
 
 	//
 
 	public IPersistence getPersistenceManager() {
-		return new EntityPersistence(__emf);
+		return __persistence;
 	}
 
 	public IEnterpriseQuery getEnterpriseQuery() {
@@ -50,6 +50,12 @@ final class DefaultEntityConfiguration implements IEntityConfiguration {
 	private static final double __ORDER_ENTRY_AMOUNT_PERCENTAGE_MIN__ = 0.05;
 	private static final double __ORDER_ENTRY_AMOUNT_PERCENTAGE_MAX__ = 0.10;
 
+	private static final double __STORE_LATITUDE_MIN__ = 47.5;
+	private static final double __STORE_LATITUDE_MAX__ = 54.5;
+
+	private static final double __STORE_LONGITUDE_MIN__ = 6.0;
+	private static final double __STORE_LONGITUDE_MAX__ = 15.0;
+
 	//
 
 	/** Random generator for product purchase price. */
@@ -76,6 +82,9 @@ final class DefaultEntityConfiguration implements IEntityConfiguration {
 	/** Random generator for order entry delivery date. */
 	private final RandomHelper __randomOrderEntryDeliveryDate = new RandomHelper();
 
+	/** Random generator for store coordinates. */
+	private final RandomHelper __randomStoreCoordinate = new RandomHelper();
+
 	//
 
 	@Override
@@ -88,6 +97,20 @@ final class DefaultEntityConfiguration implements IEntityConfiguration {
 		return "Location " + index;
 	}
 
+	@Override
+	public double getStoreLatitude(final int index) {
+		return __randomStoreCoordinate.uniformDoubleRange(
+				__STORE_LATITUDE_MIN__, __STORE_LATITUDE_MAX__
+				);
+	}
+
+	@Override
+	public double getStoreLongitude(final int index) {
+		return __randomStoreCoordinate.uniformDoubleRange(
+				__STORE_LONGITUDE_MIN__, __STORE_LONGITUDE_MAX__
+				);
+	}
+
 	@Override
 	public String getStoreName(final int index) {
 		return "Store" + index;
@@ -86,6 +86,8 @@ final class EntityGenerator {
 				final Store store = new Store();
 				store.setName(__config.getStoreName(index));
 				store.setLocation(__config.getStoreLocation(index));
+				store.setLatitude(__config.getStoreLatitude(index));
+				store.setLongitude(__config.getStoreLongitude(index));
 				store.setStockItems(Lists.<StockItem> newArrayList());
 				store.setProductOrders(Lists.<ProductOrder> newArrayList());
 
@@ -35,6 +35,10 @@ interface IEntityConfiguration {
 
 	String getStoreLocation(int index);
 
+	double getStoreLatitude(int index);
+
+	double getStoreLongitude(int index);
+
 	String getStoreName(int index);
 
 	String getSupplierName(String prefix, int index);
@@ -0,0 +1,147 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.data.persistence;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Provides access to the second-level cache statistics collected by Hibernate.
+ * The statistics are only collected when the
+ * {@code hibernate.generate_statistics} property is enabled in the persistence
+ * unit.
+ */
+public final class CacheStatistics implements CacheStatisticsMBean {
+
+	private static final Logger __log__ = Logger.getLogger(CacheStatistics.class);
+
+	//
+
+	private final Statistics __statistics;
+
+	//
+
+	private CacheStatistics(final SessionFactory sessionFactory) {
+		__statistics = sessionFactory.getStatistics();
+	}
+
+	//
+
+	/**
+	 * Registers a cache statistics MBean for the given entity manager factory
+	 * with the platform MBean server. Failure to register the MBean is not
+	 * considered fatal, because the statistics only serve monitoring purposes.
+	 * 
+	 * @param emf
+	 *            entity manager factory to provide the statistics for
+	 * @param unitName
+	 *            name of the persistence unit, used to name the MBean
+	 */
+	public static void register(
+			final EntityManagerFactory emf, final String unitName
+			) {
+		if (!(emf instanceof HibernateEntityManagerFactory)) {
+			__log__.warn("Cache statistics only available for Hibernate persistence units");
+			return;
+		}
+
+		final SessionFactory sessionFactory =
+				((HibernateEntityManagerFactory) emf).getSessionFactory();
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new CacheStatistics(sessionFactory), new ObjectName(
+							"org.cocome.tradingsystem:type=CacheStatistics,name=" + unitName
+							));
+
+		} catch (final Exception e) {
+			__log__.warn("Failed to register cache statistics MBean: " + e.getMessage());
+		}
+	}
+
+	//
+
+	@Override
+	public String[] getRegionNames() {
+		return __statistics.getSecondLevelCacheRegionNames();
+	}
+
+	@Override
+	public String[] getRegionSummaries() {
+		final String[] regionNames = getRegionNames();
+		final String[] result = new String[regionNames.length];
+
+		for (int i = 0; i < regionNames.length; i++) {
+			final SecondLevelCacheStatistics stats =
+					__statistics.getSecondLevelCacheStatistics(regionNames[i]);
+
+			result[i] = String.format(
+					"%s: hits %d, misses %d, puts %d, elements %d",
+					regionNames[i], stats.getHitCount(), stats.getMissCount(),
+					stats.getPutCount(), stats.getElementCountInMemory()
+					);
+		}
+
+		return result;
+	}
+
+	@Override
+	public long getHitCount(final String regionName) {
+		final SecondLevelCacheStatistics stats = __getRegion(regionName);
+		return (stats != null) ? stats.getHitCount() : 0;
+	}
+
+	@Override
+	public long getMissCount(final String regionName) {
+		final SecondLevelCacheStatistics stats = __getRegion(regionName);
+		return (stats != null) ? stats.getMissCount() : 0;
+	}
+
+	@Override
+	public long getElementCount(final String regionName) {
+		final SecondLevelCacheStatistics stats = __getRegion(regionName);
+		return (stats != null) ? stats.getElementCountInMemory() : 0;
+	}
+
+	private SecondLevelCacheStatistics __getRegion(final String regionName) {
+		return __statistics.getSecondLevelCacheStatistics(regionName);
+	}
+
+	@Override
+	public long getQueryCacheHitCount() {
+		return __statistics.getQueryCacheHitCount();
+	}
+
+	@Override
+	public long getQueryCacheMissCount() {
+		return __statistics.getQueryCacheMissCount();
+	}
+
+	@Override
+	public void clear() {
+		__statistics.clear();
+	}
+
+}
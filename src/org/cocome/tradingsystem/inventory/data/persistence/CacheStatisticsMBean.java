@@ -0,0 +1,65 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.data.persistence;
+
+/**
+ * Management interface of the {@link CacheStatistics}. Exposes hit and miss
+ * counters of the second-level cache regions via JMX.
+ */
+public interface CacheStatisticsMBean {
+
+	/**
+	 * @return names of all second-level cache regions
+	 */
+	String[] getRegionNames();
+
+	/**
+	 * @return one line summary of each second-level cache region
+	 */
+	String[] getRegionSummaries();
+
+	/**
+	 * @return number of cache hits in the given region
+	 */
+	long getHitCount(String regionName);
+
+	/**
+	 * @return number of cache misses in the given region
+	 */
+	long getMissCount(String regionName);
+
+	/**
+	 * @return number of elements held in memory by the given region
+	 */
+	long getElementCount(String regionName);
+
+	/**
+	 * @return total number of query cache hits
+	 */
+	long getQueryCacheHitCount();
+
+	/**
+	 * @return total number of query cache misses
+	 */
+	long getQueryCacheMissCount();
+
+	/**
+	 * Resets all statistics counters.
+	 */
+	void clear();
+
+}
@@ -0,0 +1,328 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.data.persistence;
+
+import java.beans.PropertyVetoException;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * Hibernate connection provider backed by a c3p0 connection pool. In addition
+ * to plain pooling, the provider keeps track of connections checked out of the
+ * pool to measure the time spent waiting for a connection and to detect
+ * connections that are held for suspiciously long time. The statistics are
+ * exposed via JMX through the {@link PooledConnectionProviderMBean} interface.
+ * <p>
+ * The provider is configured using the standard {@code hibernate.connection.*} properties, and the following pool-specific properties:
+ * <ul>
+ * <li>{@code cocome.pool.min_size} - minimal number of pooled connections
+ * <li>{@code cocome.pool.max_size} - maximal number of pooled connections
+ * <li>{@code cocome.pool.checkout_timeout} - time (in milliseconds) to wait for a connection before failing
+ * <li>{@code cocome.pool.max_statements} - size of the prepared statement cache
+ * <li>{@code cocome.pool.leak_threshold} - time (in milliseconds) after which a checked out connection is reported as a suspected leak
+ * </ul>
+ */
+public final class PooledConnectionProvider
+		implements ConnectionProvider, PooledConnectionProviderMBean {
+
+	private static final Logger __log__ =
+			Logger.getLogger(PooledConnectionProvider.class);
+
+	//
+
+	public static final String MIN_SIZE = "cocome.pool.min_size";
+
+	public static final String MAX_SIZE = "cocome.pool.max_size";
+
+	public static final String CHECKOUT_TIMEOUT = "cocome.pool.checkout_timeout";
+
+	public static final String MAX_STATEMENTS = "cocome.pool.max_statements";
+
+	public static final String LEAK_THRESHOLD = "cocome.pool.leak_threshold";
+
+	//
+
+	/**
+	 * Holds information about a connection checked out of the pool.
+	 */
+	private static final class Checkout {
+		final long since = System.currentTimeMillis();
+		final String threadName = Thread.currentThread().getName();
+		boolean reported;
+	}
+
+	//
+
+	private ComboPooledDataSource __dataSource;
+
+	private ObjectName __objectName;
+
+	private Timer __leakDetector;
+
+	private long __leakThreshold;
+
+	private final Map<Connection, Checkout> __checkouts =
+			new ConcurrentHashMap<Connection, Checkout>();
+
+	//
+
+	private final AtomicLong __checkoutCount = new AtomicLong();
+
+	private final AtomicLong __totalWaitNanos = new AtomicLong();
+
+	private final AtomicLong __maxWaitNanos = new AtomicLong();
+
+	private final AtomicLong __suspectedLeakCount = new AtomicLong();
+
+	//
+
+	@Override
+	public void configure(final Properties props) throws HibernateException {
+		final ComboPooledDataSource ds = new ComboPooledDataSource();
+
+		try {
+			ds.setDriverClass(props.getProperty(Environment.DRIVER));
+
+		} catch (final PropertyVetoException pve) {
+			throw new HibernateException("Invalid JDBC driver class", pve);
+		}
+
+		ds.setJdbcUrl(props.getProperty(Environment.URL));
+		ds.setUser(props.getProperty(Environment.USER));
+		ds.setPassword(props.getProperty(Environment.PASS));
+
+		final int minSize = __getInt(props, MIN_SIZE, 2);
+		ds.setMinPoolSize(minSize);
+		ds.setInitialPoolSize(minSize);
+		ds.setMaxPoolSize(__getInt(props, MAX_SIZE, 20));
+		ds.setCheckoutTimeout(__getInt(props, CHECKOUT_TIMEOUT, 30000));
+		ds.setMaxStatements(__getInt(props, MAX_STATEMENTS, 100));
+
+		__dataSource = ds;
+
+		//
+
+		__leakThreshold = __getInt(props, LEAK_THRESHOLD, 60000);
+		if (__leakThreshold > 0) {
+			__leakDetector = new Timer("Connection leak detector", true);
+			__leakDetector.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					__detectLeaks();
+				}
+			}, __leakThreshold, __leakThreshold / 2 + 1);
+		}
+
+		__registerMBean();
+
+		__log__.info(String.format(
+				"Connection pool for %s configured with %d-%d connections",
+				ds.getJdbcUrl(), ds.getMinPoolSize(), ds.getMaxPoolSize()
+				));
+	}
+
+	private static int __getInt(
+			final Properties props, final String name, final int defaultValue
+			) {
+		final String value = props.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+
+		} catch (final NumberFormatException nfe) {
+			__log__.warn(String.format(
+					"Invalid value '%s' of %s, using %d", value, name, defaultValue
+					));
+			return defaultValue;
+		}
+	}
+
+	private void __registerMBean() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(String.format(
+					"org.cocome.tradingsystem:type=ConnectionPool,id=%d",
+					System.identityHashCode(this)
+					));
+
+			server.registerMBean(this, name);
+			__objectName = name;
+
+		} catch (final Exception e) {
+			__log__.warn("Failed to register connection pool MBean: " + e.getMessage());
+		}
+	}
+
+	//
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		final long startTime = System.nanoTime();
+		final Connection result = __dataSource.getConnection();
+		final long waitTime = System.nanoTime() - startTime;
+
+		__checkoutCount.incrementAndGet();
+		__totalWaitNanos.addAndGet(waitTime);
+		__updateMaxWait(waitTime);
+
+		__checkouts.put(result, new Checkout());
+		return result;
+	}
+
+	private void __updateMaxWait(final long waitTime) {
+		long maxWait = __maxWaitNanos.get();
+		while (waitTime > maxWait) {
+			if (__maxWaitNanos.compareAndSet(maxWait, waitTime)) {
+				break;
+			}
+
+			maxWait = __maxWaitNanos.get();
+		}
+	}
+
+	@Override
+	public void closeConnection(final Connection connection) throws SQLException {
+		final Checkout checkout = __checkouts.remove(connection);
+		if (checkout != null && checkout.reported) {
+			__log__.info(String.format(
+					"Suspected leaked connection returned by %s after %d ms",
+					checkout.threadName, System.currentTimeMillis() - checkout.since
+					));
+		}
+
+		connection.close();
+	}
+
+	private void __detectLeaks() {
+		final long now = System.currentTimeMillis();
+		for (final Checkout checkout : __checkouts.values()) {
+			if (!checkout.reported && now - checkout.since > __leakThreshold) {
+				checkout.reported = true;
+				__suspectedLeakCount.incrementAndGet();
+
+				__log__.warn(String.format(
+						"Connection held by %s for more than %d ms, possible leak",
+						checkout.threadName, now - checkout.since
+						));
+			}
+		}
+	}
+
+	@Override
+	public void close() throws HibernateException {
+		if (__leakDetector != null) {
+			__leakDetector.cancel();
+		}
+
+		if (__objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(__objectName);
+
+			} catch (final Exception e) {
+				// ignore, the pool is going away anyway
+			}
+		}
+
+		try {
+			__dataSource.close();
+
+		} catch (final SQLException sqle) {
+			throw new HibernateException("Failed to close connection pool", sqle);
+		}
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	//
+	// PooledConnectionProviderMBean
+	//
+
+	@Override
+	public int getMinPoolSize() {
+		return __dataSource.getMinPoolSize();
+	}
+
+	@Override
+	public int getMaxPoolSize() {
+		return __dataSource.getMaxPoolSize();
+	}
+
+	@Override
+	public int getBusyConnections() {
+		try {
+			return __dataSource.getNumBusyConnectionsDefaultUser();
+
+		} catch (final SQLException sqle) {
+			return -1;
+		}
+	}
+
+	@Override
+	public int getIdleConnections() {
+		try {
+			return __dataSource.getNumIdleConnectionsDefaultUser();
+
+		} catch (final SQLException sqle) {
+			return -1;
+		}
+	}
+
+	@Override
+	public long getCheckoutCount() {
+		return __checkoutCount.get();
+	}
+
+	@Override
+	public double getAverageWaitMillis() {
+		final long count = __checkoutCount.get();
+		return (count > 0) ? __totalWaitNanos.get() / (count * 1e6) : 0.0;
+	}
+
+	@Override
+	public double getMaxWaitMillis() {
+		return __maxWaitNanos.get() / 1e6;
+	}
+
+	@Override
+	public long getSuspectedLeakCount() {
+		return __suspectedLeakCount.get();
+	}
+
+}
@@ -0,0 +1,66 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.data.persistence;
+
+/**
+ * Management interface of the {@link PooledConnectionProvider}. Exposes the
+ * pool configuration and usage statistics via JMX.
+ */
+public interface PooledConnectionProviderMBean {
+
+	/**
+	 * @return minimal number of pooled connections
+	 */
+	int getMinPoolSize();
+
+	/**
+	 * @return maximal number of pooled connections
+	 */
+	int getMaxPoolSize();
+
+	/**
+	 * @return number of connections currently checked out of the pool
+	 */
+	int getBusyConnections();
+
+	/**
+	 * @return number of idle connections in the pool
+	 */
+	int getIdleConnections();
+
+	/**
+	 * @return total number of connection checkouts since the pool was created
+	 */
+	long getCheckoutCount();
+
+	/**
+	 * @return average time (in milliseconds) spent waiting for a connection
+	 */
+	double getAverageWaitMillis();
+
+	/**
+	 * @return maximal time (in milliseconds) spent waiting for a connection
+	 */
+	double getMaxWaitMillis();
+
+	/**
+	 * @return number of connections that have been held longer than the leak
+	 *         detection threshold
+	 */
+	long getSuspectedLeakCount();
+
+}
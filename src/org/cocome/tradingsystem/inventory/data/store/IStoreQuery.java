@@ -24,6 +24,7 @@ import javax.persistence.NonUniqueResultException;
 import org.cocome.tradingsystem.inventory.application.store.IStoreInventory;
 import org.cocome.tradingsystem.inventory.application.store.IStoreInventoryManager;
 import org.cocome.tradingsystem.inventory.data.enterprise.Product;
+import org.cocome.tradingsystem.inventory.data.enterprise.TradingEnterprise;
 import org.cocome.tradingsystem.inventory.data.persistence.IPersistenceContext;
 
 /**
@@ -133,6 +134,26 @@ public interface IStoreQuery {
 	 */
 	ProductOrder queryOrderById(long orderId, IPersistenceContext pctx);
 
+	/**
+	 * Returns the stock of the given products in all stores of the given
+	 * enterprise. The stores and products of the returned stock items are
+	 * fetched along with the stock items. Large sets of products are queried
+	 * in chunks using parameterized queries.
+	 * 
+	 * @param enterpriseId
+	 *            unique identifier of a {@link TradingEnterprise} entity
+	 * @param productIds
+	 *            {@link Product} entity identifiers to look up in the stock
+	 * @param pctx
+	 *            the persistence context
+	 * @return
+	 *         The products as StockItems (including amounts) in all stores
+	 *         of the enterprise
+	 */
+	Collection<StockItem> queryEnterpriseStockItemsByProductId(
+			long enterpriseId, long[] productIds, IPersistenceContext pctx
+			);
+
 	//
 	// Queries limited to a given store.
 	//
@@ -221,4 +242,64 @@ public interface IStoreQuery {
 			long storeId, long[] productIds, IPersistenceContext pctx
 			);
 
+	/**
+	 * Queries the database for stock items of products with the given barcodes
+	 * in the given store. The products and the store are fetched along with the
+	 * stock items. Barcodes without a stock item in the store are ignored.
+	 * 
+	 * @param storeId
+	 *            unique identifier of a {@link Store} entity
+	 * @param productBarcodes
+	 *            barcodes of the products to look up in the stock
+	 * @param pctx
+	 *            the persistence context
+	 * @return
+	 *         The stock items found for the given barcodes
+	 */
+	Collection<StockItem> queryStockItemsByBarcode(
+			long storeId, long[] productBarcodes, IPersistenceContext pctx
+			);
+
+	/**
+	 * Queries the database for those of the given stock item identifiers
+	 * which identify stock items in the given store. Identifiers of unknown
+	 * stock items, or of stock items in other stores, are left out.
+	 * 
+	 * @param storeId
+	 *            unique identifier of a {@link Store} entity
+	 * @param stockItemIds
+	 *            {@link StockItem} entity identifiers to look up in the store
+	 * @param pctx
+	 *            the persistence context
+	 * @return
+	 *         The identifiers of the stock items found in the store
+	 */
+	Collection<Long> queryStockItemIds(
+			long storeId, long[] stockItemIds, IPersistenceContext pctx
+			);
+
+	/**
+	 * Decreases the amount of the specified stock items in the given store
+	 * by the same amount. The update is performed directly in the database
+	 * using bulk update statements, one for every few hundred stock items,
+	 * bypassing the persistence context.
+	 * Stock items already loaded into the persistence context are therefore
+	 * not affected by the update.
+	 * 
+	 * @param storeId
+	 *            unique identifier of a {@link Store} entity
+	 * @param stockItemIds
+	 *            identifiers of the {@link StockItem} entities to update
+	 * @param amount
+	 *            the amount to subtract from the stock of each item
+	 * @param pctx
+	 *            the persistence context
+	 * @return
+	 *         The number of stock items updated.
+	 */
+	int decreaseStockAmounts(
+			long storeId, Collection<Long> stockItemIds, long amount,
+			IPersistenceContext pctx
+			);
+
 }
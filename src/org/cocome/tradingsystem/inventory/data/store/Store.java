@@ -44,6 +44,10 @@ public class Store {
 
 	private String location;
 
+	private Double latitude;
+
+	private Double longitude;
+
 	private TradingEnterprise enterprise;
 
 	private Collection<ProductOrder> productOrders;
@@ -107,6 +111,46 @@ public class Store {
 		this.location = location;
 	}
 
+	/**
+	 * Returns the latitude of the store location in degrees.
+	 * 
+	 * @return Store latitude, or {@code null} if unknown.
+	 */
+	@Basic
+	public Double getLatitude() {
+		return this.latitude;
+	}
+
+	/**
+	 * Sets the latitude of the store location.
+	 * 
+	 * @param latitude
+	 *            store latitude in degrees, or {@code null} if unknown
+	 */
+	public void setLatitude(final Double latitude) {
+		this.latitude = latitude;
+	}
+
+	/**
+	 * Returns the longitude of the store location in degrees.
+	 * 
+	 * @return Store longitude, or {@code null} if unknown.
+	 */
+	@Basic
+	public Double getLongitude() {
+		return this.longitude;
+	}
+
+	/**
+	 * Sets the longitude of the store location.
+	 * 
+	 * @param longitude
+	 *            store longitude in degrees, or {@code null} if unknown
+	 */
+	public void setLongitude(final Double longitude) {
+		this.longitude = longitude;
+	}
+
 	/**
 	 * @return The enterprise which the Store belongs to
 	 */
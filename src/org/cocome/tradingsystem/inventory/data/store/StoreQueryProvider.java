@@ -16,8 +16,11 @@
 
 package org.cocome.tradingsystem.inventory.data.store;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -38,6 +41,19 @@ public final class StoreQueryProvider implements IStoreQuery {
 
 	private static final Logger __log__ = Logger.getLogger(StoreQueryProvider.class);
 
+	/**
+	 * Query cache region for lookups of catalog entities, i.e., entities that
+	 * rarely change. The region is configured in {@code ehcache.xml}.
+	 */
+	private static final String __CATALOG_QUERY_REGION__ =
+			"org.cocome.tradingsystem.inventory.data.CatalogQueries";
+
+	/**
+	 * Maximal number of identifiers bound to a single {@code IN} parameter.
+	 * Larger sets of identifiers are queried in chunks.
+	 */
+	private static final int __MAX_IN_LIST_SIZE__ = 256;
+
 	//
 	// Global queries
 	//
@@ -54,6 +70,7 @@ public final class StoreQueryProvider implements IStoreQuery {
 
 		query.setParameter(1, name);
 		query.setParameter(2, location);
+		__makeCacheable(query);
 
 		//
 		// Return null if the store cannot be found
@@ -104,6 +121,25 @@ public final class StoreQueryProvider implements IStoreQuery {
 		return __getEntityById(Product.class, productId, pctx);
 	}
 
+	@Override
+	public Collection<StockItem> queryEnterpriseStockItemsByProductId(
+			final long enterpriseId, final long[] productIds, final IPersistenceContext pctx
+			) {
+		final EntityManager em = __getEntityManager(pctx);
+		final Query query = em.createQuery(
+				"SELECT stockItem FROM StockItem AS stockItem " +
+						"JOIN FETCH stockItem.store AS store " +
+						"JOIN FETCH stockItem.product AS product " +
+						"WHERE store.enterprise.id = :enterpriseId AND product.id IN (:productIds)"
+				);
+
+		query.setParameter("enterpriseId", enterpriseId);
+
+		final Collection<StockItem> result = __queryByIds(query, "productIds", productIds);
+		__debug("%d stock items found in stores of enterprise %d", result.size(), enterpriseId);
+		return result;
+	}
+
 	//
 	// Queries limited to a given store.
 	//
@@ -206,18 +242,74 @@ public final class StoreQueryProvider implements IStoreQuery {
 			final long storeId, final long barcode,
 			final IPersistenceContext pctx
 			) {
+		__debug("looking for stock item with product barcode %d in store %d", barcode, storeId);
+
+		//
+		// Resolve the stock item in a single round trip to the database,
+		// fetching the product and the store along with the stock item.
+		//
 		final EntityManager em = __getEntityManager(pctx);
+		final Query query = em.createQuery(
+				"SELECT stockItem FROM StockItem AS stockItem " +
+						"JOIN FETCH stockItem.product AS product " +
+						"JOIN FETCH stockItem.store AS store " +
+						"WHERE store.id = ?1 AND product.barcode = ?2"
+				);
 
-		final Product product = __queryProduct(barcode, em);
-		if (product != null) {
-			final Store store = queryStoreById(storeId, pctx);
-			return __queryStockItem(store, product, em);
+		query.setParameter(1, storeId);
+		query.setParameter(2, barcode);
 
-		} else {
+		//
+		// Return null if the stock item cannot be found
+		//
+		try {
+			return (StockItem) query.getSingleResult();
+
+		} catch (final NoResultException nre) {
+			__debug("no stock item with product barcode %d in store %d", barcode, storeId);
 			return null;
 		}
 	}
 
+	@Override
+	public Collection<StockItem> queryStockItemsByBarcode(
+			final long storeId, final long[] productBarcodes,
+			final IPersistenceContext pctx
+			) {
+		final EntityManager em = __getEntityManager(pctx);
+		final Query query = em.createQuery(
+				"SELECT stockItem FROM StockItem AS stockItem " +
+						"JOIN FETCH stockItem.product AS product " +
+						"JOIN FETCH stockItem.store AS store " +
+						"WHERE store.id = :storeId AND product.barcode IN (:barcodes)"
+				);
+
+		query.setParameter("storeId", storeId);
+
+		final Collection<StockItem> result = __queryByIds(query, "barcodes", productBarcodes);
+		__debug("%d stock items found for %d barcodes in store %d",
+				result.size(), productBarcodes.length, storeId);
+		return result;
+	}
+
+	@Override
+	public Collection<Long> queryStockItemIds(
+			final long storeId, final long[] stockItemIds, final IPersistenceContext pctx
+			) {
+		final EntityManager em = __getEntityManager(pctx);
+		final Query query = em.createQuery(
+				"SELECT stockItem.id FROM StockItem AS stockItem " +
+						"WHERE stockItem.store.id = :storeId AND stockItem.id IN (:stockItemIds)"
+				);
+
+		query.setParameter("storeId", storeId);
+
+		final Collection<Long> result = __queryByIds(query, "stockItemIds", stockItemIds);
+		__debug("%d of %d stock items found in store %d",
+				result.size(), stockItemIds.length, storeId);
+		return result;
+	}
+
 	private Product __queryProduct(
 			final long barcode, final EntityManager em
 			) {
@@ -227,6 +319,7 @@ public final class StoreQueryProvider implements IStoreQuery {
 				);
 
 		query.setParameter(1, barcode);
+		__makeCacheable(query);
 
 		//
 		// Return null if the product cannot be found
@@ -240,84 +333,144 @@ public final class StoreQueryProvider implements IStoreQuery {
 		}
 	}
 
-	private StockItem __queryStockItem(
-			final Store store, final Product product, final EntityManager em
+	@Override
+	public Collection<StockItem> queryStockItemsByProductId(
+			final long storeId, final long[] productIds, final IPersistenceContext pctx
 			) {
-		__debug(
-				"looking for stock item with product barcode %d in %s, id %d",
-				product.getBarcode(), store.getName(), store.getId());
-
+		final EntityManager em = __getEntityManager(pctx);
 		final Query query = em.createQuery(
 				"SELECT stockItem FROM StockItem AS stockItem " +
-						"WHERE stockItem.store = ?1 AND stockItem.product = ?2"
+						"WHERE stockItem.store.id = :storeId AND stockItem.product.id IN (:productIds)"
 				);
 
-		query.setParameter(1, store);
-		query.setParameter(2, product);
+		query.setParameter("storeId", storeId);
 
-		//
-		// Return null if the stock item cannot be found
-		//
-		try {
-			return (StockItem) query.getSingleResult();
+		final Collection<StockItem> result = __queryByIds(query, "productIds", productIds);
 
-		} catch (final NoResultException nre) {
-			__debug(
-					"no stock item with product barcode %d in %s, id %d",
-					product.getBarcode(), store.getName(), store.getId());
-			return null;
+		__debug("%d stock items found in store %d", result.size(), storeId);
+		for (final StockItem stockItem : result) {
+			__debug("\tproduct %d, amount %d, min stock %d",
+					stockItem.getProduct().getBarcode(),
+					stockItem.getAmount(), stockItem.getMinStock());
 		}
+		return result;
 	}
 
 	@Override
-	public Collection<StockItem> queryStockItemsByProductId(
-			final long storeId, final long[] productIds, final IPersistenceContext pctx
+	public int decreaseStockAmounts(
+			final long storeId, final Collection<Long> stockItemIds, final long amount,
+			final IPersistenceContext pctx
 			) {
-		//
-		// Build query for the given product identifiers.
-		// This requires non-empty productIds array.
-		//
-		if (productIds.length < 1) {
-			return Collections.emptyList();
+		if (stockItemIds.isEmpty()) {
+			return 0;
 		}
 
 		final EntityManager em = __getEntityManager(pctx);
+		final Query query = em.createQuery(
+				"UPDATE StockItem AS stockItem " +
+						"SET stockItem.amount = stockItem.amount - :amount " +
+						"WHERE stockItem.store.id = :storeId AND stockItem.id IN (:stockItemIds)"
+				);
 
-		final Query query = em.createQuery(String.format(
-				"SELECT stockitem FROM StockItem AS stockitem WHERE stockitem.store = ?1 AND (%s)",
-				__buildProductsExpression(productIds)
-				));
+		query.setParameter("amount", amount);
+		query.setParameter("storeId", storeId);
 
-		query.setParameter(1, queryStoreById(storeId, pctx));
+		final long[] ids = new long[stockItemIds.size()];
+		int index = 0;
+		for (final Long stockItemId : stockItemIds) {
+			ids[index++] = stockItemId;
+		}
 
-		//
-		// The following cast is safe: query result is a list of stock items
-		//
-		@SuppressWarnings("unchecked")
-		final Collection<StockItem> result = query.getResultList();
+		int result = 0;
+		for (final List<Long> chunk : __chunkIds(ids)) {
+			query.setParameter("stockItemIds", chunk);
+			result += query.executeUpdate();
+		}
 
-		__debug("%d stock items found in store %d", result.size(), storeId);
-		for (final StockItem stockItem : result) {
-			__debug("\tproduct %d, amount %d, min stock %d",
-					stockItem.getProduct().getBarcode(),
-					stockItem.getAmount(), stockItem.getMinStock());
+		__debug("stock of %d items in store %d decreased by %d", result, storeId, amount);
+		return result;
+	}
+
+	/**
+	 * Executes the given query with the given identifiers bound to the given
+	 * {@code IN} list parameter, and returns the combined results. The
+	 * identifiers are split into chunks by {@link #__chunkIds(long[])}, so
+	 * that no entity is returned more than once.
+	 */
+	private <E> List<E> __queryByIds(
+			final Query query, final String parameterName, final long[] queryIds
+			) {
+		final List<E> result = new ArrayList<E>();
+		for (final List<Long> chunk : __chunkIds(queryIds)) {
+			query.setParameter(parameterName, chunk);
+
+			//
+			// The following cast is safe: the query result is a list of
+			// entities of the type expected by the caller.
+			//
+			@SuppressWarnings("unchecked")
+			final List<E> chunkResult = query.getResultList();
+			result.addAll(chunkResult);
 		}
+
 		return result;
 	}
 
-	private String __buildProductsExpression(final long[] productIds) {
-		final StringBuilder result = new StringBuilder();
+	/**
+	 * Splits the given identifiers into chunks to be bound to an {@code IN}
+	 * list parameter. Large sets of identifiers are split into chunks to keep
+	 * the size of the generated SQL statements bounded. Chunks are padded (by
+	 * repeating the last identifier) to a power of two, which keeps the number
+	 * of distinct statements, and thus prepared statements, low. Duplicate
+	 * identifiers are removed first, so that each identifier appears in
+	 * exactly one chunk.
+	 */
+	private static List<List<Long>> __chunkIds(final long[] queryIds) {
+		final long[] ids = __uniqueSorted(queryIds);
+		final List<List<Long>> result = new ArrayList<List<Long>>(
+				(ids.length + __MAX_IN_LIST_SIZE__ - 1) / __MAX_IN_LIST_SIZE__
+				);
+
+		for (int start = 0; start < ids.length; start += __MAX_IN_LIST_SIZE__) {
+			final int end = Math.min(ids.length, start + __MAX_IN_LIST_SIZE__);
+			final int chunkSize = Integer.highestOneBit(end - start - 1) << 1;
 
-		String logicalOr = "";
-		for (final long productId : productIds) {
-			result.append(logicalOr);
-			result.append("stockitem.product.id = ");
-			result.append(productId);
+			final List<Long> chunk = new ArrayList<Long>(Math.max(1, chunkSize));
+			for (int index = start; index < end; index++) {
+				chunk.add(ids[index]);
+			}
 
-			logicalOr = " OR ";
+			while (chunk.size() < chunkSize) {
+				chunk.add(ids[end - 1]);
+			}
+
+			result.add(chunk);
 		}
 
-		return result.toString();
+		return result;
+	}
+
+	/**
+	 * Returns a sorted copy of the given identifiers without duplicates.
+	 */
+	private static long[] __uniqueSorted(final long[] ids) {
+		final long[] sorted = ids.clone();
+		Arrays.sort(sorted);
+
+		int count = 0;
+		for (int index = 0; index < sorted.length; index++) {
+			if (count == 0 || sorted[count - 1] != sorted[index]) {
+				sorted[count++] = sorted[index];
+			}
+		}
+
+		if (count == sorted.length) {
+			return sorted;
+		}
+
+		final long[] result = new long[count];
+		System.arraycopy(sorted, 0, result, 0, count);
+		return result;
 	}
 
 	//
@@ -331,6 +484,11 @@ public final class StoreQueryProvider implements IStoreQuery {
 		return em.getReference(entityClass, entityId);
 	}
 
+	private void __makeCacheable(final Query query) {
+		query.setHint("org.hibernate.cacheable", Boolean.TRUE);
+		query.setHint("org.hibernate.cacheRegion", __CATALOG_QUERY_REGION__);
+	}
+
 	private EntityManager __getEntityManager(final IPersistenceContext pctx) {
 		// XXX There should be no need to escape the PersistenceContext interface
 		return ((EntityPersistenceContext) pctx).getEntityManager();
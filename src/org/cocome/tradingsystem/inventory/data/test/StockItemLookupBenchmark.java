@@ -0,0 +1,171 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.inventory.data.test;
+
+import java.util.Collection;
+
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.Query;
+
+import org.cocome.tradingsystem.inventory.data.DataFactory;
+import org.cocome.tradingsystem.inventory.data.enterprise.Product;
+import org.cocome.tradingsystem.inventory.data.persistence.EntityPersistenceContext;
+import org.cocome.tradingsystem.inventory.data.persistence.IPersistenceContext;
+import org.cocome.tradingsystem.inventory.data.persistence.TransactionWrapper;
+import org.cocome.tradingsystem.inventory.data.persistence.TransactionWrapper.Operation;
+import org.cocome.tradingsystem.inventory.data.store.IStoreQuery;
+import org.cocome.tradingsystem.inventory.data.store.StockItem;
+import org.cocome.tradingsystem.inventory.data.store.Store;
+
+/**
+ * Measures the latency of looking up a stock item by store and product
+ * barcode, which is what the cash desk does for every scanned item. Compares
+ * the original lookup, which needed three queries, to the single query lookup
+ * provided by {@link IStoreQuery#queryStockItem(long, long, IPersistenceContext)}.
+ * <p>
+ * Requires a running and populated database. Usage:
+ * 
+ * <pre>
+ * StockItemLookupBenchmark [store id] [iterations]
+ * </pre>
+ */
+public final class StockItemLookupBenchmark {
+
+	private static final IStoreQuery __storeQuery__ =
+			DataFactory.getInstance().getStoreQuery();
+
+	//
+
+	private interface Lookup {
+		StockItem lookup(long storeId, long barcode, IPersistenceContext pctx);
+	}
+
+	//
+
+	private static final Lookup __legacyLookup__ = new Lookup() {
+		@Override
+		public StockItem lookup(
+				final long storeId, final long barcode, final IPersistenceContext pctx
+				) {
+			final EntityManager em = ((EntityPersistenceContext) pctx).getEntityManager();
+
+			final Query productQuery = em.createQuery(
+					"SELECT product FROM Product AS product WHERE product.barcode = ?1"
+					);
+			productQuery.setParameter(1, barcode);
+
+			final Query stockItemQuery = em.createQuery(
+					"SELECT stockItem FROM StockItem AS stockItem " +
+							"WHERE stockItem.store = ?1 AND stockItem.product = ?2"
+					);
+
+			try {
+				final Product product = (Product) productQuery.getSingleResult();
+				final Store store = __storeQuery__.queryStoreById(storeId, pctx);
+
+				stockItemQuery.setParameter(1, store);
+				stockItemQuery.setParameter(2, product);
+				return (StockItem) stockItemQuery.getSingleResult();
+
+			} catch (final NoResultException nre) {
+				return null;
+			}
+		}
+	};
+
+	private static final Lookup __singleQueryLookup__ = new Lookup() {
+		@Override
+		public StockItem lookup(
+				final long storeId, final long barcode, final IPersistenceContext pctx
+				) {
+			return __storeQuery__.queryStockItem(storeId, barcode, pctx);
+		}
+	};
+
+	//
+
+	public static void main(final String[] args) {
+		final long storeId = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+		final int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+
+		final long[] barcodes = __getBarcodes(storeId);
+		if (barcodes.length == 0) {
+			System.err.printf("No stock items found in store %d\n", storeId);
+			return;
+		}
+
+		//
+		// Warm up both lookup paths before measuring.
+		//
+		__measure(__legacyLookup__, storeId, barcodes, iterations);
+		__measure(__singleQueryLookup__, storeId, barcodes, iterations);
+
+		System.out.printf(
+				"legacy lookup: %.1f us per scan\n",
+				__measure(__legacyLookup__, storeId, barcodes, iterations)
+				);
+		System.out.printf(
+				"single query lookup: %.1f us per scan\n",
+				__measure(__singleQueryLookup__, storeId, barcodes, iterations)
+				);
+	}
+
+	private static long[] __getBarcodes(final long storeId) {
+		return TransactionWrapper.execute(new Operation<long[]>() {
+			@Override
+			public long[] execute(final IPersistenceContext pctx) {
+				final Collection<StockItem> stockItems =
+						__storeQuery__.queryAllStockItems(storeId, pctx);
+
+				final long[] result = new long[stockItems.size()];
+				int index = 0;
+				for (final StockItem stockItem : stockItems) {
+					result[index++] = stockItem.getProduct().getBarcode();
+				}
+
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Performs the given number of lookups, each in a separate transaction,
+	 * cycling through the given barcodes.
+	 * 
+	 * @return average time of a single lookup in microseconds
+	 */
+	private static double __measure(
+			final Lookup lookup, final long storeId, final long[] barcodes,
+			final int iterations
+			) {
+		final long startTime = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			final long barcode = barcodes[i % barcodes.length];
+			TransactionWrapper.execute(new Operation<StockItem>() {
+				@Override
+				public StockItem execute(final IPersistenceContext pctx) {
+					return lookup.lookup(storeId, barcode, pctx);
+				}
+			});
+		}
+
+		final long elapsed = System.nanoTime() - startTime;
+		return elapsed / (iterations * 1e3);
+	}
+
+}
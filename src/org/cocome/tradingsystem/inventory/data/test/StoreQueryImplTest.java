@@ -16,9 +16,14 @@
 
 package org.cocome.tradingsystem.inventory.data.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -26,6 +31,7 @@ import javax.persistence.Persistence;
 
 import org.cocome.tradingsystem.inventory.data.DataFactory;
 import org.cocome.tradingsystem.inventory.data.enterprise.Product;
+import org.cocome.tradingsystem.inventory.data.enterprise.TradingEnterprise;
 import org.cocome.tradingsystem.inventory.data.persistence.EntityPersistenceContext;
 import org.cocome.tradingsystem.inventory.data.store.ProductOrder;
 import org.cocome.tradingsystem.inventory.data.store.StockItem;
@@ -47,6 +53,9 @@ public final class StoreQueryImplTest {
 
 	private static IStoreQuery sq;
 
+	/** Next unused product barcode, products must have unique barcodes. */
+	private static long nextBarcode;
+
 	//
 
 	private EntityManager em = null;
@@ -65,6 +74,7 @@ public final class StoreQueryImplTest {
 	public static void setUpClass() {
 		emf = Persistence.createEntityManagerFactory("inventory-manager");
 		sq = DataFactory.getInstance().getStoreQuery();
+		nextBarcode = System.currentTimeMillis() * 1000;
 	}
 
 	@Before
@@ -90,6 +100,7 @@ public final class StoreQueryImplTest {
 		o1.setStore(s1);
 
 		p1 = new Product();
+		p1.setBarcode(nextBarcode++);
 		si2.setProduct(p1);
 
 		em.persist(s1);
@@ -168,4 +179,214 @@ public final class StoreQueryImplTest {
 		em.getTransaction().commit();
 	}
 
+	@Test
+	public void decreaseStockAmounts() {
+		final Store s2 = persistStore();
+		final List<StockItem> stockItems = persistStockItems(s1, persistProducts(300));
+		final StockItem foreign = persistStockItems(s2, persistProducts(1)).get(0);
+
+		//
+		// Pass every stock item twice, the foreign stock item must not be
+		// updated.
+		//
+		final List<Long> stockItemIds = new ArrayList<Long>();
+		for (final StockItem stockItem : stockItems) {
+			stockItemIds.add(stockItem.getId());
+			stockItemIds.add(stockItem.getId());
+		}
+
+		stockItemIds.add(foreign.getId());
+
+		em.getTransaction().begin();
+		final int result = sq.decreaseStockAmounts(
+				s1.getId(), stockItemIds, 3, new EntityPersistenceContext(em)
+				);
+
+		em.getTransaction().commit();
+		em.clear();
+
+		assertEquals(300, result);
+		for (final StockItem stockItem : stockItems) {
+			assertEquals(97L, em.find(StockItem.class, stockItem.getId()).getAmount());
+		}
+
+		assertEquals(100L, em.find(StockItem.class, foreign.getId()).getAmount());
+	}
+
+	@Test
+	public void queryEnterpriseStockItemsByProductId() {
+		final TradingEnterprise enterprise = persistEnterprise();
+		final Store s2 = persistStore(enterprise);
+		final Store s3 = persistStore(enterprise);
+
+		final List<Product> products = persistProducts(300);
+		final Set<Long> expectedIds = new HashSet<Long>();
+		expectedIds.addAll(getIds(persistStockItems(s2, products)));
+		expectedIds.addAll(getIds(persistStockItems(s3, products.subList(0, 5))));
+
+		// stock items of the same products outside the enterprise
+		persistStockItems(s1, products.subList(0, 5));
+
+		//
+		// Query more than a chunk of product identifiers, with duplicates,
+		// so that the last chunk needs padding.
+		//
+		final long[] productIds = new long[products.size() + 7];
+		for (int i = 0; i < productIds.length; i++) {
+			productIds[i] = products.get(i % products.size()).getId();
+		}
+
+		em.getTransaction().begin();
+		final Collection<StockItem> result = sq.queryEnterpriseStockItemsByProductId(
+				enterprise.getId(), productIds, new EntityPersistenceContext(em)
+				);
+
+		em.getTransaction().commit();
+
+		assertEquals(305, result.size());
+		assertEquals(expectedIds, new HashSet<Long>(getIds(result)));
+
+		//
+		// Query three distinct product identifiers, which are padded to a
+		// chunk of four.
+		//
+		em.getTransaction().begin();
+		final Collection<StockItem> fewResult = sq.queryEnterpriseStockItemsByProductId(
+				enterprise.getId(), new long[] {
+						products.get(7).getId(), products.get(3).getId(),
+						products.get(7).getId(), products.get(5).getId(),
+						products.get(3).getId()
+				}, new EntityPersistenceContext(em)
+				);
+
+		em.getTransaction().commit();
+
+		assertEquals(4, fewResult.size());
+	}
+
+	@Test
+	public void queryStockItemsByBarcode() {
+		final Store s2 = persistStore();
+		final List<Product> products = persistProducts(260);
+		final List<StockItem> stockItems = persistStockItems(s1, products);
+		persistStockItems(s2, products.subList(0, 5));
+
+		//
+		// Query every barcode twice, and a barcode of a product which is
+		// not in stock.
+		//
+		final long[] barcodes = new long[2 * products.size() + 1];
+		for (int i = 0; i < products.size(); i++) {
+			barcodes[2 * i] = products.get(i).getBarcode();
+			barcodes[2 * i + 1] = products.get(i).getBarcode();
+		}
+
+		barcodes[barcodes.length - 1] = nextBarcode++;
+
+		em.getTransaction().begin();
+		final Collection<StockItem> result = sq.queryStockItemsByBarcode(
+				s1.getId(), barcodes, new EntityPersistenceContext(em)
+				);
+
+		em.getTransaction().commit();
+
+		assertEquals(260, result.size());
+		assertEquals(
+				new HashSet<Long>(getIds(stockItems)),
+				new HashSet<Long>(getIds(result))
+				);
+	}
+
+	@Test
+	public void queryStockItemIds() {
+		final Store s2 = persistStore();
+		final List<StockItem> stockItems = persistStockItems(s1, persistProducts(3));
+		final StockItem foreign = persistStockItems(s2, persistProducts(1)).get(0);
+
+		em.getTransaction().begin();
+		final Collection<Long> result = sq.queryStockItemIds(
+				s1.getId(), new long[] {
+						stockItems.get(2).getId(), foreign.getId(),
+						stockItems.get(0).getId(), stockItems.get(2).getId(),
+						Long.MAX_VALUE
+				}, new EntityPersistenceContext(em)
+				);
+
+		em.getTransaction().commit();
+
+		assertEquals(2, result.size());
+		assertTrue(result.contains(stockItems.get(0).getId()));
+		assertTrue(result.contains(stockItems.get(2).getId()));
+	}
+
+	//
+
+	private TradingEnterprise persistEnterprise() {
+		em.getTransaction().begin();
+
+		final TradingEnterprise result = new TradingEnterprise();
+		em.persist(result);
+
+		em.getTransaction().commit();
+		return result;
+	}
+
+	private Store persistStore() {
+		return persistStore(null);
+	}
+
+	private Store persistStore(final TradingEnterprise enterprise) {
+		em.getTransaction().begin();
+
+		final Store result = new Store();
+		result.setEnterprise(enterprise);
+		em.persist(result);
+
+		em.getTransaction().commit();
+		return result;
+	}
+
+	private List<Product> persistProducts(final int count) {
+		em.getTransaction().begin();
+
+		final List<Product> result = new ArrayList<Product>(count);
+		for (int i = 0; i < count; i++) {
+			final Product product = new Product();
+			product.setBarcode(nextBarcode++);
+			em.persist(product);
+			result.add(product);
+		}
+
+		em.getTransaction().commit();
+		return result;
+	}
+
+	private List<StockItem> persistStockItems(
+			final Store store, final List<Product> products
+			) {
+		em.getTransaction().begin();
+
+		final List<StockItem> result = new ArrayList<StockItem>(products.size());
+		for (final Product product : products) {
+			final StockItem stockItem = new StockItem();
+			stockItem.setAmount(100);
+			stockItem.setStore(store);
+			stockItem.setProduct(product);
+			em.persist(stockItem);
+			result.add(stockItem);
+		}
+
+		em.getTransaction().commit();
+		return result;
+	}
+
+	private static List<Long> getIds(final Collection<StockItem> stockItems) {
+		final List<Long> result = new ArrayList<Long>(stockItems.size());
+		for (final StockItem stockItem : stockItems) {
+			result.add(stockItem.getId());
+		}
+
+		return result;
+	}
+
 }
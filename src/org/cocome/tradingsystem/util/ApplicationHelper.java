@@ -17,11 +17,18 @@
 package org.cocome.tradingsystem.util;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
 import org.cocome.tradingsystem.util.java.Sets;
 
 /**
@@ -38,6 +45,9 @@ public final class ApplicationHelper {
 
 	private static final Set<String> REGISTER_NAMES = Sets.newHashSet();
 
+	private static final ConcurrentMap<String, RemoteComponent<?>> REMOTE_COMPONENTS =
+			new ConcurrentHashMap<String, RemoteComponent<?>>();
+
 	//
 
 	static {
@@ -141,13 +151,42 @@ public final class ApplicationHelper {
 	}
 
 	/**
+	 * Returns a remote component with the given name and type. Remote
+	 * components are shared, so that the remote reference is only looked up
+	 * and cached once for all clients of the component.
 	 * 
 	 * @param name
 	 * @param type
 	 * @return
 	 */
 	public static <T extends Remote> RemoteComponent<T> getRemoteComponent(final String name, final Class<T> type) {
-		return new RemoteComponent<T>(name, type);
+		final RemoteComponent<T> shared = ApplicationHelper.getSharedRemoteComponent(name, type);
+		if (shared != null) {
+			return shared;
+		}
+
+		final RemoteComponent<T> result = new RemoteComponent<T>(name, type);
+		if (REMOTE_COMPONENTS.putIfAbsent(name, result) != null) {
+			//
+			// Another thread registered the component in the meantime,
+			// use it if the type matches.
+			//
+			final RemoteComponent<T> raced = ApplicationHelper.getSharedRemoteComponent(name, type);
+			return (raced != null) ? raced : result;
+		}
+
+		ApplicationHelper.registerMBean(
+				result, RemoteComponentMBean.class,
+				"org.cocome.tradingsystem:type=RemoteComponent,name=" + ObjectName.quote(name)
+				);
+
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Remote> RemoteComponent<T> getSharedRemoteComponent(final String name, final Class<T> type) {
+		final RemoteComponent<?> shared = REMOTE_COMPONENTS.get(name);
+		return (shared != null && shared.type() == type) ? (RemoteComponent<T>) shared : null;
 	}
 
 	/**
@@ -198,6 +237,64 @@ public final class ApplicationHelper {
 		}
 	}
 
+	/**
+	 * Returns the value of a system property as a long integer. If the
+	 * property is not set or does not contain a valid number, the given
+	 * default value is returned instead.
+	 * 
+	 * @param name
+	 *            name of the system property
+	 * @param defaultValue
+	 *            value to return if the property is not set or is invalid
+	 * @return the value of the system property, or the default value
+	 */
+	public static long getLongProperty(final String name, final long defaultValue) {
+		final String value = System.getProperty(name);
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+
+		} catch (final NumberFormatException nfe) {
+			Logger.getLogger(ApplicationHelper.class).warn(String.format(
+					"Invalid value '%s' of %s, using %d", value, name, defaultValue
+					));
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Registers the given object as a standard MBean with the platform MBean
+	 * server. Failure to register the MBean is logged, but otherwise ignored,
+	 * because the MBeans only serve monitoring purposes.
+	 * 
+	 * @param mbean
+	 *            the object to register
+	 * @param mbeanInterface
+	 *            the management interface implemented by the object
+	 * @param objectName
+	 *            the object name of the MBean
+	 * @return {@code true} if the MBean was registered, {@code false} otherwise
+	 */
+	public static <T> boolean registerMBean(
+			final T mbean, final Class<T> mbeanInterface, final String objectName
+			) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new StandardMBean(mbean, mbeanInterface), new ObjectName(objectName)
+					);
+			return true;
+
+		} catch (final Exception e) {
+			Logger.getLogger(ApplicationHelper.class).warn(String.format(
+					"Failed to register MBean %s: %s", objectName, e.getMessage()
+					));
+			return false;
+		}
+	}
+
 	/**
 	 * A really bad way to keep a thread waiting.
 	 * 
@@ -24,12 +24,14 @@ import javax.jms.JMSException;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
+import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.Topic;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
+import org.cocome.tradingsystem.util.event.EventCodecRegistry;
 import org.cocome.tradingsystem.util.java.Reflection;
 
 import org.apache.log4j.Logger;
@@ -71,9 +73,14 @@ public final class JmsHelper {
 			__producer = producer;
 		}
 
-		/** Sends a serializable object message. */
+		/**
+		 * Sends a serializable object message. The message is encoded in the
+		 * binary format if there is a codec for its type in the default
+		 * {@link EventCodecRegistry}, and sent as an object message
+		 * otherwise.
+		 */
 		public void send(final Serializable message) throws JMSException {
-			__producer.send(__session.createObjectMessage(message));
+			__producer.send(EventCodecRegistry.getDefault().createMessage(__session, message));
 		}
 
 		/**
@@ -133,6 +140,20 @@ public final class JmsHelper {
 		return __naming__.lookup(name, Topic.class);
 	}
 
+	/**
+	 * Looks up a queue of given name in the initial context.
+	 * 
+	 * @param name
+	 *            name of the queue to look up
+	 * @return
+	 *         queue corresponding to the given name
+	 * @throws NamingException
+	 */
+	public static Queue lookupQueue(final String name) throws NamingException {
+		__initNaming();
+		return __naming__.lookup(name, Queue.class);
+	}
+
 	public static Session createSession(final Connection connection) throws JMSException {
 		return connection.createSession(
 				false, // normal session
@@ -163,6 +184,24 @@ public final class JmsHelper {
 		return new SessionBoundProducer(session, session.createProducer(topic));
 	}
 
+	/**
+	 * Creates a message consumer for the given topic. The client is expected
+	 * to receive messages from the consumer synchronously.
+	 * 
+	 * @param session
+	 *            session to create a message consumer in
+	 * @param topicName
+	 *            name of the topic
+	 * @return
+	 *         message consumer for the topic
+	 */
+	public static MessageConsumer createConsumer(
+			final Session session, final String topicName
+			) throws NamingException, JMSException {
+		final Topic topic = lookupTopic(topicName);
+		return session.createConsumer(topic);
+	}
+
 	/**
 	 * Subscribes the given listener to the given topic. The listener will
 	 * receive messages from the topic when the underlying connection starts
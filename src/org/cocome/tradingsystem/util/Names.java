@@ -37,6 +37,10 @@ public final class Names {
 		return storeName;
 	}
 
+	public static String getFailedSalesQueueName(final String storeName) {
+		return String.format("%s/FailedSales", storeName);
+	}
+
 	public static String getCashDeskTopicName(final String cashDeskName, final String storeName) {
 		return String.format("%s/%s", storeName, cashDeskName);
 	}
@@ -16,35 +16,283 @@
 
 package org.cocome.tradingsystem.util;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Encapsulates remote component name and type to provide on-demand lookup when
  * a component is needed. This enables certain failure tolerance in RMI-based
  * communication with remote components, because they are looked up only when
  * needed.
+ * <p>
+ * The remote reference is cached after the first lookup, and only looked up
+ * again after the time given by the {@link #TTL_PROPERTY} system property, or
+ * after a call through the reference fails with a {@link RemoteException}.
+ * Clients therefore get a proxy that delegates to the cached reference. Calls
+ * that fail because the remote object is gone or the connection is refused
+ * are retried once with a fresh reference, because such calls never reached
+ * the remote object. If caching is disabled, clients get the looked-up
+ * reference itself.
  * 
  * @author Lubomir Bulej
  */
-public final class RemoteComponent<T extends Remote> {
+public final class RemoteComponent<T extends Remote> implements RemoteComponentMBean {
+
+	/**
+	 * Name of the system property specifying the time (in milliseconds)
+	 * after which a cached remote reference is looked up again. If zero,
+	 * caching is disabled and the remote reference is looked up on every
+	 * use.
+	 */
+	static final String TTL_PROPERTY = "org.cocome.tradingsystem.util.RemoteComponentTtl";
+
+	private static final long __DEFAULT_TTL__ = 60000;
+
+	//
+
 	private final String __name;
 	private final Class<T> __type;
 
+	private final long __ttlMillis;
+
+	/**
+	 * Proxy delegating to the cached remote reference, or {@code null} if
+	 * caching is disabled.
+	 */
+	private final T __proxy;
+
+	/** Cached remote reference, or {@code null} if it needs to be looked up. */
+	private volatile T __stub;
+
+	private volatile long __lookupTime;
+
+	/** Whether the last remote reference was discarded after a failure. */
+	private boolean __stubFailed;
+
+	//
+
+	private final AtomicLong __lookupCount = new AtomicLong();
+
+	private final AtomicLong __lookupFailureCount = new AtomicLong();
+
+	private final AtomicLong __reconnectCount = new AtomicLong();
+
+	private final AtomicLong __retryCount = new AtomicLong();
+
 	//
 
 	RemoteComponent(final String name, final Class<T> type) {
 		__name = name;
 		__type = type;
+		__ttlMillis = Math.max(0, ApplicationHelper.getLongProperty(TTL_PROPERTY, __DEFAULT_TTL__));
+		__proxy = (__ttlMillis > 0) ? __createProxy(type) : null;
+	}
+
+	private T __createProxy(final Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(
+				type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy, final Method method, final Object[] args
+							) throws Throwable {
+						return __invoke(proxy, method, args);
+					}
+				}));
+	}
+
+	Class<T> type() {
+		return __type;
 	}
 
+	/**
+	 * Returns a reference to the remote component. The reference remains
+	 * usable even if the remote component is restarted, as long as it is
+	 * registered under the same name. If caching is disabled, the remote
+	 * reference is looked up on each call and returned as it is.
+	 * 
+	 * @throws ComponentNotAvailableException
+	 *             if the remote component cannot be looked up
+	 */
 	public T get() {
+		if (__proxy == null) {
+			return __lookup();
+		}
+
+		__getStub();
+		return __proxy;
+	}
+
+	//
+
+	private Object __invoke(
+			final Object proxy, final Method method, final Object[] args
+			) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			return __invokeObjectMethod(proxy, method, args);
+		}
+
+		final T stub = __getStub();
+		try {
+			return method.invoke(stub, args);
+
+		} catch (final InvocationTargetException ite) {
+			final Throwable cause = ite.getCause();
+			if (!(cause instanceof RemoteException)) {
+				throw cause;
+			}
+
+			__discardStub(stub);
+			if (!__isSafeToRetry(cause)) {
+				throw cause;
+			}
+
+			//
+			// The call did not reach the remote object, retry it once
+			// with a fresh reference. If the lookup fails, report the
+			// original failure.
+			//
+			final T freshStub;
+			try {
+				freshStub = __getStub();
+
+			} catch (final ComponentNotAvailableException cnae) {
+				throw cause;
+			}
+
+			__retryCount.incrementAndGet();
+			try {
+				return method.invoke(freshStub, args);
+
+			} catch (final InvocationTargetException retryIte) {
+				if (retryIte.getCause() instanceof RemoteException) {
+					__discardStub(freshStub);
+				}
+
+				throw retryIte.getCause();
+			}
+		}
+	}
+
+	private Object __invokeObjectMethod(
+			final Object proxy, final Method method, final Object[] args
+			) {
+		final String methodName = method.getName();
+		if ("equals".equals(methodName)) {
+			return proxy == args[0];
+		} else if ("hashCode".equals(methodName)) {
+			return System.identityHashCode(proxy);
+		} else {
+			return String.format("%s named %s", __type.getSimpleName(), __name);
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the given failure guarantees that the remote
+	 * method was not invoked, i.e. the remote object is no longer exported,
+	 * or the connection to the remote object was refused.
+	 */
+	private static boolean __isSafeToRetry(final Throwable failure) {
+		return (failure instanceof NoSuchObjectException)
+				|| (failure instanceof ConnectException);
+	}
+
+	//
+
+	private T __getStub() {
+		final T stub = __stub;
+		if (stub != null && !__isExpired()) {
+			return stub;
+		}
+
+		return __lookupStub();
+	}
+
+	private boolean __isExpired() {
+		return System.currentTimeMillis() - __lookupTime >= __ttlMillis;
+	}
+
+	private synchronized T __lookupStub() {
+		//
+		// Another thread may have looked up the reference in the meantime.
+		//
+		if (__stub != null && !__isExpired()) {
+			return __stub;
+		}
+
+		final T result = __lookup();
+		if (__stubFailed) {
+			__reconnectCount.incrementAndGet();
+			__stubFailed = false;
+		}
+
+		__lookupTime = System.currentTimeMillis();
+		__stub = result;
+		return result;
+	}
+
+	private T __lookup() {
 		try {
-			return ApplicationHelper.getComponent(__name, __type);
+			final T result = ApplicationHelper.getComponent(__name, __type);
+			__lookupCount.incrementAndGet();
+			return result;
 
 		} catch (final Exception e) {
+			__lookupFailureCount.incrementAndGet();
 			throw new ComponentNotAvailableException(
 					__name, __type, e);
 		}
 	}
 
+	/**
+	 * Discards the given remote reference after a failure, unless it has
+	 * already been replaced by another thread.
+	 */
+	private synchronized void __discardStub(final T stub) {
+		if (__stub == stub) {
+			__stub = null;
+			__stubFailed = true;
+		}
+	}
+
+	//
+	// RemoteComponentMBean
+	//
+
+	@Override
+	public String getName() {
+		return __name;
+	}
+
+	@Override
+	public long getTtlMillis() {
+		return __ttlMillis;
+	}
+
+	@Override
+	public long getLookupCount() {
+		return __lookupCount.get();
+	}
+
+	@Override
+	public long getLookupFailureCount() {
+		return __lookupFailureCount.get();
+	}
+
+	@Override
+	public long getReconnectCount() {
+		return __reconnectCount.get();
+	}
+
+	@Override
+	public long getRetryCount() {
+		return __retryCount.get();
+	}
+
 }
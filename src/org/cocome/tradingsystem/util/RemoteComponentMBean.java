@@ -0,0 +1,57 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util;
+
+/**
+ * Management interface of the {@link RemoteComponent}. Exposes how often the
+ * remote reference is looked up in the RMI registry.
+ */
+public interface RemoteComponentMBean {
+
+	/**
+	 * @return name of the remote component in the RMI registry
+	 */
+	String getName();
+
+	/**
+	 * @return time (in milliseconds) after which the cached remote reference
+	 *         is looked up again
+	 */
+	long getTtlMillis();
+
+	/**
+	 * @return number of successful lookups in the RMI registry
+	 */
+	long getLookupCount();
+
+	/**
+	 * @return number of failed lookups in the RMI registry
+	 */
+	long getLookupFailureCount();
+
+	/**
+	 * @return number of lookups made because the cached remote reference
+	 *         failed
+	 */
+	long getReconnectCount();
+
+	/**
+	 * @return number of calls retried with a fresh remote reference
+	 */
+	long getRetryCount();
+
+}
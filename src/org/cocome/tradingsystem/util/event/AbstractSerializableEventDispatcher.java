@@ -30,16 +30,31 @@ import org.cocome.tradingsystem.util.event.ObjectMessageListener.IEventDispatche
  * <p>
  * To hook into the dispatching process, subclasses need to override the {@link #_dispatch(Serializable)} method and either take care of the dispatching themselves,
  * or reuse the default implementation and perform various task before and after an event handler has been called.
+ * <p>
+ * The event handler methods are invoked using a generated dispatcher by default. The reflection-based dispatcher can be selected by setting the
+ * {@value #DISPATCHER_PROPERTY} system property to {@code reflection}.
  * 
  * @author Lubomir Bulej
  */
 public abstract class AbstractSerializableEventDispatcher implements IEventDispatcher {
 
+	/**
+	 * Name of the system property selecting the dispatcher implementation.
+	 */
+	public static final String DISPATCHER_PROPERTY =
+			"org.cocome.tradingsystem.util.event.Dispatcher";
+
+	private static final boolean USE_REFLECTION_DISPATCHER = "reflection".equalsIgnoreCase(
+			System.getProperty(DISPATCHER_PROPERTY, "")
+			);
+
+	//
+
 	private final Logger log = Logger.getLogger(this.getClass());
 
 	private final String handlerName;
 
-	private final ReflectionDispatcher dispatcher;
+	private final IEventDispatcher dispatcher;
 
 	/**
 	 * Create a serializable event dispatcher.
@@ -49,7 +64,7 @@ public abstract class AbstractSerializableEventDispatcher implements IEventDispa
 	 */
 	public AbstractSerializableEventDispatcher(final String handlerName) {
 		this.handlerName = handlerName;
-		this.dispatcher = ReflectionDispatcher.newInstance(this);
+		this.dispatcher = this.createDispatcher();
 	}
 
 	/**
@@ -74,4 +89,25 @@ public abstract class AbstractSerializableEventDispatcher implements IEventDispa
 		this.dispatcher.dispatch(eventObject);
 	}
 
+	private IEventDispatcher createDispatcher() {
+		if (USE_REFLECTION_DISPATCHER) {
+			return ReflectionDispatcher.newInstance(this);
+		}
+
+		//
+		// Fall back to reflection if the dispatcher cannot be generated,
+		// e.g., due to restrictions on defining classes at runtime.
+		//
+		try {
+			return GeneratedDispatcher.newInstance(this);
+
+		} catch (final IllegalStateException ise) {
+			this.log.warn(String.format(
+					"%s: could not generate event dispatcher, using reflection: %s",
+					this.handlerName, ise.getMessage()
+					));
+			return ReflectionDispatcher.newInstance(this);
+		}
+	}
+
 }
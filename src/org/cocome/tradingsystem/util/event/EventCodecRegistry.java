@@ -0,0 +1,408 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+import org.apache.log4j.Logger;
+import org.cocome.tradingsystem.util.java.Maps;
+
+/**
+ * Maps event types to numeric type identifiers and {@link IEventCodec event
+ * codecs}, and converts events to and from JMS messages. Events with a
+ * registered codec are sent as {@link BytesMessage} containing a format
+ * version, the event type identifier, and the fields written by the codec.
+ * Events without a codec are sent as {@link ObjectMessage}, and both kinds of
+ * messages are accepted when receiving.
+ * <p>
+ * The default registry is populated by the {@link IEventCodecProvider event
+ * codec providers} listed (comma-separated) in the
+ * {@value #PROVIDERS_PROPERTY} system property. Setting the property to an
+ * empty string disables the binary encoding altogether. Because the type
+ * identifiers and the field order form the wire schema, all parties
+ * exchanging events must use the same providers.
+ */
+public final class EventCodecRegistry {
+
+	private static final Logger __log__ = Logger.getLogger(EventCodecRegistry.class);
+
+	//
+
+	/**
+	 * System property listing the event codec providers used by the default
+	 * registry.
+	 */
+	public static final String PROVIDERS_PROPERTY =
+			"org.cocome.tradingsystem.util.event.EventCodecProviders";
+
+	private static final String __DEFAULT_PROVIDERS__ =
+			"org.cocome.tradingsystem.cashdeskline.events.CashDeskEventCodecs";
+
+	/**
+	 * Version of the binary message format, written as the first byte of
+	 * every encoded event.
+	 */
+	private static final int __FORMAT_VERSION__ = 1;
+
+	private static final int __MAX_TYPE_ID__ = 0xFFFF;
+
+	private static final int __INITIAL_BUFFER_SIZE__ = 64;
+
+	//
+
+	private static final class Registration<E extends Serializable> {
+		final int typeId;
+
+		final Class<E> type;
+
+		final IEventCodec<E> codec;
+
+		Registration(final int typeId, final Class<E> type, final IEventCodec<E> codec) {
+			this.typeId = typeId;
+			this.type = type;
+			this.codec = codec;
+		}
+
+		void encode(final Serializable event, final DataOutput output) throws IOException {
+			codec.encode(type.cast(event), output);
+		}
+	}
+
+	private static final class DefaultRegistryHolder {
+		static final EventCodecRegistry INSTANCE = __createDefault();
+	}
+
+	//
+
+	private final Map<Class<?>, Registration<?>> __registrationsByType =
+			Maps.newConcurrentHashMap();
+
+	private final Map<Integer, Registration<?>> __registrationsById =
+			Maps.newConcurrentHashMap();
+
+	//
+
+	/**
+	 * Returns the default registry populated by the event codec providers
+	 * listed in the {@value #PROVIDERS_PROPERTY} system property.
+	 */
+	public static EventCodecRegistry getDefault() {
+		return DefaultRegistryHolder.INSTANCE;
+	}
+
+	/**
+	 * Registers a codec for the given event type under the given type
+	 * identifier.
+	 * 
+	 * @param typeId
+	 *            type identifier between 0 and 65535, unique in the registry
+	 * @param type
+	 *            event type handled by the codec
+	 * @param codec
+	 *            codec for the event type
+	 * @throws IllegalArgumentException
+	 *             if the type identifier is out of range, or if the type
+	 *             identifier or the event type is already registered
+	 */
+	public synchronized <E extends Serializable> void register(
+			final int typeId, final Class<E> type, final IEventCodec<E> codec) {
+		if (typeId < 0 || typeId > __MAX_TYPE_ID__) {
+			throw new IllegalArgumentException("Event type id out of range: " + typeId);
+		}
+
+		if (__registrationsById.containsKey(typeId)) {
+			throw new IllegalArgumentException(String.format(
+					"Event type id %d already registered for %s",
+					typeId, __registrationsById.get(typeId).type.getName()
+					));
+		}
+
+		if (__registrationsByType.containsKey(type)) {
+			throw new IllegalArgumentException(
+					"Event type already registered: " + type.getName());
+		}
+
+		final Registration<E> registration = new Registration<E>(typeId, type, codec);
+		__registrationsByType.put(type, registration);
+		__registrationsById.put(typeId, registration);
+	}
+
+	/**
+	 * Determines whether the registry contains a codec for the given event
+	 * type.
+	 */
+	public boolean canEncode(final Class<?> type) {
+		return __registrationsByType.containsKey(type);
+	}
+
+	/**
+	 * Encodes the given event into a byte array.
+	 * 
+	 * @param event
+	 *            event to encode
+	 * @return encoded event, or {@code null} if there is no codec for the
+	 *         event type
+	 * @throws IOException
+	 *             if the codec failed to encode the event
+	 */
+	public byte[] encode(final Serializable event) throws IOException {
+		final Registration<?> registration = __registrationsByType.get(event.getClass());
+		if (registration == null) {
+			return null;
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(__INITIAL_BUFFER_SIZE__);
+		final DataOutputStream output = new DataOutputStream(bytes);
+
+		output.writeByte(__FORMAT_VERSION__);
+		output.writeShort(registration.typeId);
+		registration.encode(event, output);
+		output.flush();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes an event from the given byte array.
+	 * 
+	 * @param bytes
+	 *            encoded event
+	 * @return decoded event
+	 * @throws IOException
+	 *             if the format version or the event type identifier is not
+	 *             known, or if the codec failed to decode the event
+	 */
+	public Serializable decode(final byte[] bytes) throws IOException {
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+
+		final int version = input.readUnsignedByte();
+		if (version != __FORMAT_VERSION__) {
+			throw new IOException("Unsupported event format version: " + version);
+		}
+
+		final int typeId = input.readUnsignedShort();
+		final Registration<?> registration = __registrationsById.get(typeId);
+		if (registration == null) {
+			throw new IOException("Unknown event type id: " + typeId);
+		}
+
+		return registration.codec.decode(input);
+	}
+
+	//
+
+	/**
+	 * Creates a JMS message carrying the given event. The message is a
+	 * {@link BytesMessage} if there is a codec for the event type, and an
+	 * {@link ObjectMessage} otherwise.
+	 * 
+	 * @param session
+	 *            session to create the message with
+	 * @param event
+	 *            event to put into the message
+	 * @return message carrying the event
+	 * @throws JMSException
+	 *             if the message could not be created, or if the codec failed
+	 *             to encode the event
+	 */
+	public Message createMessage(
+			final Session session, final Serializable event) throws JMSException {
+		final byte[] bytes;
+		try {
+			bytes = encode(event);
+
+		} catch (final IOException ioe) {
+			throw __jmsException("Failed to encode event " + event.getClass().getName(), ioe);
+		}
+
+		if (bytes == null) {
+			return session.createObjectMessage(event);
+		}
+
+		final BytesMessage message = session.createBytesMessage();
+		message.writeBytes(bytes);
+		return message;
+	}
+
+	/**
+	 * Extracts an event from the given JMS message. Accepts both the
+	 * {@link BytesMessage} and the {@link ObjectMessage} produced by
+	 * {@link #createMessage(Session, Serializable)}.
+	 * 
+	 * @param message
+	 *            message carrying the event
+	 * @return event carried by the message, or {@code null} if the message is
+	 *         neither a {@link BytesMessage} nor an {@link ObjectMessage}
+	 * @throws JMSException
+	 *             if the message could not be read, or if the event could not
+	 *             be decoded
+	 */
+	public Serializable getEvent(final Message message) throws JMSException {
+		if (message instanceof ObjectMessage) {
+			return ((ObjectMessage) message).getObject();
+
+		} else if (message instanceof BytesMessage) {
+			final BytesMessage bytesMessage = (BytesMessage) message;
+			final byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(bytes);
+
+			try {
+				return decode(bytes);
+
+			} catch (final IOException ioe) {
+				throw __jmsException("Failed to decode event", ioe);
+			}
+
+		} else {
+			return null;
+		}
+	}
+
+	private static JMSException __jmsException(final String reason, final Exception cause) {
+		final JMSException result = new JMSException(reason + ": " + cause.getMessage());
+		result.setLinkedException(cause);
+		result.initCause(cause);
+		return result;
+	}
+
+	//
+
+	/**
+	 * Writes a string which may be {@code null}.
+	 */
+	public static void writeString(
+			final DataOutput output, final String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)}.
+	 */
+	public static String readString(final DataInput input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	/**
+	 * Reads the length of an array or a collection, and checks that the
+	 * remaining input can hold that many elements of the given encoded size.
+	 * 
+	 * @throws IOException
+	 *             if the length is negative or exceeds the remaining input
+	 */
+	public static int readLength(
+			final DataInputStream input, final int elementSize) throws IOException {
+		final int result = input.readInt();
+		checkLength(input, result, elementSize);
+		return result;
+	}
+
+	/**
+	 * Checks that the given length of an array or a collection is not
+	 * negative, and that the remaining input can hold that many elements
+	 * of the given encoded size. This prevents a corrupt length from
+	 * causing allocation of a huge array.
+	 * 
+	 * @throws IOException
+	 *             if the length is negative or exceeds the remaining input
+	 */
+	public static void checkLength(
+			final DataInputStream input, final int length, final int elementSize
+			) throws IOException {
+		final int remaining = input.available();
+		if (length < 0 || (long) length * elementSize > remaining) {
+			throw new IOException(String.format(
+					"Invalid length %d, only %d bytes remaining", length, remaining
+					));
+		}
+	}
+
+	/**
+	 * Writes an enum constant which may be {@code null}. The constant is
+	 * written as its ordinal, so reordering the constants of an enum changes
+	 * the schema of all events using it.
+	 */
+	public static void writeEnum(
+			final DataOutput output, final Enum<?> value) throws IOException {
+		output.writeByte((value != null) ? value.ordinal() : -1);
+	}
+
+	/**
+	 * Reads an enum constant written by {@link #writeEnum(DataOutput, Enum)}.
+	 */
+	public static <E extends Enum<E>> E readEnum(
+			final DataInput input, final Class<E> type) throws IOException {
+		final int ordinal = input.readByte();
+		if (ordinal < 0) {
+			return null;
+		}
+
+		final E[] constants = type.getEnumConstants();
+		if (ordinal >= constants.length) {
+			throw new IOException(String.format(
+					"Invalid ordinal %d for %s", ordinal, type.getName()
+					));
+		}
+
+		return constants[ordinal];
+	}
+
+	//
+
+	private static EventCodecRegistry __createDefault() {
+		final EventCodecRegistry result = new EventCodecRegistry();
+
+		final String providers = System.getProperty(PROVIDERS_PROPERTY, __DEFAULT_PROVIDERS__);
+		for (final String name : providers.split(",")) {
+			final String className = name.trim();
+			if (className.length() == 0) {
+				continue;
+			}
+
+			try {
+				final IEventCodecProvider provider = Class.forName(className)
+						.asSubclass(IEventCodecProvider.class).newInstance();
+				provider.registerCodecs(result);
+
+			} catch (final Exception e) {
+				__log__.warn(String.format(
+						"Failed to register event codecs from %s, events will be sent as objects",
+						className
+						), e);
+			}
+		}
+
+		return result;
+	}
+
+}
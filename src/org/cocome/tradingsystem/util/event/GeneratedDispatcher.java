@@ -0,0 +1,232 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util.event;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import javax.jms.JMSException;
+
+import org.cocome.tradingsystem.util.event.ObjectMessageListener.IEventDispatcher;
+import org.cocome.tradingsystem.util.java.Lists;
+import org.cocome.tradingsystem.util.java.Maps;
+
+/**
+ * Dispatches events to event handler methods according to event type. Unlike
+ * the {@link ReflectionDispatcher}, this dispatcher does not use reflection to
+ * invoke the handler methods. Instead, it generates an invoker class for each
+ * target type, which compares the type of the event against the types handled
+ * by the target and calls the corresponding handler method directly.
+ * <p>
+ * The invoker class is generated once per target type, when the first
+ * dispatcher for that type is created. The event handler methods are
+ * determined in the same way as in the {@link ReflectionDispatcher}, and
+ * exceptions thrown by the event handlers are propagated in the same way.
+ */
+final class GeneratedDispatcher implements IEventDispatcher {
+
+	private static final String __INVOKER_SUFFIX__ = "_GeneratedDispatcher";
+
+	/** Constructors of invoker classes indexed by target type. */
+	private static final Map<Class<?>, Constructor<?>> __invokers__ = Maps.newHashMap();
+
+	//
+
+	private final IEventDispatcher __invoker;
+
+	//
+
+	private GeneratedDispatcher(final IEventDispatcher invoker) {
+		__invoker = invoker;
+	}
+
+	//
+
+	@Override
+	public void dispatch(final Serializable eventObject) throws JMSException {
+		//
+		// The invoker calls the handler methods directly, so it can throw
+		// any exception thrown by the handler. Rethrow unchecked exceptions
+		// and wrap checked exceptions, as the reflection-based dispatcher.
+		//
+		try {
+			__invoker.dispatch(eventObject);
+
+		} catch (final RuntimeException re) {
+			throw re;
+
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	//
+
+	public static GeneratedDispatcher newInstance(final Object target) {
+		final Map<Class<? extends Serializable>, Method> eventHandlers =
+				ReflectionDispatcher.getEventHandlers(target);
+
+		//
+		// Fix the order of event types, because the generated invoker refers
+		// to event types by their position in the array passed to it.
+		//
+		final List<Class<? extends Serializable>> eventTypes =
+				Lists.newArrayList(eventHandlers.keySet());
+
+		final Constructor<?> constructor = __getInvokerConstructor(
+				target.getClass(), eventTypes, eventHandlers
+				);
+
+		try {
+			final IEventDispatcher invoker = (IEventDispatcher) constructor.newInstance(
+					target, eventTypes.toArray(new Class<?>[eventTypes.size()])
+					);
+
+			return new GeneratedDispatcher(invoker);
+
+		} catch (final Exception e) {
+			throw new IllegalStateException(String.format(
+					"Could not instantiate event dispatcher for %s", target.getClass().getName()
+					), e);
+		}
+	}
+
+	private static synchronized Constructor<?> __getInvokerConstructor(
+			final Class<?> targetType,
+			final List<Class<? extends Serializable>> eventTypes,
+			final Map<Class<? extends Serializable>, Method> eventHandlers
+			) {
+		Constructor<?> result = __invokers__.get(targetType);
+		if (result == null) {
+			try {
+				result = __generateInvoker(targetType, eventTypes, eventHandlers)
+						.getConstructor(Object.class, Class[].class);
+
+			} catch (final Exception e) {
+				throw new IllegalStateException(String.format(
+						"Could not generate event dispatcher for %s: %s",
+						targetType.getName(), e.getMessage()
+						), e);
+			}
+
+			__invokers__.put(targetType, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Generates an invoker class for the given target type. The class is
+	 * placed in the package of the target type and defined by its class
+	 * loader, so that it can access the target type and its methods, which
+	 * are usually package-private.
+	 */
+	private static Class<?> __generateInvoker(
+			final Class<?> targetType,
+			final List<Class<? extends Serializable>> eventTypes,
+			final Map<Class<? extends Serializable>, Method> eventHandlers
+			) throws Exception {
+		final ClassLoader loader = targetType.getClassLoader();
+
+		final ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new LoaderClassPath(loader));
+
+		final String targetName = targetType.getName();
+		final String invokerName = targetName.replace('$', '_') + __INVOKER_SUFFIX__;
+		final String invokerSimpleName = invokerName.substring(invokerName.lastIndexOf('.') + 1);
+
+		final CtClass invoker = pool.makeClass(invokerName);
+		invoker.addInterface(pool.get(IEventDispatcher.class.getName()));
+		invoker.addField(CtField.make("private Object target;", invoker));
+		invoker.addField(CtField.make("private Class[] types;", invoker));
+
+		invoker.addConstructor(CtNewConstructor.make(String.format(
+				"public %s(Object target, Class[] types) { this.target = target; this.types = types; }",
+				invokerSimpleName
+				), invoker));
+
+		//
+		// Generate a sequence of event type checks, each followed by a
+		// direct call to the corresponding handler method.
+		//
+		final StringBuilder body = new StringBuilder();
+		body.append("public void dispatch(java.io.Serializable event) {\n");
+		body.append("Class type = event.getClass();\n");
+
+		for (int i = 0; i < eventTypes.size(); i++) {
+			final Class<? extends Serializable> eventType = eventTypes.get(i);
+			final Method handler = eventHandlers.get(eventType);
+
+			body.append(String.format(
+					"if (type == this.types[%d]) { ((%s) this.target).%s((%s) event); return; }\n",
+					i, targetName, handler.getName(), eventType.getName()
+					));
+		}
+
+		body.append("}\n");
+		invoker.addMethod(CtNewMethod.make(body.toString(), invoker));
+
+		return __defineClass(targetType, invoker);
+	}
+
+	/**
+	 * Defines the given class in the package of the given target type. On
+	 * Java 9 and later, the class is defined using a private lookup in the
+	 * target type, because defining classes by reflectively calling the
+	 * protected {@link ClassLoader} method is no longer permitted there.
+	 * The lookup API is accessed reflectively to keep compatibility with
+	 * older Java versions, which use the Javassist class definition.
+	 */
+	private static Class<?> __defineClass(
+			final Class<?> targetType, final CtClass invoker
+			) throws Exception {
+		final Class<?> handlesClass;
+		final Class<?> lookupClass;
+		try {
+			handlesClass = Class.forName("java.lang.invoke.MethodHandles");
+			lookupClass = Class.forName("java.lang.invoke.MethodHandles$Lookup");
+
+		} catch (final ClassNotFoundException cnfe) {
+			return invoker.toClass(targetType.getClassLoader(), targetType.getProtectionDomain());
+		}
+
+		final Method privateLookupIn;
+		final Method defineClass;
+		try {
+			privateLookupIn = handlesClass.getMethod("privateLookupIn", Class.class, lookupClass);
+			defineClass = lookupClass.getMethod("defineClass", byte[].class);
+
+		} catch (final NoSuchMethodException nsme) {
+			return invoker.toClass(targetType.getClassLoader(), targetType.getProtectionDomain());
+		}
+
+		final Object lookup = handlesClass.getMethod("lookup").invoke(null);
+		final Object targetLookup = privateLookupIn.invoke(null, targetType, lookup);
+		return (Class<?>) defineClass.invoke(targetLookup, (Object) invoker.toBytecode());
+	}
+
+}
@@ -0,0 +1,63 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util.event;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Encodes and decodes the fields of a single event type. The codec only
+ * handles the event payload, the event type identifier is written and read
+ * by the {@link EventCodecRegistry}. The order in which the fields are
+ * written is the schema of the event, so the decoder must read the fields in
+ * exactly the same order.
+ * 
+ * @param <E>
+ *            type of the event handled by the codec
+ */
+public interface IEventCodec<E extends Serializable> {
+
+	/**
+	 * Writes the fields of the given event to the given output.
+	 * 
+	 * @param event
+	 *            event to encode
+	 * @param output
+	 *            output to write the event fields to
+	 * @throws IOException
+	 *             if the fields could not be written
+	 */
+	void encode(E event, DataOutput output) throws IOException;
+
+	/**
+	 * Reads the fields of an event from the given input and creates a new
+	 * event instance. The input only holds the encoded event, so its
+	 * {@link DataInputStream#available()} method returns the number of
+	 * bytes remaining in the event, which allows validating lengths read
+	 * from the input using {@link EventCodecRegistry#readLength}.
+	 * 
+	 * @param input
+	 *            input to read the event fields from
+	 * @return decoded event
+	 * @throws IOException
+	 *             if the fields could not be read
+	 */
+	E decode(DataInputStream input) throws IOException;
+
+}
@@ -0,0 +1,34 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util.event;
+
+/**
+ * Registers event codecs for a group of related event types. Providers are
+ * instantiated by the default {@link EventCodecRegistry} and must therefore
+ * have a public no-argument constructor.
+ */
+public interface IEventCodecProvider {
+
+	/**
+	 * Registers event codecs with the given registry.
+	 * 
+	 * @param registry
+	 *            registry to register the codecs with
+	 */
+	void registerCodecs(EventCodecRegistry registry);
+
+}
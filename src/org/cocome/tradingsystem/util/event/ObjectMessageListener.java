@@ -18,6 +18,7 @@ package org.cocome.tradingsystem.util.event;
 
 import java.io.Serializable;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -64,21 +65,21 @@ public final class ObjectMessageListener implements MessageListener {
 
 	/**
 	 * Handles object messages delivered via the message channel. Extracts event
-	 * object from {@link ObjectMessage} and delegates the dispatching to
-	 * specific event handlers to given {@link IEventDispatcher}.
+	 * object from {@link ObjectMessage} or decodes it from {@link BytesMessage}
+	 * using the default {@link EventCodecRegistry}, and delegates the
+	 * dispatching to specific event handlers to given {@link IEventDispatcher}.
 	 */
 	// @Override
 	@Override
 	public final void onMessage(final Message message) {
-		if (message instanceof ObjectMessage) {
-			final ObjectMessage objectMessage = (ObjectMessage) message;
-
-			try {
-				this.dispatcher.dispatch(objectMessage.getObject());
-
-			} catch (final JMSException jmse) {
-				LOG.warn("Failed to extract message object, message ignored!", jmse);
+		try {
+			final Serializable event = EventCodecRegistry.getDefault().getEvent(message);
+			if (event != null) {
+				this.dispatcher.dispatch(event);
 			}
+
+		} catch (final JMSException jmse) {
+			LOG.warn("Failed to extract message object, message ignored!", jmse);
 		}
 	}
 
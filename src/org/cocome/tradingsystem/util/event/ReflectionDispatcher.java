@@ -24,6 +24,7 @@ import java.util.Map;
 
 import javax.jms.JMSException;
 
+import org.cocome.tradingsystem.util.event.ObjectMessageListener.IEventDispatcher;
 import org.cocome.tradingsystem.util.java.Iterables;
 import org.cocome.tradingsystem.util.java.Lists;
 import org.cocome.tradingsystem.util.java.Maps;
@@ -47,7 +48,7 @@ import org.cocome.tradingsystem.util.java.Reflection;
  * 
  * @author Lubomir Bulej
  */
-final class ReflectionDispatcher {
+final class ReflectionDispatcher implements IEventDispatcher {
 
 	private static final Iterables.Filter<Class<?>> __EVENT_CONSUMER_FILTER__ = new Iterables.Filter<Class<?>>() {
 		@Override
@@ -76,6 +77,7 @@ final class ReflectionDispatcher {
 
 	//
 
+	@Override
 	public void dispatch(final Serializable eventObject) throws JMSException {
 		final Method handler = __eventHandlers.get(eventObject.getClass());
 		if (handler != null) {
@@ -107,6 +109,20 @@ final class ReflectionDispatcher {
 	public static ReflectionDispatcher newInstance(
 			final Object target
 			) {
+		return new ReflectionDispatcher(target, getEventHandlers(target));
+	}
+
+	/**
+	 * Finds the event handler methods implemented by the given target.
+	 * 
+	 * @return map of target methods indexed by the type of event they handle
+	 * @throws IllegalArgumentException
+	 *             if the target does not implement any {@link EventConsumer} interface, or if the interface contains methods which are not event
+	 *             handlers
+	 */
+	static Map<Class<? extends Serializable>, Method> getEventHandlers(
+			final Object target
+			) {
 		final List<Class<?>> consumerInterfaces = Lists.newArrayList(
 				Iterables.filter(
 						Reflection.getEffectiveInterfaces(target.getClass()),
@@ -121,8 +137,7 @@ final class ReflectionDispatcher {
 
 		//
 
-		return new ReflectionDispatcher(
-				target, __collectEventHandlers(target, consumerInterfaces));
+		return __collectEventHandlers(target, consumerInterfaces);
 	}
 
 	private static Map<Class<? extends Serializable>, Method> __collectEventHandlers(
@@ -0,0 +1,166 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util.java;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive {@code long} keys to primitive {@code int} values. The
+ * map uses open addressing with linear probing in parallel primitive arrays,
+ * which avoids boxing the keys and values and allocating an entry object for
+ * each mapping. Removal of mappings is not supported.
+ * <p>
+ * The map is not thread-safe and requires external synchronization.
+ */
+public final class LongIntMap {
+
+	private static final int __MIN_CAPACITY__ = 16;
+
+	/** Value marking an empty slot in the value array. */
+	private static final int __EMPTY__ = -1;
+
+	//
+
+	private long[] __keys;
+
+	private int[] __values;
+
+	private int __size;
+
+	//
+
+	/**
+	 * Creates a map with enough space for the given number of mappings.
+	 * 
+	 * @param expectedSize
+	 *            expected number of mappings
+	 */
+	public LongIntMap(final int expectedSize) {
+		__allocate(__capacityFor(expectedSize));
+	}
+
+	public LongIntMap() {
+		this(__MIN_CAPACITY__);
+	}
+
+	//
+
+	/**
+	 * @return the number of mappings in the map
+	 */
+	public int size() {
+		return __size;
+	}
+
+	/**
+	 * Returns the value associated with the given key, or the given default
+	 * value if there is no mapping for the key.
+	 */
+	public int get(final long key, final int defaultValue) {
+		final int slot = __findSlot(__keys, __values, key);
+		return (__values[slot] != __EMPTY__) ? __values[slot] : defaultValue;
+	}
+
+	/**
+	 * Associates the given non-negative value with the given key, replacing
+	 * the previous mapping for the key.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the value is negative
+	 */
+	public void put(final long key, final int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("negative value: " + value);
+		}
+
+		int slot = __findSlot(__keys, __values, key);
+		if (__values[slot] == __EMPTY__) {
+			//
+			// Keep the load factor at most 1/2 to keep the probe
+			// sequences short.
+			//
+			if (2 * (__size + 1) > __keys.length) {
+				__rehash(2 * __keys.length);
+				slot = __findSlot(__keys, __values, key);
+			}
+
+			__keys[slot] = key;
+			__size++;
+		}
+
+		__values[slot] = value;
+	}
+
+	//
+
+	private static int __capacityFor(final int expectedSize) {
+		int capacity = __MIN_CAPACITY__;
+		while (capacity < 2 * expectedSize) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	private void __allocate(final int capacity) {
+		__keys = new long[capacity];
+		__values = new int[capacity];
+		Arrays.fill(__values, __EMPTY__);
+	}
+
+	private void __rehash(final int capacity) {
+		final long[] oldKeys = __keys;
+		final int[] oldValues = __values;
+
+		__allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != __EMPTY__) {
+				final int slot = __findSlot(__keys, __values, oldKeys[i]);
+				__keys[slot] = oldKeys[i];
+				__values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot holding the given key, or the empty slot where the
+	 * key should be inserted. There is always at least one empty slot.
+	 */
+	private static int __findSlot(
+			final long[] keys, final int[] values, final long key
+			) {
+		final int mask = keys.length - 1;
+
+		int slot = __hash(key) & mask;
+		while (values[slot] != __EMPTY__ && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private static int __hash(final long key) {
+		//
+		// Mix the bits of the key so that sequential keys (such as
+		// barcodes and identifiers) do not form long runs of slots.
+		//
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= (h >>> 32);
+		return (int) (h ^ (h >>> 16));
+	}
+
+}
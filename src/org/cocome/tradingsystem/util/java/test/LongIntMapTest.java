@@ -0,0 +1,103 @@
+/***************************************************************************
+ * Copyright 2013 DFG SPP 1593 (http://dfg-spp1593.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package org.cocome.tradingsystem.util.java.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.cocome.tradingsystem.util.java.LongIntMap;
+import org.junit.Test;
+
+/**
+ * Tests the {@link LongIntMap} class.
+ */
+public final class LongIntMapTest {
+
+	@Test
+	public void getMissingKey() {
+		final LongIntMap map = new LongIntMap();
+		assertEquals(-1, map.get(42, -1));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void putAndReplace() {
+		final LongIntMap map = new LongIntMap();
+		map.put(42, 1);
+		map.put(0, 2);
+		map.put(-42, 3);
+		map.put(42, 4);
+
+		assertEquals(3, map.size());
+		assertEquals(4, map.get(42, -1));
+		assertEquals(2, map.get(0, -1));
+		assertEquals(3, map.get(-42, -1));
+		assertEquals(-1, map.get(43, -1));
+	}
+
+	@Test
+	public void extremeKeys() {
+		final LongIntMap map = new LongIntMap();
+		map.put(Long.MIN_VALUE, 1);
+		map.put(Long.MAX_VALUE, 2);
+
+		assertEquals(1, map.get(Long.MIN_VALUE, -1));
+		assertEquals(2, map.get(Long.MAX_VALUE, -1));
+	}
+
+	@Test
+	public void growBeyondExpectedSize() {
+		final LongIntMap map = new LongIntMap(4);
+		final Map<Long, Integer> expected = new HashMap<Long, Integer>();
+
+		//
+		// Mix sequential keys, keys differing only in the upper half, and
+		// random keys, so that some of them collide.
+		//
+		final Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			final long key;
+			switch (i % 3) {
+			case 0:
+				key = i;
+				break;
+			case 1:
+				key = ((long) i) << 32;
+				break;
+			default:
+				key = random.nextLong();
+			}
+
+			map.put(key, i);
+			expected.put(key, i);
+		}
+
+		assertEquals(expected.size(), map.size());
+		for (final Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().intValue(), map.get(entry.getKey(), -1));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void putNegativeValue() {
+		new LongIntMap().put(1, -1);
+	}
+
+}